@@ -28,6 +28,8 @@ public final class Constants {
 
   public static final String FEDMASTER_FEDERATION_FETCH_ENDPOINT = "/federation_fetch_endpoint";
   public static final String FED_LIST_ENDPOINT = "/federation_list";
+  public static final String FED_CHANGES_ENDPOINT = "/federation_changes";
+  public static final int SIGNED_JWT_REUSE_MINUTES = 60;
   public static final String LOGO_URI =
       "https://raw.githubusercontent.com/gematik/zero-lab/main/static/images/GID_App_light_mode.png";
 }
@@ -23,7 +23,9 @@ package de.gematik.idp.gsi.fedmaster;
 import de.gematik.idp.gsi.fedmaster.services.EntityStatementBuilder;
 import de.gematik.idp.gsi.fedmaster.services.EntityStatementFederationMemberBuilder;
 import de.gematik.idp.gsi.fedmaster.services.FedListBuilder;
+import de.gematik.idp.gsi.fedmaster.services.FederationChangeLog;
 import de.gematik.idp.gsi.fedmaster.services.IdpListBuilder;
+import de.gematik.idp.gsi.fedmaster.services.SignedJwtCache;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -51,4 +53,14 @@ public class FlowBeanCreation {
   public FedListBuilder fedListBuilder() {
     return new FedListBuilder();
   }
+
+  @Bean
+  public FederationChangeLog federationChangeLog() {
+    return new FederationChangeLog();
+  }
+
+  @Bean
+  public SignedJwtCache signedJwtCache() {
+    return new SignedJwtCache();
+  }
 }
@@ -28,11 +28,14 @@ import de.gematik.idp.gsi.fedmaster.data.JwtHelper;
 import de.gematik.idp.gsi.fedmaster.exceptions.FedmasterException;
 import de.gematik.idp.gsi.fedmaster.services.EntityStatementFederationMemberBuilder;
 import de.gematik.idp.gsi.fedmaster.services.ServerUrlService;
+import de.gematik.idp.gsi.fedmaster.services.SignedJwtCache;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.constraints.NotEmpty;
+import java.util.function.Supplier;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
@@ -44,12 +47,13 @@ public class FederationApiController {
 
   private final EntityStatementFederationMemberBuilder entityStatementFederationMemberBuilder;
   private final ServerUrlService serverUrlService;
+  private final SignedJwtCache signedJwtCache;
   private final IdpJwtProcessor jwtProcessor;
 
   @GetMapping(
       value = FEDMASTER_FEDERATION_FETCH_ENDPOINT,
       produces = "application/entity-statement+jwt;charset=UTF-8")
-  public String getEntityStatementFederationMember(
+  public ResponseEntity<String> getEntityStatementFederationMember(
       // iss is a mandatory parameter, but ignored in this scenario
       @RequestParam(name = "iss") @NotEmpty final String iss,
       @RequestParam(name = "sub") @NotEmpty final String sub,
@@ -64,10 +68,19 @@ public class FederationApiController {
           HttpStatus.BAD_REQUEST,
           "6000");
     }
-    return JwtHelper.signJson(
-        jwtProcessor,
-        entityStatementFederationMemberBuilder.buildEntityStatementFederationMember(
-            serverUrlService.determineServerUrl(), sub, aud),
-        ENTITY_STATEMENT_TYP);
+    final Supplier<String> sign =
+        () ->
+            JwtHelper.signJson(
+                jwtProcessor,
+                entityStatementFederationMemberBuilder.buildEntityStatementFederationMember(
+                    serverUrlService.determineServerUrl(), sub, aud),
+                ENTITY_STATEMENT_TYP);
+    // statements for an audience are signed per request, so reused ones are bounded by the members
+    return CacheableResponses.of(
+        aud == null ? signedJwtCache.get(cacheKey(sub), sign) : signedJwtCache.signOnce(sign));
+  }
+
+  static String cacheKey(final String sub) {
+    return FEDMASTER_FEDERATION_FETCH_ENDPOINT + "?sub=" + sub;
   }
 }
@@ -23,17 +23,26 @@ package de.gematik.idp.gsi.fedmaster.controller;
 import static de.gematik.idp.IdpConstants.ENTITY_STATEMENT_ENDPOINT;
 import static de.gematik.idp.IdpConstants.ENTITY_STATEMENT_TYP;
 import static de.gematik.idp.IdpConstants.IDP_LIST_ENDPOINT;
+import static de.gematik.idp.gsi.fedmaster.Constants.FED_CHANGES_ENDPOINT;
 import static de.gematik.idp.gsi.fedmaster.Constants.FED_LIST_ENDPOINT;
 
 import de.gematik.idp.authentication.IdpJwtProcessor;
+import de.gematik.idp.gsi.fedmaster.data.FederationChange;
+import de.gematik.idp.gsi.fedmaster.data.FederationChanges;
 import de.gematik.idp.gsi.fedmaster.data.JwtHelper;
 import de.gematik.idp.gsi.fedmaster.services.EntityStatementBuilder;
 import de.gematik.idp.gsi.fedmaster.services.FedListBuilder;
+import de.gematik.idp.gsi.fedmaster.services.FederationChangeLog;
 import de.gematik.idp.gsi.fedmaster.services.IdpListBuilder;
 import de.gematik.idp.gsi.fedmaster.services.ServerUrlService;
+import de.gematik.idp.gsi.fedmaster.services.SignedJwtCache;
+import jakarta.validation.constraints.NotEmpty;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -44,29 +53,58 @@ public class FedmasterController {
   private final EntityStatementBuilder entityStatementBuilder;
   private final IdpListBuilder idpListBuilder;
   private final FedListBuilder fedListBuilder;
+  private final FederationChangeLog federationChangeLog;
+  private final SignedJwtCache signedJwtCache;
   private final ServerUrlService serverUrlService;
   private final IdpJwtProcessor jwtProcessor;
 
   @GetMapping(
       value = ENTITY_STATEMENT_ENDPOINT,
       produces = "application/entity-statement+jwt;charset=UTF-8")
-  public String getEntityStatement() {
-    return JwtHelper.signJson(
-        jwtProcessor,
-        entityStatementBuilder.buildEntityStatement(serverUrlService.determineServerUrl()),
-        ENTITY_STATEMENT_TYP);
+  public ResponseEntity<String> getEntityStatement() {
+    return CacheableResponses.of(
+        signedJwtCache.get(
+            ENTITY_STATEMENT_ENDPOINT,
+            () ->
+                JwtHelper.signJson(
+                    jwtProcessor,
+                    entityStatementBuilder.buildEntityStatement(
+                        serverUrlService.determineServerUrl()),
+                    ENTITY_STATEMENT_TYP)));
   }
 
   @GetMapping(value = IDP_LIST_ENDPOINT, produces = "application/jwt;charset=UTF-8")
-  public String getEntityListing() {
-    return JwtHelper.signJson(
-        jwtProcessor,
-        idpListBuilder.buildIdpList(serverUrlService.determineServerUrl()),
-        "idp-list+jwt");
+  public ResponseEntity<String> getEntityListing() {
+    return CacheableResponses.of(
+        signedJwtCache.get(
+            IDP_LIST_ENDPOINT,
+            () ->
+                JwtHelper.signJson(
+                    jwtProcessor,
+                    idpListBuilder.buildIdpList(serverUrlService.determineServerUrl()),
+                    "idp-list+jwt")));
   }
 
   @GetMapping(value = FED_LIST_ENDPOINT, produces = "application/json;charset=UTF-8")
-  public String getFederationList() {
-    return fedListBuilder.buildFedList().toString();
+  public ResponseEntity<String> getFederationList() {
+    return CacheableResponses.of(fedListBuilder.buildFedList().toString());
+  }
+
+  @GetMapping(value = FED_CHANGES_ENDPOINT, produces = "application/json;charset=UTF-8")
+  public FederationChanges getFederationChanges(
+      @RequestParam(name = "since", defaultValue = "0") final long since) {
+    return federationChangeLog.changesSince(since);
+  }
+
+  /** a federation member announces its changed entity statement in a JWT signed by itself */
+  @PostMapping(value = FED_CHANGES_ENDPOINT, produces = "application/json;charset=UTF-8")
+  public FederationChange postFederationChange(
+      @RequestParam(name = "announcement") @NotEmpty final String announcement) {
+    final FederationChange change =
+        federationChangeLog.recordAnnouncedChange(
+            announcement, serverUrlService.determineServerUrl());
+    log.info("Entity statement of federation member {} changed", change.sub());
+    signedJwtCache.invalidate(FederationApiController.cacheKey(change.sub()));
+    return change;
   }
 }
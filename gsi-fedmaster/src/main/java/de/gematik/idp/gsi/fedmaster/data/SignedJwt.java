@@ -0,0 +1,38 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.fedmaster.data;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import org.springframework.util.DigestUtils;
+
+/** A signed JWT served unchanged until reusableUntil, clients revalidate it by its etag. */
+public record SignedJwt(String jwt, String etag, Instant signedAt, Instant reusableUntil) {
+
+  public static SignedJwt of(
+      final String jwt, final Instant signedAt, final Instant reusableUntil) {
+    return new SignedJwt(jwt, etagOf(jwt), signedAt, reusableUntil);
+  }
+
+  public static String etagOf(final String body) {
+    return "\"" + DigestUtils.md5DigestAsHex(body.getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.fedmaster.services;
+
+import de.gematik.idp.gsi.fedmaster.KeyConfiguration;
+import de.gematik.idp.gsi.fedmaster.data.FederationChange;
+import de.gematik.idp.gsi.fedmaster.data.FederationChanges;
+import de.gematik.idp.gsi.fedmaster.data.IdentityProviderConfig;
+import de.gematik.idp.gsi.fedmaster.data.RelyingPartyConfig;
+import de.gematik.idp.gsi.fedmaster.exceptions.FedmasterException;
+import de.gematik.idp.token.JsonWebToken;
+import jakarta.annotation.Resource;
+import java.security.PublicKey;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Change feed of federation members, the last MAX_CHANGES changes are retained. A member announces
+ * its change with a JWT signed by its federation key, iss and sub name the member, aud the
+ * fedmaster and exp lies at most MAX_ANNOUNCEMENT_SECONDS ahead. The statements of the fedmaster
+ * about its members are built from its configuration, which only changes with a restart and a new
+ * epoch, so the members' announcements are the only producer; gsi-server announces its own
+ * statement after startup.
+ */
+@RequiredArgsConstructor
+public class FederationChangeLog {
+
+  private static final int MAX_CHANGES = 1000;
+  private static final long MAX_ANNOUNCEMENT_SECONDS = 300;
+  private final String epoch = UUID.randomUUID().toString();
+  private final Deque<FederationChange> changes = new ArrayDeque<>();
+  private long seq;
+  @Resource private List<RelyingPartyConfig> relyingPartyConfigs;
+  @Resource private List<IdentityProviderConfig> identityProviderConfigs;
+
+  public FederationChange recordAnnouncedChange(
+      final String announcement, final String fedmasterUrl) {
+    return recordChange(verifiedSub(announcement, fedmasterUrl));
+  }
+
+  private String verifiedSub(final String announcement, final String fedmasterUrl) {
+    final Map<String, Object> claims;
+    try {
+      final JsonWebToken token = new JsonWebToken(announcement);
+      claims = token.getBodyClaims();
+      token.verify(memberKey(String.valueOf(claims.get("iss"))));
+    } catch (final FedmasterException e) {
+      throw e;
+    } catch (final RuntimeException e) {
+      throw unauthorized("signature of the change announcement is invalid or expired");
+    }
+    final String sub = String.valueOf(claims.get("iss"));
+    if (!sub.equals(claims.get("sub")) || !fedmasterUrl.equals(claims.get("aud"))) {
+      throw unauthorized("change announcement has to name the member as iss and sub, and aud");
+    }
+    if (!(claims.get("exp") instanceof final Number exp)
+        || exp.longValue() > Instant.now().plusSeconds(MAX_ANNOUNCEMENT_SECONDS).getEpochSecond()) {
+      throw unauthorized(
+          "change announcement has to expire within " + MAX_ANNOUNCEMENT_SECONDS + " seconds");
+    }
+    return sub;
+  }
+
+  private PublicKey memberKey(final String sub) {
+    return relyingPartyConfigs.stream()
+        .filter(rp -> rp.getIssuer().equals(sub))
+        .map(RelyingPartyConfig::getKeyConfig)
+        .findFirst()
+        .or(
+            () ->
+                identityProviderConfigs.stream()
+                    .filter(idp -> idp.getIssuer().equals(sub))
+                    .map(IdentityProviderConfig::getKeyConfig)
+                    .findFirst())
+        .flatMap(keyConfig -> KeyConfiguration.getFederationPubKey(keyConfig).getPublicKey())
+        .orElseThrow(
+            () ->
+                new FedmasterException(
+                    "Subject [" + sub + "] is unknown", HttpStatus.BAD_REQUEST, "6011"));
+  }
+
+  private static FedmasterException unauthorized(final String reason) {
+    return new FedmasterException(reason, HttpStatus.UNAUTHORIZED, "-1");
+  }
+
+  private synchronized FederationChange recordChange(final String sub) {
+    final FederationChange change = new FederationChange(++seq, sub);
+    changes.addLast(change);
+    if (changes.size() > MAX_CHANGES) {
+      changes.removeFirst();
+    }
+    return change;
+  }
+
+  public synchronized FederationChanges changesSince(final long since) {
+    return FederationChanges.builder()
+        .epoch(epoch)
+        .seq(seq)
+        .truncated(!changes.isEmpty() && changes.getFirst().seq() > since + 1)
+        .changes(changes.stream().filter(change -> change.seq() > since).toList())
+        .build();
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.fedmaster.services;
+
+import static de.gematik.idp.gsi.fedmaster.Constants.SIGNED_JWT_REUSE_MINUTES;
+
+import de.gematik.idp.gsi.fedmaster.data.SignedJwt;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Signed JWTs by request, reused for SIGNED_JWT_REUSE_MINUTES. Identical bytes let clients
+ * revalidate them with If-None-Match instead of fetching and verifying them again.
+ */
+@RequiredArgsConstructor
+public class SignedJwtCache {
+
+  private final Map<String, SignedJwt> signedJwts = new ConcurrentHashMap<>();
+
+  public SignedJwt get(final String key, final Supplier<String> sign) {
+    final Instant now = Instant.now();
+    return signedJwts.compute(
+        key,
+        (k, signed) ->
+            signed != null && now.isBefore(signed.reusableUntil())
+                ? signed
+                : SignedJwt.of(
+                    sign.get(),
+                    now.truncatedTo(ChronoUnit.SECONDS),
+                    now.plus(SIGNED_JWT_REUSE_MINUTES, ChronoUnit.MINUTES)));
+  }
+
+  public SignedJwt signOnce(final Supplier<String> sign) {
+    final Instant now = Instant.now();
+    return SignedJwt.of(sign.get(), now.truncatedTo(ChronoUnit.SECONDS), now);
+  }
+
+  public void invalidate(final String key) {
+    signedJwts.remove(key);
+  }
+}
@@ -214,6 +214,25 @@ class FederationApiControllerTest {
     assertThat(entityStatement.getBodyClaims()).containsEntry("aud", fachdienstUrl);
   }
 
+  @Test
+  void EntityStatement_revalidatedByEtag_NotModified() {
+    final HttpResponse<String> response = retrieveEntityStatement(fachdienstUrl);
+    final String etag = response.getHeaders().getFirst(HttpHeaders.ETAG);
+    assertThat(etag).isNotBlank();
+    assertThat(response.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED)).isNotBlank();
+    assertThat(response.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL)).startsWith("max-age=");
+    assertThat(retrieveEntityStatement(fachdienstUrl).getBody()).isEqualTo(response.getBody());
+
+    final HttpResponse<String> revalidated =
+        Unirest.get(testHostUrl + FEDMASTER_FEDERATION_FETCH_ENDPOINT)
+            .queryString("iss", fedMasterUrl)
+            .queryString("sub", fachdienstUrl)
+            .header(HttpHeaders.IF_NONE_MATCH, etag)
+            .asString();
+    assertThat(revalidated.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED);
+    assertThat(revalidated.getBody()).isNullOrEmpty();
+  }
+
   private JsonWebToken retrieveJwtFromEntityStatementFd() {
     return new JsonWebToken(retrieveEntityStatement(fachdienstUrl).getBody());
   }
@@ -0,0 +1,165 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.fedmaster.controller;
+
+import static de.gematik.idp.gsi.fedmaster.Constants.FED_CHANGES_ENDPOINT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.authentication.IdpJwtProcessor;
+import de.gematik.idp.crypto.KeyUtility;
+import de.gematik.idp.file.ResourceReader;
+import de.gematik.idp.gsi.fedmaster.data.JwtHelper;
+import de.gematik.idp.gsi.fedmaster.services.ServerUrlService;
+import java.time.Instant;
+import java.util.Map;
+import kong.unirest.core.HttpResponse;
+import kong.unirest.core.HttpStatus;
+import kong.unirest.core.JsonNode;
+import kong.unirest.core.Unirest;
+import kong.unirest.core.json.JSONObject;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class FedmasterControllerFedChangesTest {
+
+  // the gsi is a federation member, its entity statement key signs the announcements
+  private static final String IDP_ISSUER = "http://127.0.0.1:8085";
+
+  @LocalServerPort private int localServerPort;
+  @Autowired private ServerUrlService serverUrlService;
+  @Autowired private IdpJwtProcessor fedmasterJwtProcessor;
+
+  private String testHostUrl;
+  private IdpJwtProcessor idpJwtProcessor;
+
+  @SneakyThrows
+  @BeforeAll
+  public void setup() {
+    testHostUrl = "http://localhost:" + localServerPort;
+    idpJwtProcessor =
+        new IdpJwtProcessor(
+            KeyUtility.readX509PrivateKeyPlain(
+                ResourceReader.getFileFromResourceAsTmpFile("keys/ref-gsi-sig-privkey.pem")),
+            "puk_idp_sig");
+  }
+
+  private String announcement(
+      final IdpJwtProcessor signer, final String sub, final String aud, final long expiresIn) {
+    final long now = Instant.now().getEpochSecond();
+    return JwtHelper.signJson(
+        signer,
+        Map.of("iss", sub, "sub", sub, "aud", aud, "iat", now, "exp", now + expiresIn),
+        "JWT");
+  }
+
+  private HttpResponse<String> postAnnouncement(final String announcement) {
+    return Unirest.post(testHostUrl + FED_CHANGES_ENDPOINT)
+        .field("announcement", announcement)
+        .asString();
+  }
+
+  @Test
+  void fedChanges_postedChangeIsListedOnce() {
+    final long since = retrieveFedChanges(0).getLong("seq");
+
+    final HttpResponse<JsonNode> posted =
+        Unirest.post(testHostUrl + FED_CHANGES_ENDPOINT)
+            .field(
+                "announcement",
+                announcement(
+                    idpJwtProcessor, IDP_ISSUER, serverUrlService.determineServerUrl(), 60))
+            .asJson();
+    assertThat(posted.getStatus()).isEqualTo(HttpStatus.OK);
+    final long seq = posted.getBody().getObject().getLong("seq");
+    assertThat(seq).isGreaterThan(since);
+
+    final JSONObject changes = retrieveFedChanges(since);
+    assertThat(changes.getLong("seq")).isEqualTo(seq);
+    assertThat(changes.getBoolean("truncated")).isFalse();
+    assertThat(changes.getJSONArray("changes").getJSONObject(0).getString("sub"))
+        .isEqualTo(IDP_ISSUER);
+    assertThat(retrieveFedChanges(seq).getJSONArray("changes").isEmpty()).isTrue();
+  }
+
+  @Test
+  void fedChanges_epochIsStable() {
+    assertThat(retrieveFedChanges(0).getString("epoch"))
+        .isNotBlank()
+        .isEqualTo(retrieveFedChanges(0).getString("epoch"));
+  }
+
+  @Test
+  void fedChanges_unknownSub_badRequest() {
+    assertThat(
+            postAnnouncement(
+                    announcement(
+                        idpJwtProcessor,
+                        "http://unknown-rp",
+                        serverUrlService.determineServerUrl(),
+                        60))
+                .getStatus())
+        .isEqualTo(HttpStatus.BAD_REQUEST);
+  }
+
+  @Test
+  void fedChanges_notSignedByMember_unauthorized() {
+    final long since = retrieveFedChanges(0).getLong("seq");
+    assertThat(
+            postAnnouncement(
+                    announcement(
+                        fedmasterJwtProcessor,
+                        IDP_ISSUER,
+                        serverUrlService.determineServerUrl(),
+                        60))
+                .getStatus())
+        .isEqualTo(HttpStatus.UNAUTHORIZED);
+    assertThat(postAnnouncement("not-a-jwt").getStatus()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    assertThat(retrieveFedChanges(0).getLong("seq")).isEqualTo(since);
+  }
+
+  @Test
+  void fedChanges_foreignAudienceOrLongLived_unauthorized() {
+    assertThat(
+            postAnnouncement(announcement(idpJwtProcessor, IDP_ISSUER, "https://other", 60))
+                .getStatus())
+        .isEqualTo(HttpStatus.UNAUTHORIZED);
+    assertThat(
+            postAnnouncement(
+                    announcement(
+                        idpJwtProcessor, IDP_ISSUER, serverUrlService.determineServerUrl(), 86400))
+                .getStatus())
+        .isEqualTo(HttpStatus.UNAUTHORIZED);
+  }
+
+  private JSONObject retrieveFedChanges(final long since) {
+    final HttpResponse<JsonNode> response =
+        Unirest.get(testHostUrl + FED_CHANGES_ENDPOINT).queryString("since", since).asJson();
+    assertThat(response.getStatus()).isEqualTo(HttpStatus.OK);
+    return response.getBody().getObject();
+  }
+}
@@ -33,11 +33,18 @@ import de.gematik.idp.gsi.server.configuration.GsiConfiguration;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
 import java.util.Optional;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.Resource;
@@ -90,6 +97,45 @@ public class KeyConfiguration implements KeyConfigurationBase {
             gsiConfiguration.getFedmasterSigPubKeyFilePath()));
   }
 
+  // key of the encrypted request_uri and code in stateless session mode, nodes sharing the entity
+  // statement key accept each other's tokens
+  @Bean
+  @ConditionalOnProperty(prefix = "gsi.session-store", name = "mode", havingValue = "stateless")
+  public SecretKey sessionTokenKey() {
+    return deriveSessionKey("gsi-session-token", "AES");
+  }
+
+  // key of the sessions in the session journal, a node reads the journal of its previous run as
+  // long as its entity statement key did not change
+  @Bean
+  @ConditionalOnExpression("!'${gsi.session-store.journal-directory:}'.isBlank()")
+  public SecretKey sessionJournalKey() {
+    return deriveSessionKey("gsi-session-journal", "AES");
+  }
+
+  // signs the marker of requests forwarded to the node owning their session, nodes sharing the
+  // entity statement key accept each other's marker
+  @Bean
+  @ConditionalOnProperty(
+      prefix = "gsi.session-store",
+      name = "forward-to-owner",
+      havingValue = "true")
+  public SecretKey nodeForwardingKey() {
+    return deriveSessionKey("gsi-node-forwarding", "HmacSHA256");
+  }
+
+  private SecretKey deriveSessionKey(final String purpose, final String algorithm) {
+    try {
+      final Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(
+          new SecretKeySpec(
+              esSigPrivKey().getIdentity().getPrivateKey().getEncoded(), "HmacSHA256"));
+      return new SecretKeySpec(mac.doFinal(purpose.getBytes(StandardCharsets.UTF_8)), algorithm);
+    } catch (final GeneralSecurityException e) {
+      throw new GsiException("Error while deriving " + purpose + " key", e);
+    }
+  }
+
   private FederationPrivKey getFederationPrivKeyFromP12(final KeyConfig keyConfiguration) {
     final Resource resource = resourceLoader.getResource(keyConfiguration.getFileName());
     try (final InputStream inputStream = resource.getInputStream()) {
@@ -0,0 +1,77 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import javax.sql.DataSource;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+@Slf4j
+@Configuration
+@RequiredArgsConstructor
+public class SessionDatabaseConfiguration {
+
+  private final SessionStoreConfiguration sessionStoreConfiguration;
+
+  // one pool for the sessions in jdbc mode and for the redeemed codes in stateless mode
+  @Bean
+  @ConditionalOnExpression(
+      "'${gsi.session-store.mode:in-memory}' == 'jdbc' || ('${gsi.session-store.mode:in-memory}'"
+          + " == 'stateless' && '${gsi.session-store.stateless-redemption:jdbc}' == 'jdbc')")
+  public DataSource sessionDataSource() {
+    final String jdbcUrl = sessionStoreConfiguration.getJdbcUrl();
+    // an in-memory database is not shared with the other nodes
+    if (StringUtils.isBlank(jdbcUrl) || jdbcUrl.startsWith("jdbc:h2:mem:")) {
+      throw new IllegalStateException(
+          "gsi.session-store.jdbcUrl has to name the database shared by all nodes, but is ["
+              + jdbcUrl
+              + "]");
+    }
+    log.info("Session database: {}", jdbcUrl);
+    return dataSource(sessionStoreConfiguration);
+  }
+
+  /** pool of the session database, creates the tables unless the schema is managed elsewhere */
+  public static HikariDataSource dataSource(
+      final SessionStoreConfiguration sessionStoreConfiguration) {
+    final HikariConfig hikariConfig = new HikariConfig();
+    hikariConfig.setPoolName("gsi-session-database");
+    hikariConfig.setJdbcUrl(sessionStoreConfiguration.getJdbcUrl());
+    hikariConfig.setUsername(sessionStoreConfiguration.getJdbcUsername());
+    hikariConfig.setPassword(sessionStoreConfiguration.getJdbcPassword());
+    hikariConfig.setMaximumPoolSize(sessionStoreConfiguration.getJdbcPoolSize());
+    final HikariDataSource dataSource = new HikariDataSource(hikariConfig);
+    if (sessionStoreConfiguration.isJdbcInitializeSchema()) {
+      new ResourceDatabasePopulator(new ClassPathResource("db/session-store-schema.sql"))
+          .execute(dataSource);
+    }
+    return dataSource;
+  }
+}
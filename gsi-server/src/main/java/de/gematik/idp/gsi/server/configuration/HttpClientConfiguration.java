@@ -0,0 +1,70 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.configuration;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("gsi.http-client")
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class HttpClientConfiguration {
+
+  // establishing a connection (TCP and TLS) to an RP, the fedmaster or BDE
+  @Builder.Default private int connectTimeoutMillis = 2000;
+
+  // a whole call, from sending the request to the last byte of the response body
+  @Builder.Default private int requestTimeoutMillis = 5000;
+
+  // bulkhead: concurrent calls to the same host, further calls wait up to bulkheadMaxWaitMillis
+  @Builder.Default private int maxConcurrentRequestsPerHost = 16;
+
+  @Builder.Default private int bulkheadMaxWaitMillis = 250;
+
+  // consecutive failures (no response, 5xx) after which calls to a host fail fast
+  @Builder.Default private int circuitBreakerFailureThreshold = 5;
+
+  // time an open circuit rejects calls before a trial call is let through
+  @Builder.Default private int circuitBreakerOpenMillis = 30000;
+
+  // bulkheads, circuit breakers and meters are kept for at most maxHosts hosts, a host not called
+  // for hostIdleSeconds is dropped
+  @Builder.Default private int maxHosts = 1000;
+
+  @Builder.Default private int hostIdleSeconds = 3600;
+
+  // entity statements and signed_jwks are a few kilobytes, larger responses are rejected
+  @Builder.Default private int maxResponseBytes = 256 * 1024;
+
+  // certificates of the BDE endpoint are verified unless disabled
+  @Builder.Default private boolean bdeVerifySsl = true;
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.configuration;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("gsi.rp-cache")
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class RpCacheConfiguration {
+
+  // entity statements of and about RPs are refetched in the background after this share of
+  // their lifetime (iat to exp)
+  @Builder.Default private double refreshAheadShare = 0.75;
+
+  // threads refetching entity statements in the background
+  @Builder.Default private int refreshThreads = 2;
+
+  // threads fetching statements of and about RPs concurrently, 0 fetches them one after another
+  // in the requesting thread
+  @Builder.Default private int fetchConcurrency = 16;
+
+  // an expired statement is still served this long while it cannot be refetched
+  @Builder.Default private int staleIfErrorSeconds = 3600;
+
+  // failed refetches are retried after this delay, doubled up to retryMaxBackoffSeconds
+  @Builder.Default private int retryInitialBackoffMillis = 1000;
+
+  @Builder.Default private int retryMaxBackoffSeconds = 60;
+
+  // RPs that are unknown to the fedmaster or whose statement failed are rejected this long
+  // without fetching again; unreachable RPs are not remembered, the circuit breaker of their
+  // host fails fast
+  @Builder.Default private int negativeTtlSeconds = 60;
+
+  // maximum amount of rejected RPs remembered
+  @Builder.Default private int negativeCacheSize = 10000;
+
+  // statements of all RPs on the federation list of the fedmaster are fetched at startup
+  @Builder.Default private boolean warmUpEnabled = false;
+
+  // RPs fetched at the same time during warm-up
+  @Builder.Default private int warmUpConcurrency = 8;
+
+  // readiness waits this long at most for the warm-up to finish
+  @Builder.Default private int warmUpDeadlineSeconds = 60;
+
+  // the change feed of the fedmaster is polled and statements of changed members are dropped,
+  // the own entity statement is announced to it after startup; refreshAheadShare can be raised
+  // towards 1 then
+  @Builder.Default private boolean changeFeedEnabled = false;
+
+  // signed_jwks of RPs are kept this long at most, shorter if they expire earlier
+  @Builder.Default private int signedJwksTtlSeconds = 3600;
+
+  // a statement answered with 304 is revalidated after its max-age, but not before this
+  @Builder.Default private int revalidateIntervalSeconds = 300;
+}
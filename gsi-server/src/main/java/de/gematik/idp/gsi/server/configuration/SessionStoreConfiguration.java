@@ -0,0 +1,106 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+@Component
+@ConfigurationProperties("gsi.session-store")
+@Getter
+@Setter
+@ToString
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SessionStoreConfiguration {
+
+  // in-memory: sessions are held by this node, stateless: request_uri and code carry the session,
+  // jdbc: sessions are shared by all nodes through a database
+  @Builder.Default private String mode = "in-memory";
+
+  // where stateless mode remembers redeemed codes. jdbc: in the database of jdbcUrl, which has to
+  // be shared by all nodes, single-node: in memory, only for one node or sticky token requests
+  @Builder.Default private String statelessRedemption = "jdbc";
+
+  // maximum amount of FedIdpAuthSessions held in memory, a few hundred bytes each
+  @Builder.Default private int capacity = 100000;
+
+  // quota of a single client_id, every client gets at least an equal share of the capacity
+  @Builder.Default private int maxSessionsPerClient = 10000;
+
+  // maximum amount of interned client ids, redirect uris and claim names
+  @Builder.Default private int dictionarySize = 10000;
+
+  // expired sessions are kept this long to answer "request_uri expired" before they are evicted
+  @Builder.Default private int expiredRetentionSeconds = 30;
+
+  // local directory of the session journal, pending sessions survive a restart; empty: disabled
+  @Builder.Default private String journalDirectory = "";
+
+  // size of the memory-mapped journal file, it is compacted when full
+  @Builder.Default private int journalSegmentBytes = 16 * 1024 * 1024;
+
+  // the journal is rewritten with the live sessions at least this often
+  @Builder.Default private int journalCompactionIntervalSeconds = 300;
+
+  // id of this node, appended to request_uris and authorization codes of in-memory sessions
+  @Builder.Default private String nodeId = "";
+
+  // internal base url of every node by node id, e.g. gsi.session-store.node-urls.gsi-1
+  @Builder.Default private Map<String, String> nodeUrls = new HashMap<>();
+
+  // requests for sessions of another node are proxied to that node
+  @Builder.Default private boolean forwardToOwner = false;
+
+  // database shared by all nodes in jdbc mode and for redeemed codes in stateless mode, startup
+  // fails without one
+  @Builder.Default private String jdbcUrl = "";
+
+  @Builder.Default private String jdbcUsername = "sa";
+
+  @Builder.Default private String jdbcPassword = "";
+
+  @Builder.Default private int jdbcPoolSize = 10;
+
+  // creates the table on startup, disable when the schema is managed elsewhere
+  @Builder.Default private boolean jdbcInitializeSchema = true;
+
+  // new sessions are written in batches at this interval, has to stay well below
+  // the time a redirect through the user agent takes
+  @Builder.Default private int writeBehindMillis = 20;
+
+  // sessions read or written by this node are served from memory this long
+  @Builder.Default private int nearCacheSeconds = 5;
+
+  // expired sessions are deleted in batches of this size at the given interval
+  @Builder.Default private int expiryDeleteBatchSize = 1000;
+
+  @Builder.Default private int expiryDeleteIntervalSeconds = 10;
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.controller;
+
+import de.gematik.idp.gsi.server.data.SignedJwt;
+import java.time.Duration;
+import java.time.Instant;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Responses carrying ETag, Last-Modified and Cache-Control. Spring answers a matching If-None-Match
+ * or If-Modified-Since with 304 and without the body.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class CacheableResponses {
+
+  static ResponseEntity<String> of(final SignedJwt signedJwt) {
+    final long maxAge =
+        Math.max(0, Duration.between(Instant.now(), signedJwt.reusableUntil()).toSeconds());
+    return ResponseEntity.ok()
+        .eTag(signedJwt.etag())
+        .lastModified(signedJwt.signedAt())
+        .cacheControl(CacheControl.maxAge(Duration.ofSeconds(maxAge)))
+        .body(signedJwt.jwt());
+  }
+}
@@ -24,6 +24,7 @@ import static de.gematik.idp.IdpConstants.ENTITY_STATEMENT_ENDPOINT;
 import static de.gematik.idp.IdpConstants.ENTITY_STATEMENT_TYP;
 import static de.gematik.idp.IdpConstants.FED_AUTH_ENDPOINT;
 import static de.gematik.idp.IdpConstants.TOKEN_ENDPOINT;
+import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_GRANT;
 import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
 import static de.gematik.idp.field.ClaimName.AUTHENTICATION_CLASS_REFERENCE;
 import static de.gematik.idp.field.ClaimName.AUTHENTICATION_METHODS_REFERENCE;
@@ -52,27 +53,23 @@ import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.gsi.server.services.AuthenticationService;
 import de.gematik.idp.gsi.server.services.EntityStatementBuilder;
 import de.gematik.idp.gsi.server.services.JwksBuilder;
+import de.gematik.idp.gsi.server.services.OwnSignedStatements;
 import de.gematik.idp.gsi.server.services.RequestValidator;
 import de.gematik.idp.gsi.server.services.SektoralIdpAuthenticator;
 import de.gematik.idp.gsi.server.services.ServerUrlService;
 import de.gematik.idp.gsi.server.services.TokenRepositoryRp;
+import de.gematik.idp.gsi.server.session.FedIdpAuthSessionStore;
 import de.gematik.idp.gsi.server.token.IdTokenBuilder;
 import de.gematik.idp.token.JsonWebToken;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.Pattern;
-import java.io.Serial;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.Instant;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -81,6 +78,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.annotation.Validated;
@@ -98,7 +96,6 @@ public class FedIdpController {
 
   public static final int URI_NONCE_LENGTH = 16;
   public static final int AUTH_CODE_LENGTH = 16;
-  private static final int MAX_AUTH_SESSION_AMOUNT = 10000;
   public static final int ID_TOKEN_TTL_SECONDS = 300;
 
   private final TokenRepositoryRp rpTokenRepository;
@@ -110,17 +107,8 @@ public class FedIdpController {
   private final IdpJwtProcessor jwtProcessorTokenSigKey;
   private final GsiConfiguration gsiConfiguration;
   private final JwksBuilder jwksBuilder;
-
-  private final Map<String, FedIdpAuthSession> fedIdpAuthSessions =
-      Collections.synchronizedMap(
-          new LinkedHashMap<>() {
-            @Serial private static final long serialVersionUID = -800086030628953996L;
-
-            @Override
-            protected boolean removeEldestEntry(final Entry<String, FedIdpAuthSession> eldest) {
-              return size() > MAX_AUTH_SESSION_AMOUNT;
-            }
-          });
+  private final FedIdpAuthSessionStore fedIdpAuthSessions;
+  private final OwnSignedStatements ownSignedStatements;
 
   private static void setNoCacheHeader(final HttpServletResponse response) {
     response.setHeader("Cache-Control", "no-store");
@@ -131,23 +119,33 @@ public class FedIdpController {
   @GetMapping(
       value = ENTITY_STATEMENT_ENDPOINT,
       produces = "application/entity-statement+jwt;charset=UTF-8")
-  public String getEntityStatement() {
-    return JwtHelper.signJson(
-        jwtProcessorEsSigPrivKey,
-        entityStatementBuilder.buildEntityStatement(
-            gsiConfiguration.getServerUrl(),
-            gsiConfiguration.getServerUrlMtls(),
-            gsiConfiguration.getFedmasterUrl()),
-        ENTITY_STATEMENT_TYP);
+  public ResponseEntity<String> getEntityStatement() {
+    final String serverUrl = gsiConfiguration.getServerUrl();
+    final String serverUrlMtls = gsiConfiguration.getServerUrlMtls();
+    final String fedmasterUrl = gsiConfiguration.getFedmasterUrl();
+    return CacheableResponses.of(
+        ownSignedStatements.get(
+            ENTITY_STATEMENT_ENDPOINT,
+            String.join(" ", serverUrl, serverUrlMtls, fedmasterUrl),
+            () ->
+                JwtHelper.signJson(
+                    jwtProcessorEsSigPrivKey,
+                    entityStatementBuilder.buildEntityStatement(
+                        serverUrl, serverUrlMtls, fedmasterUrl),
+                    ENTITY_STATEMENT_TYP)));
   }
 
   @ResponseBody
   @GetMapping(value = FED_SIGNED_JWKS_ENDPOINT, produces = "application/jwk-set+json;charset=UTF-8")
-  public String getSignedJwks() {
-    return JwtHelper.signJson(
-        jwtProcessorEsSigPrivKey,
-        jwksBuilder.build(serverUrlService.determineServerUrl()),
-        "jwk-set+json");
+  public ResponseEntity<String> getSignedJwks() {
+    final String serverUrl = serverUrlService.determineServerUrl();
+    return CacheableResponses.of(
+        ownSignedStatements.get(
+            FED_SIGNED_JWKS_ENDPOINT,
+            serverUrl,
+            () ->
+                JwtHelper.signJson(
+                    jwtProcessorEsSigPrivKey, jwksBuilder.build(serverUrl), "jwk-set+json")));
   }
 
   /* Federation App2App flow
@@ -196,8 +194,6 @@ public class FedIdpController {
     claimsInfo.addClaimsFromScopeToClaimsSet(
         getClaimsForScopeSet(Arrays.stream(scope.split(" ")).collect(Collectors.toSet())));
 
-    final JsonWebToken entityStmntABoutRp =
-        rpTokenRepository.getEntityStatementAboutRp(fachdienstClientId);
     final RpToken entityStmntOfRp = rpTokenRepository.getEntityStatementRp(fachdienstClientId);
     log.info("Autoregistration done");
 
@@ -210,17 +206,11 @@ public class FedIdpController {
     RequestValidator.validateCertificate(
         clientCert, entityStmntOfRp, gsiConfiguration.isClientCertRequired());
 
-    RequestValidator.validateParParams(entityStmntABoutRp, fachdienstRedirectUri, scope);
+    RequestValidator.validateParParams(entityStmntOfRp.metadata(), fachdienstRedirectUri, scope);
 
     log.info("Amount of stored fedIdpAuthSessions: {}", fedIdpAuthSessions.size());
 
-    // from specification: "URI zur späteren Identifikation des Requestes":
-    // https://tools.ietf.org/id/draft-ietf-oauth-par-04.html#section-2.2
-    final String requestUri =
-        "urn:" + fachdienstClientId + ":" + Nonce.getNonceAsHex(URI_NONCE_LENGTH);
-
-    fedIdpAuthSessions.put(
-        requestUri,
+    final FedIdpAuthSession session =
         FedIdpAuthSession.builder()
             .fachdienstClientId(fachdienstClientId)
             .fachdienstState(fachdienstState)
@@ -235,13 +225,11 @@ public class FedIdpController {
             .authorizationCode(Nonce.getNonceAsHex(AUTH_CODE_LENGTH))
             .idTokenVersion(compatibleIdTokenVersion)
             .expiresAt(
-                ZonedDateTime.now().plusSeconds(gsiConfiguration.getRequestUriTTL()).toString())
-            .build());
+                Instant.now().plusSeconds(gsiConfiguration.getRequestUriTTL()).toEpochMilli())
+            .build();
+    final String requestUri = fedIdpAuthSessions.add(session);
 
-    log.info(
-        "Stored FedIdpAuthSession under requestUri {}:\n {}",
-        requestUri,
-        fedIdpAuthSessions.get(requestUri));
+    log.info("Stored FedIdpAuthSession under requestUri {}:\n {}", requestUri, session);
 
     setNoCacheHeader(respMsgNr3);
     respMsgNr3.setStatus(HttpStatus.CREATED.value());
@@ -373,7 +361,7 @@ public class FedIdpController {
         sektoralIdpAuthenticator.createLocationForAuthorizationResponse(
             session.getFachdienstRedirectUri(),
             session.getFachdienstState(),
-            session.getAuthorizationCode());
+            fedIdpAuthSessions.issueAuthorizationCode(requestUri, session));
 
     respMsgNr7.setHeader(HttpHeaders.LOCATION, tokenLocation);
   }
@@ -400,9 +388,16 @@ public class FedIdpController {
         "App2App-Flow: RX message nr 10 (Authorization Code) at {}",
         serverUrlService.determineServerUrl());
 
-    final String sessionKey =
-        getSessionKeyByAuthCode(URLDecoder.decode(code, StandardCharsets.UTF_8));
-    final FedIdpAuthSession session = fedIdpAuthSessions.get(sessionKey);
+    // redeem first, a code presented twice fails before any validation or token crypto
+    final FedIdpAuthSession session =
+        fedIdpAuthSessions
+            .redeemAuthorizationCode(URLDecoder.decode(code, StandardCharsets.UTF_8))
+            .orElseThrow(
+                () ->
+                    new GsiException(
+                        INVALID_GRANT,
+                        "unknown or already redeemed code, no session found",
+                        HttpStatus.BAD_REQUEST));
 
     RequestValidator.verifyRedirectUri(redirectUri, session.getFachdienstRedirectUri());
     RequestValidator.verifyCodeVerifier(codeVerifier, session.getFachdienstCodeChallenge());
@@ -434,9 +429,6 @@ public class FedIdpController {
             .encryptAsJwt(token.getRpEncKey(), Map.of(DEVICE_OS_VERSION, "2.0.0"))
             .getRawString();
 
-    // delete session
-    fedIdpAuthSessions.remove(sessionKey);
-
     return TokenResponse.builder()
         .idToken(idToken)
         .accessToken("TODO ACCESS_TOKEN")
@@ -447,35 +439,22 @@ public class FedIdpController {
 
   private FedIdpAuthSession getSessionByRequestUri(final String requestUri) {
     final FedIdpAuthSession session =
-        Optional.ofNullable(fedIdpAuthSessions.get(requestUri))
+        fedIdpAuthSessions
+            .getByRequestUri(requestUri)
             .orElseThrow(
                 () ->
                     new GsiException(
                         INVALID_REQUEST,
                         "unknown request_uri, no session found",
                         HttpStatus.BAD_REQUEST));
-    // session found, check if request_uri is expired
-    final ZonedDateTime expiredTime =
-        ZonedDateTime.parse(session.getExpiresAt(), DateTimeFormatter.ISO_ZONED_DATE_TIME);
-    if (ZonedDateTime.now().isAfter(expiredTime)) {
-      fedIdpAuthSessions.remove(requestUri);
+    // session found, check if request_uri is expired, the store evicts it after a retention time
+    if (session.isExpired()) {
       throw new GsiException(INVALID_REQUEST, "request_uri expired", HttpStatus.BAD_REQUEST);
     } else {
       return session;
     }
   }
 
-  private String getSessionKeyByAuthCode(final String authorizationCode) {
-    return fedIdpAuthSessions.entrySet().stream()
-        .filter((entry -> entry.getValue().getAuthorizationCode().equals(authorizationCode)))
-        .map(Entry::getKey)
-        .findAny()
-        .orElseThrow(
-            () ->
-                new GsiException(
-                    INVALID_REQUEST, "unknown code, no session found", HttpStatus.BAD_REQUEST));
-  }
-
   private static Set<String> getSelectedClaimsSet(
       final String selectedClaims,
       final Set<String> essentialClaims,
@@ -0,0 +1,39 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.data;
+
+import java.util.Optional;
+
+/** Response of a conditional fetch, without a body if the server answered 304 Not Modified. */
+public record ConditionalResponse<T>(Optional<T> body, HttpValidators validators) {
+
+  public static <T> ConditionalResponse<T> modified(final T body, final HttpValidators validators) {
+    return new ConditionalResponse<>(Optional.of(body), validators);
+  }
+
+  public static <T> ConditionalResponse<T> notModified(final HttpValidators validators) {
+    return new ConditionalResponse<>(Optional.empty(), validators);
+  }
+
+  public boolean isNotModified() {
+    return body.isEmpty();
+  }
+}
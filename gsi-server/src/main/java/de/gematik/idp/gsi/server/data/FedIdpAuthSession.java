@@ -20,6 +20,7 @@
 
 package de.gematik.idp.gsi.server.data;
 
+import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
@@ -51,7 +52,12 @@ public class FedIdpAuthSession {
   private final Map<String, Object> userData = new HashMap<>();
 
   // IDP-Sektoral, inner session related artifacts
-  private final String expiresAt;
+  // epoch millis
+  private final long expiresAt;
+
+  public boolean isExpired() {
+    return System.currentTimeMillis() > expiresAt;
+  }
 
   @Override
   public String toString() {
@@ -78,7 +84,7 @@ public class FedIdpAuthSession {
         + "\n idTokenVersion: "
         + idTokenVersion
         + "\n expiresAt: "
-        + expiresAt
+        + Instant.ofEpochMilli(expiresAt)
         + "\n userData: "
         + userData.keySet().stream()
             .map(k -> k + userData.get(k))
@@ -92,6 +92,8 @@ public final class GsiConstants {
 
   public static final String FEDIDP_PAR_AUTH_ENDPOINT = "/PAR_Auth";
   public static final String FED_SIGNED_JWKS_ENDPOINT = "/jws.json";
+  public static final String FEDMASTER_FED_LIST_ENDPOINT = "/federation_list";
+  public static final String FEDMASTER_FED_CHANGES_ENDPOINT = "/federation_changes";
   public static final String ASSET_LINKS_ENDPOINT_ANDROID = "/.well-known/assetlinks.json";
   public static final String ASSET_LINKS_ENDPOINT_IOS = "/.well-known/apple-app-site-association";
   public static final String TLS_CLIENT_CERT_HEADER_NAME = "X-SSL-CERT";
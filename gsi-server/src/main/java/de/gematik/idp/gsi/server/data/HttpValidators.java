@@ -0,0 +1,36 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.data;
+
+import java.time.Duration;
+
+/**
+ * ETag and Last-Modified of a fetched statement, sent back to revalidate it. maxAge is the
+ * Cache-Control max-age of the response, null if it had none.
+ */
+public record HttpValidators(String etag, String lastModified, Duration maxAge) {
+
+  public static final HttpValidators NONE = new HttpValidators(null, null, null);
+
+  public boolean isEmpty() {
+    return etag == null && lastModified == null;
+  }
+}
@@ -27,6 +27,7 @@ import static de.gematik.idp.gsi.server.data.GsiConstants.VALID_CLAIMS;
 
 import de.gematik.idp.field.ClaimName;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
+import de.gematik.idp.gsi.server.memory.BudgetedCache;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.HashMap;
@@ -39,12 +40,20 @@ import tools.jackson.core.type.TypeReference;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.json.JsonMapper;
 
+/**
+ * Insured persons read from a json file. They count against the MemoryBudget but are never evicted,
+ * there is no other source of them.
+ */
 @Service
 @RequiredArgsConstructor
-public class InsuredPersonsService {
+public class InsuredPersonsService implements BudgetedCache {
 
+  // map entry and string headers of a claim
+  private static final int CLAIM_OVERHEAD_BYTES = 100;
   private final String insuredPersonsJsonFilePath;
-  private Map<String, Map<String, Object>> persons;
+  // read by the MemoryBudget from its own thread, published after estimatedBytes
+  private volatile Map<String, Map<String, Object>> persons;
+  private volatile long estimatedBytes;
 
   public Map<String, Object> getPerson(final String kvnr) {
     final Optional<Map<String, Object>> thisPerson = Optional.ofNullable(getPersons().get(kvnr));
@@ -58,10 +67,40 @@ public class InsuredPersonsService {
 
   private void initPersons() {
     if (null == persons) {
-      persons = readInsuredPersons(insuredPersonsJsonFilePath);
+      final Map<String, Map<String, Object>> read = readInsuredPersons(insuredPersonsJsonFilePath);
+      estimatedBytes =
+          read.values().stream()
+              .flatMap(person -> person.entrySet().stream())
+              .mapToLong(
+                  claim ->
+                      CLAIM_OVERHEAD_BYTES
+                          + claim.getKey().length()
+                          + String.valueOf(claim.getValue()).length())
+              .sum();
+      persons = read;
     }
   }
 
+  @Override
+  public String cacheName() {
+    return "insured-persons";
+  }
+
+  @Override
+  public long estimatedBytes() {
+    return estimatedBytes;
+  }
+
+  @Override
+  public void limitTo(final long maxBytes) {
+    // never evicted
+  }
+
+  @Override
+  public boolean isEvictable() {
+    return false;
+  }
+
   private Map<String, Map<String, Object>> readInsuredPersons(final String filePath) {
     try {
       final List<Map<String, Object>> dataList = readJsonFileToList(filePath);
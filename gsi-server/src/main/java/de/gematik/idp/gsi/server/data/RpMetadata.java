@@ -0,0 +1,113 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.data;
+
+import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
+
+import de.gematik.idp.gsi.server.exceptions.GsiException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.Builder;
+import org.jose4j.jwk.PublicJsonWebKey;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Metadata of a relying party, read once from its verified entity statement and the entity
+ * statement about it. Redirect uris and scopes are taken from the statement about the RP. Keys that
+ * the RP only publishes via signed_jwks are read from there, signedJwksUri is set in that case.
+ */
+@Builder(toBuilder = true)
+public record RpMetadata(
+    Set<String> redirectUris,
+    Set<String> scopes,
+    PublicJsonWebKey encKey,
+    Map<String, X509Certificate> tlsClientCertsByFingerprint,
+    Set<String> idTokenVersionsSupported,
+    String signedJwksUri) {
+
+  public RpMetadata {
+    redirectUris = redirectUris == null ? Set.of() : Set.copyOf(redirectUris);
+    scopes = scopes == null ? Set.of() : Set.copyOf(scopes);
+    tlsClientCertsByFingerprint =
+        tlsClientCertsByFingerprint == null ? Map.of() : Map.copyOf(tlsClientCertsByFingerprint);
+    idTokenVersionsSupported =
+        idTokenVersionsSupported == null ? Set.of() : Set.copyOf(idTokenVersionsSupported);
+  }
+
+  public boolean isRedirectUriRegistered(final String redirectUri) {
+    return redirectUris.contains(redirectUri);
+  }
+
+  public boolean areScopesRegistered(final Collection<String> requestedScopes) {
+    return scopes.containsAll(requestedScopes);
+  }
+
+  public boolean isTlsClientCertRegistered(final X509Certificate cert) {
+    return tlsClientCertsByFingerprint.containsKey(fingerprint(cert));
+  }
+
+  public PublicJsonWebKey getEncKey() {
+    if (encKey == null) {
+      throw new GsiException(
+          INVALID_REQUEST, "Encryption key for relying party not found", HttpStatus.BAD_REQUEST);
+    }
+    return encKey;
+  }
+
+  public List<X509Certificate> getTlsClientCerts() {
+    if (tlsClientCertsByFingerprint.isEmpty()) {
+      throw new GsiException(
+          INVALID_REQUEST,
+          "No TLS client certificate for relying party found",
+          HttpStatus.BAD_REQUEST);
+    }
+    return List.copyOf(tlsClientCertsByFingerprint.values());
+  }
+
+  public static Map<String, X509Certificate> byFingerprint(final List<X509Certificate> certs) {
+    return certs.stream()
+        .collect(
+            Collectors.toMap(
+                RpMetadata::fingerprint, Function.identity(), (first, duplicate) -> first));
+  }
+
+  /** hex encoded SHA-256 of the DER encoded certificate */
+  public static String fingerprint(final X509Certificate cert) {
+    try {
+      return HexFormat.of()
+          .formatHex(MessageDigest.getInstance("SHA-256").digest(cert.getEncoded()));
+    } catch (final CertificateEncodingException | NoSuchAlgorithmException e) {
+      throw new GsiException(
+          INVALID_REQUEST,
+          "certificate of relying party could not be encoded",
+          HttpStatus.UNAUTHORIZED);
+    }
+  }
+}
@@ -20,16 +20,21 @@
 
 package de.gematik.idp.gsi.server.data;
 
-import de.gematik.idp.gsi.server.services.EntityStatementRpReader;
 import de.gematik.idp.gsi.server.services.EntityStatementRpVerifier;
 import de.gematik.idp.token.JsonWebToken;
 import java.security.cert.X509Certificate;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import org.jose4j.jwk.JsonWebKeySet;
 import org.jose4j.jwk.PublicJsonWebKey;
 
-public record RpToken(JsonWebToken token) {
+/** Entity statement of a relying party, metadata is only present once it was verified. */
+public record RpToken(JsonWebToken token, RpMetadata metadata) {
+
+  public RpToken(final JsonWebToken token) {
+    this(token, null);
+  }
 
   public boolean isExpired() {
     return token.isExpired();
@@ -39,15 +44,27 @@ public record RpToken(JsonWebToken token) {
     EntityStatementRpVerifier.verifyEntityStmntRp(token, jwks);
   }
 
+  public RpToken withMetadata(final RpMetadata metadata) {
+    return new RpToken(token, metadata);
+  }
+
   public List<X509Certificate> getRpTlsClientCertificates() {
-    return EntityStatementRpReader.getRpTlsClientCerts(token);
+    return verifiedMetadata().getTlsClientCerts();
+  }
+
+  public boolean isRpTlsClientCertificate(final X509Certificate cert) {
+    return verifiedMetadata().isTlsClientCertRegistered(cert);
   }
 
   public PublicJsonWebKey getRpEncKey() {
-    return EntityStatementRpReader.getRpEncKey(token);
+    return verifiedMetadata().getEncKey();
   }
 
   public Set<String> getIdTokenVersionSupported() {
-    return EntityStatementRpReader.getIdTokenVersionSupported(token);
+    return verifiedMetadata().idTokenVersionsSupported();
+  }
+
+  private RpMetadata verifiedMetadata() {
+    return Objects.requireNonNull(metadata, "entity statement of relying party not verified");
   }
 }
@@ -56,6 +56,7 @@ public class BdeLogger implements Filter {
       new AtomicReference<>(new ConcurrentLinkedQueue<>());
   private long startTimeOfLogging = System.currentTimeMillis();
   private final GsiConfiguration gsiConfiguration;
+  private final HttpClient httpClient;
 
   @Scheduled(cron = "0 */5 * * * *")
   public void sendLogsToServer() {
@@ -69,7 +70,7 @@ public class BdeLogger implements Filter {
             + endTimeOfLogging
             + "_perf.log";
     startTimeOfLogging = endTimeOfLogging;
-    HttpClient.sendLogsToBde(oldQueue, fileName, gsiConfiguration.getBdeEndpointUrl());
+    httpClient.sendLogsToBde(oldQueue, fileName, gsiConfiguration.getBdeEndpointUrl());
   }
 
   @Override
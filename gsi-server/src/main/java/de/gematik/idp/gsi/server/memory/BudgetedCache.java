@@ -0,0 +1,42 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.memory;
+
+/** In-process cache sharing the MemoryBudget. */
+public interface BudgetedCache {
+
+  /** tag of its gauge gsi.memory.used */
+  String cacheName();
+
+  /** estimated bytes of the heap held by its entries */
+  long estimatedBytes();
+
+  /**
+   * evicts entries until at most maxBytes are held, bounded caches stay below until Long.MAX_VALUE
+   * lifts the limit
+   */
+  void limitTo(long maxBytes);
+
+  /** caches that cannot evict count against the budget but are never limited */
+  default boolean isEvictable() {
+    return true;
+  }
+}
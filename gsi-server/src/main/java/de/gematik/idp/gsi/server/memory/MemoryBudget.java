@@ -0,0 +1,118 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.memory;
+
+import de.gematik.idp.gsi.server.configuration.MemoryBudgetConfiguration;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * heapShare of the maximum heap shared by all BudgetedCaches. While their estimated bytes exceed
+ * the budget, every evictable cache is limited to its share of what remains after the caches that
+ * cannot evict, proportional to what it holds. The limits are lifted once the caches fall below
+ * releaseShare of the budget, so a cache hovering around the budget is not limited and released on
+ * every check. Usage is published as gsi.memory.used by cache and gsi.memory.budget.
+ */
+@Slf4j
+@Service
+public class MemoryBudget {
+
+  private final List<BudgetedCache> caches;
+  @Getter private final long budgetBytes;
+  private final long releaseBytes;
+  private boolean limited;
+
+  @Autowired
+  public MemoryBudget(
+      final MemoryBudgetConfiguration memoryBudgetConfiguration,
+      final List<BudgetedCache> caches,
+      final MeterRegistry meterRegistry) {
+    this(memoryBudgetConfiguration, caches, meterRegistry, Runtime.getRuntime().maxMemory());
+  }
+
+  MemoryBudget(
+      final MemoryBudgetConfiguration memoryBudgetConfiguration,
+      final List<BudgetedCache> caches,
+      final MeterRegistry meterRegistry,
+      final long maxHeapBytes) {
+    this.caches = caches;
+    this.budgetBytes = (long) (maxHeapBytes * memoryBudgetConfiguration.getHeapShare());
+    this.releaseBytes =
+        (long) (budgetBytes * Math.min(1, memoryBudgetConfiguration.getReleaseShare()));
+    log.info("Memory budget of {} caches: {} bytes", caches.size(), budgetBytes);
+    Gauge.builder("gsi.memory.budget", () -> budgetBytes)
+        .description("heap share of all in-process caches")
+        .baseUnit("bytes")
+        .register(meterRegistry);
+    caches.forEach(
+        cache ->
+            Gauge.builder("gsi.memory.used", cache, BudgetedCache::estimatedBytes)
+                .description("estimated heap held by an in-process cache")
+                .baseUnit("bytes")
+                .tag("cache", cache.cacheName())
+                .register(meterRegistry));
+  }
+
+  @Scheduled(
+      fixedDelayString = "${gsi.memoryBudget.checkIntervalSeconds:5}",
+      timeUnit = TimeUnit.SECONDS)
+  public synchronized void enforce() {
+    long pinnedBytes = 0;
+    long evictableBytes = 0;
+    final long[] usedBytes = new long[caches.size()];
+    for (int i = 0; i < caches.size(); i++) {
+      usedBytes[i] = caches.get(i).estimatedBytes();
+      if (caches.get(i).isEvictable()) {
+        evictableBytes += usedBytes[i];
+      } else {
+        pinnedBytes += usedBytes[i];
+      }
+    }
+    if (limited && pinnedBytes + evictableBytes <= releaseBytes) {
+      caches.stream().filter(BudgetedCache::isEvictable).forEach(c -> c.limitTo(Long.MAX_VALUE));
+      limited = false;
+      log.info("Caches fall below the release threshold of the memory budget, limits lifted.");
+      return;
+    }
+    // between the release threshold and the budget the current limits are kept
+    if (pinnedBytes + evictableBytes <= budgetBytes) {
+      return;
+    }
+    log.warn(
+        "Caches hold {} bytes, memory budget is {} bytes. Evicting...",
+        pinnedBytes + evictableBytes,
+        budgetBytes);
+    final double keepShare = Math.max(0, budgetBytes - pinnedBytes) / (double) evictableBytes;
+    for (int i = 0; i < caches.size(); i++) {
+      if (caches.get(i).isEvictable()) {
+        caches.get(i).limitTo((long) (usedBytes[i] * keepShare));
+      }
+    }
+    limited = true;
+  }
+}
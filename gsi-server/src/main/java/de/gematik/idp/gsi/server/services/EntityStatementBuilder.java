@@ -44,7 +44,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 @RequiredArgsConstructor
 public class EntityStatementBuilder {
 
-  private static final int ENTITY_STATEMENT_TTL_HOURS = 2;
+  public static final int ENTITY_STATEMENT_TTL_HOURS = 2;
   @Autowired FederationPubKey esSigPubKey;
 
   public EntityStatement buildEntityStatement(
@@ -22,6 +22,7 @@ package de.gematik.idp.gsi.server.services;
 
 import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
 
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
 import java.io.ByteArrayInputStream;
@@ -36,7 +37,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.Supplier;
+import java.util.function.Function;
 import lombok.extern.slf4j.Slf4j;
 import org.jose4j.jwk.PublicJsonWebKey;
 import org.jose4j.lang.JoseException;
@@ -45,6 +46,60 @@ import org.springframework.http.HttpStatus;
 @Slf4j
 public abstract class EntityStatementRpReader {
 
+  /** Reads the metadata of a verified entity statement of an RP. */
+  public static RpMetadata getRpMetadata(
+      final JsonWebToken entityStmntAboutRp,
+      final JsonWebToken entityStmntRp,
+      final Function<String, Optional<JsonWebToken>> signedJwksByUri) {
+    final RpMetadata metadata =
+        RpMetadata.builder()
+            .idTokenVersionsSupported(getIdTokenVersionSupported(entityStmntRp))
+            .build();
+    return withRegistration(withKeys(metadata, entityStmntRp, signedJwksByUri), entityStmntAboutRp);
+  }
+
+  /**
+   * takes encryption key and TLS client certificates of the RP from its entity statement,
+   * signed_jwks is only requested if the entity statement lacks them
+   */
+  public static RpMetadata withKeys(
+      final RpMetadata metadata,
+      final JsonWebToken entityStmntRp,
+      final Function<String, Optional<JsonWebToken>> signedJwksByUri) {
+    final Optional<PublicJsonWebKey> encKey = getRpEncKeyFromEntityStatement(entityStmntRp);
+    final Optional<List<X509Certificate>> tlsClientCerts =
+        getRpTlsClientCertsFromEntityStatement(entityStmntRp);
+    final Optional<String> signedJwksUri =
+        encKey.isPresent() && tlsClientCerts.isPresent()
+            ? Optional.empty()
+            : ServerUrlService.determineSignedJwksUri(entityStmntRp);
+    final Optional<JsonWebToken> signedJwks = signedJwksUri.flatMap(signedJwksByUri);
+    return metadata.toBuilder()
+        .encKey(
+            encKey
+                .or(() -> signedJwks.flatMap(EntityStatementRpReader::getRpEncKeyFromSignedJwks))
+                .orElse(null))
+        .tlsClientCertsByFingerprint(
+            tlsClientCerts
+                .or(
+                    () ->
+                        signedJwks.flatMap(
+                            EntityStatementRpReader::getRpTlsClientCertsFromSignedJwks))
+                .map(RpMetadata::byFingerprint)
+                .orElse(null))
+        .signedJwksUri(signedJwksUri.orElse(null))
+        .build();
+  }
+
+  /** takes redirect uris and scopes of the RP from the entity statement about it */
+  public static RpMetadata withRegistration(
+      final RpMetadata metadata, final JsonWebToken entityStmntAboutRp) {
+    return metadata.toBuilder()
+        .redirectUris(new HashSet<>(getRedirectUrisEntityStatementRp(entityStmntAboutRp)))
+        .scopes(new HashSet<>(getScopesFromEntityStatementRp(entityStmntAboutRp)))
+        .build();
+  }
+
   public static List<String> getRedirectUrisEntityStatementRp(final JsonWebToken entityStmntRp) {
     final Map<String, Object> openidRelyingParty = getOpenidRelyingParty(entityStmntRp);
     return Objects.requireNonNull(
@@ -59,38 +114,6 @@ public abstract class EntityStatementRpReader {
         .toList();
   }
 
-  public static PublicJsonWebKey getRpEncKey(final JsonWebToken entityStmntRp) {
-    final Optional<PublicJsonWebKey> encKeyFromEntityStatement =
-        EntityStatementRpReader.getRpEncKeyFromEntityStatement(entityStmntRp);
-    if (encKeyFromEntityStatement.isPresent()) {
-      return encKeyFromEntityStatement.get();
-    }
-    final Supplier<GsiException> gsiExceptionSupplier =
-        () ->
-            new GsiException(
-                INVALID_REQUEST,
-                "Encryption key for relying party not found",
-                HttpStatus.BAD_REQUEST);
-    final JsonWebToken signedJwks = getSignedJwks(entityStmntRp).orElseThrow(gsiExceptionSupplier);
-    return getRpEncKeyFromSignedJwks(signedJwks).orElseThrow(gsiExceptionSupplier);
-  }
-
-  public static List<X509Certificate> getRpTlsClientCerts(final JsonWebToken entityStmntRp) {
-    final Optional<List<X509Certificate>> tlsClientCertsFromEntityStatement =
-        getRpTlsClientCertsFromEntityStatement(entityStmntRp);
-    if (tlsClientCertsFromEntityStatement.isPresent()) {
-      return tlsClientCertsFromEntityStatement.get();
-    }
-    final Supplier<GsiException> gsiExceptionSupplier =
-        () ->
-            new GsiException(
-                INVALID_REQUEST,
-                "No TLS client certificate for relying party found",
-                HttpStatus.BAD_REQUEST);
-    final JsonWebToken signedJwks = getSignedJwks(entityStmntRp).orElseThrow(gsiExceptionSupplier);
-    return getRpTlsClientCertsFromSignedJwks(signedJwks).orElseThrow(gsiExceptionSupplier);
-  }
-
   public static Set<String> getIdTokenVersionSupported(final JsonWebToken entityStmntRp) {
     final Map<String, Object> openidRelyingParty = getOpenidRelyingParty(entityStmntRp);
     if (openidRelyingParty.containsKey("ti_features_supported")) {
@@ -225,14 +248,6 @@ public abstract class EntityStatementRpReader {
     } else return transformStringToX509Certificate(x5cValues.getFirst());
   }
 
-  private static Optional<JsonWebToken> getSignedJwks(final JsonWebToken entityStmntRp) {
-    final Optional<String> rpSignedJwksUri = ServerUrlService.determineSignedJwksUri(entityStmntRp);
-    if (rpSignedJwksUri.isPresent()) {
-      return HttpClient.fetchSignedJwks(rpSignedJwksUri.get());
-    }
-    return Optional.empty();
-  }
-
   private static Map<String, Object> getOpenidRelyingParty(final JsonWebToken entityStmntRp) {
     final Map<String, Object> bodyClaims = entityStmntRp.getBodyClaims();
     final Map<String, Object> metadata =
@@ -24,11 +24,11 @@ import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
 import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_SCOPE;
 
 import de.gematik.idp.exceptions.IdpJwtSignatureInvalidException;
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
 import de.gematik.idp.token.TokenClaimExtraction;
 import java.util.Arrays;
-import java.util.List;
 import lombok.extern.slf4j.Slf4j;
 import org.jose4j.jwk.JsonWebKeySet;
 import org.springframework.http.HttpStatus;
@@ -48,10 +48,26 @@ public abstract class EntityStatementRpVerifier {
     }
   }
 
+  /** signed_jwks are signed with a federation key from the entity statement of the RP */
+  public static void verifySignedJwks(
+      final JsonWebToken signedJwks, final JsonWebToken entityStmntRp) {
+    final String keyIdSigSignedJwks = (String) signedJwks.getHeaderClaims().get("kid");
+    try {
+      signedJwks.verify(
+          TokenClaimExtraction.getECPublicKey(
+              TokenClaimExtraction.extractJwksFromBody(entityStmntRp.getRawString()),
+              keyIdSigSignedJwks));
+    } catch (final IdpJwtSignatureInvalidException e) {
+      throw new GsiException(
+          INVALID_REQUEST,
+          "The JWT signature of the signed_jwks of the relying party was invalid.",
+          HttpStatus.BAD_REQUEST);
+    }
+  }
+
   public static void verifyRedirectUriExistsInEntityStmnt(
-      final JsonWebToken entityStmntRp, final String redirectUri) {
-    if (EntityStatementRpReader.getRedirectUrisEntityStatementRp(entityStmntRp).stream()
-        .noneMatch(entry -> entry.equals(redirectUri))) {
+      final RpMetadata rpMetadata, final String redirectUri) {
+    if (!rpMetadata.isRedirectUriRegistered(redirectUri)) {
       throw new GsiException(
           INVALID_REQUEST,
           "Content of parameter redirect_uri [" + redirectUri + "] not found in entity statement. ",
@@ -60,11 +76,8 @@ public abstract class EntityStatementRpVerifier {
   }
 
   public static void verifyRequestedScopesListedInEntityStmnt(
-      final JsonWebToken entityStmntRp, final String scopeParameter) {
-    final List<String> scopesFromEntityStatementRp =
-        EntityStatementRpReader.getScopesFromEntityStatementRp(entityStmntRp);
-    if (Arrays.stream(scopeParameter.split(" "))
-        .anyMatch(scope -> !scopesFromEntityStatementRp.contains(scope))) {
+      final RpMetadata rpMetadata, final String scopeParameter) {
+    if (!rpMetadata.areScopesRegistered(Arrays.asList(scopeParameter.split(" ")))) {
       log.info(
           "Content of parameter scope ["
               + scopeParameter
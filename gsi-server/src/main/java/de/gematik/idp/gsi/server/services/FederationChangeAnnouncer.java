@@ -0,0 +1,91 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import de.gematik.idp.authentication.IdpJwtProcessor;
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import de.gematik.idp.gsi.server.data.JwtHelper;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Producer of the change feed of the fedmaster for this server. The entity statement of this server
+ * only changes with its configuration and keys, i.e. with a deployment, so it is announced once
+ * after startup, retried until the fedmaster accepts it. The announcement is a JWT signed with the
+ * entity statement key, iss and sub name this server and aud the fedmaster. The fedmaster drops its
+ * statement about this server and lists the change, members polling the feed drop theirs.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FederationChangeAnnouncer {
+
+  private static final long ANNOUNCEMENT_TTL_SECONDS = 60;
+
+  private final HttpClient httpClient;
+  private final ServerUrlService serverUrlService;
+  private final IdpJwtProcessor jwtProcessorEsSigPrivKey;
+  private final RpCacheConfiguration rpCacheConfiguration;
+  private volatile boolean announced;
+
+  @Scheduled(
+      fixedDelayString = "${gsi.rpCache.changeAnnouncementRetrySeconds:30}",
+      timeUnit = TimeUnit.SECONDS)
+  public void announce() {
+    if (announced || !rpCacheConfiguration.isChangeFeedEnabled()) {
+      return;
+    }
+    try {
+      httpClient.announceFederationChange(
+          serverUrlService.determineFedmasterUrl(), buildAnnouncement());
+      announced = true;
+      log.info(
+          "Entity statement of {} announced to the fedmaster",
+          serverUrlService.determineServerUrl());
+    } catch (final RuntimeException e) {
+      log.warn("Announcing the entity statement to the fedmaster failed: {}", e.getMessage());
+    }
+  }
+
+  private String buildAnnouncement() {
+    final String serverUrl = serverUrlService.determineServerUrl();
+    final long now = Instant.now().getEpochSecond();
+    return JwtHelper.signJson(
+        jwtProcessorEsSigPrivKey,
+        Map.of(
+            "iss",
+            serverUrl,
+            "sub",
+            serverUrl,
+            "aud",
+            serverUrlService.determineFedmasterUrl(),
+            "iat",
+            now,
+            "exp",
+            now + ANNOUNCEMENT_TTL_SECONDS),
+        "JWT");
+  }
+}
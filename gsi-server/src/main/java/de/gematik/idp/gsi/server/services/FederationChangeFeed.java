@@ -0,0 +1,79 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import de.gematik.idp.gsi.server.data.FederationChanges;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Polls the change feed of the fedmaster and drops stored statements of changed members. The first
+ * poll only takes the current sequence number, a new epoch of the fedmaster or truncated changes
+ * drop all statements. Changes are announced by the members themselves, this server announces its
+ * own with the FederationChangeAnnouncer.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FederationChangeFeed {
+
+  private final TokenRepositoryRp tokenRepositoryRp;
+  private final HttpClient httpClient;
+  private final ServerUrlService serverUrlService;
+  private final RpCacheConfiguration rpCacheConfiguration;
+  // polled by a single scheduler thread
+  private String epoch;
+  private long seq;
+
+  @Scheduled(
+      fixedDelayString = "${gsi.rpCache.changeFeedPollSeconds:10}",
+      timeUnit = TimeUnit.SECONDS)
+  public void poll() {
+    if (!rpCacheConfiguration.isChangeFeedEnabled()) {
+      return;
+    }
+    final FederationChanges federationChanges;
+    try {
+      federationChanges =
+          httpClient.fetchFederationChanges(serverUrlService.determineFedmasterUrl(), seq);
+    } catch (final RuntimeException e) {
+      log.warn("Polling federation changes failed: {}", e.getMessage());
+      return;
+    }
+    if (epoch != null) {
+      if (!epoch.equals(federationChanges.epoch()) || federationChanges.truncated()) {
+        log.info("Federation changes since {} were missed.", seq);
+        tokenRepositoryRp.invalidateAll();
+      } else {
+        federationChanges.changes().stream()
+            .map(FederationChanges.Change::sub)
+            .distinct()
+            .forEach(tokenRepositoryRp::invalidate);
+      }
+    }
+    epoch = federationChanges.epoch();
+    seq = federationChanges.seq();
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Polls the federation list of the fedmaster and hands it to the TokenRepositoryRp. Statements of
+ * and about a listed RP are fetched at the same time, a failed poll keeps the last list.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FederationList {
+
+  private final TokenRepositoryRp tokenRepositoryRp;
+  private final HttpClient httpClient;
+  private final ServerUrlService serverUrlService;
+
+  @Scheduled(
+      fixedDelayString = "${gsi.rpCache.federationListPollSeconds:300}",
+      timeUnit = TimeUnit.SECONDS)
+  public void poll() {
+    try {
+      fetch();
+    } catch (final RuntimeException e) {
+      log.warn("Polling the federation list failed: {}", e.getMessage());
+    }
+  }
+
+  /** fetches the federation list of the fedmaster and keeps it */
+  public List<String> fetch() {
+    final List<String> issuers =
+        httpClient.fetchFederationList(serverUrlService.determineFedmasterUrl());
+    tokenRepositoryRp.updateFederationMembers(issuers);
+    log.debug("Federation list of {} members fetched.", issuers.size());
+    return issuers;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Circuit breaker of one remote host. After failureThreshold consecutive failures calls are
+ * rejected for openMillis, then a single trial call decides whether the circuit closes again.
+ */
+final class HostCircuitBreaker {
+
+  enum State {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+  }
+
+  private final int failureThreshold;
+  private final long openNanos;
+  private final LongSupplier nanoTime;
+  private State state = State.CLOSED;
+  private int failures;
+  private long openedAt;
+  private boolean trialRunning;
+
+  HostCircuitBreaker(final int failureThreshold, final long openMillis) {
+    this(failureThreshold, openMillis, System::nanoTime);
+  }
+
+  HostCircuitBreaker(
+      final int failureThreshold, final long openMillis, final LongSupplier nanoTime) {
+    this.failureThreshold = failureThreshold;
+    this.openNanos = openMillis * 1_000_000;
+    this.nanoTime = nanoTime;
+  }
+
+  /** true if a call may be made, every granted call has to be followed by one of the callbacks */
+  synchronized boolean tryAcquire() {
+    switch (state) {
+      case CLOSED:
+        return true;
+      case OPEN:
+        if (nanoTime.getAsLong() - openedAt < openNanos) {
+          return false;
+        }
+        state = State.HALF_OPEN;
+        trialRunning = true;
+        return true;
+      default:
+        if (trialRunning) {
+          return false;
+        }
+        trialRunning = true;
+        return true;
+    }
+  }
+
+  synchronized void onSuccess() {
+    state = State.CLOSED;
+    failures = 0;
+    trialRunning = false;
+  }
+
+  synchronized void onFailure() {
+    trialRunning = false;
+    if (state == State.HALF_OPEN || ++failures >= failureThreshold) {
+      state = State.OPEN;
+      openedAt = nanoTime.getAsLong();
+      failures = 0;
+    }
+  }
+
+  /** the granted call was not made, e.g. because the bulkhead of the host was full */
+  synchronized void onNotCalled() {
+    trialRunning = false;
+  }
+
+  synchronized State state() {
+    return state;
+  }
+}
@@ -21,54 +21,141 @@
 package de.gematik.idp.gsi.server.services;
 
 import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
+import static de.gematik.idp.gsi.server.data.GsiConstants.FEDMASTER_FED_CHANGES_ENDPOINT;
+import static de.gematik.idp.gsi.server.data.GsiConstants.FEDMASTER_FED_LIST_ENDPOINT;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
 import de.gematik.idp.IdpConstants;
+import de.gematik.idp.gsi.server.configuration.HttpClientConfiguration;
+import de.gematik.idp.gsi.server.data.ConditionalResponse;
+import de.gematik.idp.gsi.server.data.FederationChanges;
+import de.gematik.idp.gsi.server.data.HttpValidators;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.cert.CertPathBuilderException;
 import java.security.cert.CertificateException;
+import java.security.cert.X509Certificate;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
-import kong.unirest.core.HttpResponse;
-import kong.unirest.core.Unirest;
-import kong.unirest.core.UnirestException;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509ExtendedTrustManager;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.json.JsonMapper;
 
+/**
+ * Outbound calls to RPs, the fedmaster and BDE. A single java.net.http client keeps connections and
+ * TLS sessions alive and speaks HTTP/2 where the server offers it. Every call is bounded by
+ * requestTimeoutMillis, at most maxConcurrentRequestsPerHost calls run per host and response bodies
+ * above maxResponseBytes are rejected. A host that keeps failing is not called until its circuit
+ * breaker lets a trial call through again. Bulkhead, circuit breaker and meters of at most maxHosts
+ * hosts are kept, idle ones are dropped after hostIdleSeconds. Statements are fetched conditionally
+ * with the ETag and Last-Modified of the stored ones, a 304 leaves the body empty.
+ */
 @Slf4j
-public abstract class HttpClient {
+@Component
+public class HttpClient {
+
+  // thread safe, built once instead of for every fedmaster response
+  private static final JsonMapper JSON_MAPPER = JsonMapper.builder().build();
+
+  private final HttpClientConfiguration httpClientConfiguration;
+  private final java.net.http.HttpClient client;
+  private final java.net.http.HttpClient bdeClient;
+  private final MeterRegistry meterRegistry;
+  private final Cache<String, Host> hosts;
+
+  public HttpClient(
+      final HttpClientConfiguration httpClientConfiguration, final MeterRegistry meterRegistry) {
+    this.httpClientConfiguration = httpClientConfiguration;
+    this.meterRegistry = meterRegistry;
+    // evicted within the eviction, a host registered again afterwards gets new meters
+    this.hosts =
+        Caffeine.newBuilder()
+            .maximumSize(httpClientConfiguration.getMaxHosts())
+            .expireAfterAccess(Duration.ofSeconds(httpClientConfiguration.getHostIdleSeconds()))
+            .evictionListener(
+                (final String name, final Host host, final RemovalCause cause) ->
+                    host.meters().forEach(meterRegistry::remove))
+            .build();
+    this.client = newClient(null);
+    this.bdeClient =
+        httpClientConfiguration.isBdeVerifySsl() ? client : newClient(trustAllSslContext());
+  }
 
-  public static Optional<JsonWebToken> fetchSignedJwks(final String signedJwksUri) {
-    final HttpResponse<String> resp = Unirest.get(signedJwksUri).asString();
-    if (resp.isSuccess()) {
-      // TODO check signature
-      return Optional.of(new JsonWebToken(resp.getBody()));
+  private java.net.http.HttpClient newClient(final SSLContext sslContext) {
+    final java.net.http.HttpClient.Builder builder =
+        java.net.http.HttpClient.newBuilder()
+            .version(java.net.http.HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(httpClientConfiguration.getConnectTimeoutMillis()))
+            .followRedirects(java.net.http.HttpClient.Redirect.NEVER);
+    if (sslContext != null) {
+      builder.sslContext(sslContext);
     }
-    return Optional.empty();
+    return builder.build();
   }
 
-  public static RpToken fetchEntityStatementRp(final String issuer) {
+  public ConditionalResponse<JsonWebToken> fetchSignedJwks(
+      final String signedJwksUri, final HttpValidators validators) {
+    final HttpResponse<String> resp;
     try {
-      final HttpResponse<String> resp =
-          Unirest.get(issuer + IdpConstants.ENTITY_STATEMENT_ENDPOINT).asString();
-      if (resp.getStatus() == HttpStatus.OK.value()) {
-        return new RpToken(new JsonWebToken(resp.getBody()));
-      } else {
-        log.info(resp.getBody());
-        throw new GsiException(
-            INVALID_REQUEST,
-            "No entity statement of  ["
-                + issuer
-                + "] available. Reason: "
-                + resp.getBody()
-                + HttpStatus.valueOf(resp.getStatus()),
-            HttpStatus.BAD_REQUEST);
-      }
-    } catch (final UnirestException e) {
+      resp = send(client, conditionalGet(signedJwksUri, validators));
+    } catch (final IOException e) {
+      throw transportFailed(
+          "Error when fetching signed_jwks at [" + signedJwksUri + "]. Reason: " + e.getMessage(),
+          e);
+    }
+    if (isNotModified(resp, validators)) {
+      return ConditionalResponse.notModified(validatorsOf(resp, validators));
+    }
+    if (isSuccess(resp)) {
+      return ConditionalResponse.modified(
+          new JsonWebToken(resp.body()), validatorsOf(resp, HttpValidators.NONE));
+    }
+    throw failed(resp, "No signed_jwks of relying party at [" + signedJwksUri + "] available.");
+  }
+
+  public ConditionalResponse<RpToken> fetchEntityStatementRp(
+      final String issuer, final HttpValidators validators) {
+    final HttpResponse<String> resp;
+    try {
+      resp =
+          send(client, conditionalGet(issuer + IdpConstants.ENTITY_STATEMENT_ENDPOINT, validators));
+    } catch (final IOException e) {
       if (isSSLException(e)) {
         log.info("SSL exception for issuer: {}", issuer, e);
         throw new GsiException(
@@ -79,57 +166,358 @@ public abstract class HttpClient {
             e,
             HttpStatus.BAD_REQUEST,
             INVALID_REQUEST);
-      } else {
-        log.error("UnirestException when fetching entity statement for issuer: {}", issuer, e);
-        throw new GsiException(
-            INVALID_REQUEST,
-            "Error when fetching entity statement of [" + issuer + "]. Reason: " + e.getMessage(),
-            HttpStatus.BAD_REQUEST);
       }
+      log.error("Exception when fetching entity statement for issuer: {}", issuer, e);
+      throw transportFailed(
+          "Error when fetching entity statement of [" + issuer + "]. Reason: " + e.getMessage(), e);
+    }
+    if (isNotModified(resp, validators)) {
+      return ConditionalResponse.notModified(validatorsOf(resp, validators));
+    }
+    if (resp.statusCode() == HttpStatus.OK.value()) {
+      return ConditionalResponse.modified(
+          new RpToken(new JsonWebToken(resp.body())), validatorsOf(resp, HttpValidators.NONE));
     }
+    log.info(resp.body());
+    throw failed(
+        resp,
+        "No entity statement of  ["
+            + issuer
+            + "] available. Reason: "
+            + resp.body()
+            + HttpStatus.valueOf(resp.statusCode()));
   }
 
-  public static JsonWebToken fetchEntityStatementAboutRp(
-      final String sub, final String fedmasterUrl, final String entityStmntEndpoint) {
+  public ConditionalResponse<JsonWebToken> fetchEntityStatementAboutRp(
+      final String sub,
+      final String fedmasterUrl,
+      final String entityStmntEndpoint,
+      final HttpValidators validators) {
     log.info("FedmasterUrl: " + fedmasterUrl);
     final HttpResponse<String> resp =
-        Unirest.get(entityStmntEndpoint)
-            .queryString("iss", fedmasterUrl)
-            .queryString("sub", sub)
-            .asString();
-    if (resp.getStatus() == HttpStatus.OK.value()) {
-      return new JsonWebToken(resp.getBody());
-    } else {
-      log.info(resp.getBody());
+        fetchFromFedmaster(
+            conditionalGet(
+                entityStmntEndpoint + "?iss=" + urlEncode(fedmasterUrl) + "&sub=" + urlEncode(sub),
+                validators),
+            "entity statement about relying party [" + sub + "]");
+    if (isNotModified(resp, validators)) {
+      return ConditionalResponse.notModified(validatorsOf(resp, validators));
+    }
+    if (resp.statusCode() == HttpStatus.OK.value()) {
+      return ConditionalResponse.modified(
+          new JsonWebToken(resp.body()), validatorsOf(resp, HttpValidators.NONE));
+    }
+    log.info(resp.body());
+    throw failed(
+        resp,
+        "No entity statement about relying party ["
+            + sub
+            + "] at Fedmaster iss: "
+            + fedmasterUrl
+            + " available. Reason: "
+            + resp.body()
+            + HttpStatus.valueOf(resp.statusCode()));
+  }
+
+  /** entity statement of the fedmaster, empty if it did not answer with 200 */
+  public Optional<JsonWebToken> fetchEntityStatementFedmaster(final String fedmasterUrl) {
+    final HttpResponse<String> resp =
+        fetchFromFedmaster(
+            fedmasterUrl + IdpConstants.ENTITY_STATEMENT_ENDPOINT,
+            "entity statement of the fedmaster");
+    return resp.statusCode() == HttpStatus.OK.value()
+        ? Optional.of(new JsonWebToken(resp.body()))
+        : Optional.empty();
+  }
+
+  /** issuers of all RPs and IdPs of the federation */
+  public List<String> fetchFederationList(final String fedmasterUrl) {
+    final HttpResponse<String> resp =
+        fetchFromFedmaster(fedmasterUrl + FEDMASTER_FED_LIST_ENDPOINT, "federation list");
+    if (resp.statusCode() != HttpStatus.OK.value()) {
+      throw new GsiException(
+          INVALID_REQUEST,
+          "No federation list at Fedmaster "
+              + fedmasterUrl
+              + " available. Reason: "
+              + resp.body()
+              + HttpStatus.valueOf(resp.statusCode()),
+          HttpStatus.BAD_REQUEST);
+    }
+    return JSON_MAPPER.readValue(resp.body(), new TypeReference<>() {});
+  }
+
+  public FederationChanges fetchFederationChanges(final String fedmasterUrl, final long since) {
+    final HttpResponse<String> resp =
+        fetchFromFedmaster(
+            fedmasterUrl + FEDMASTER_FED_CHANGES_ENDPOINT + "?since=" + since,
+            "federation changes");
+    if (resp.statusCode() != HttpStatus.OK.value()) {
       throw new GsiException(
           INVALID_REQUEST,
-          "No entity statement about relying party ["
-              + sub
-              + "] at Fedmaster iss: "
+          "No federation changes at Fedmaster "
               + fedmasterUrl
               + " available. Reason: "
-              + resp.getBody()
-              + HttpStatus.valueOf(resp.getStatus()),
+              + resp.body()
+              + HttpStatus.valueOf(resp.statusCode()),
           HttpStatus.BAD_REQUEST);
     }
+    return JSON_MAPPER.readValue(resp.body(), FederationChanges.class);
   }
 
-  public static void sendLogsToBde(
+  /** announces a changed entity statement of this server in its change feed */
+  public void announceFederationChange(final String fedmasterUrl, final String announcement) {
+    final HttpResponse<String> resp =
+        fetchFromFedmaster(
+            HttpRequest.newBuilder(URI.create(fedmasterUrl + FEDMASTER_FED_CHANGES_ENDPOINT))
+                .header(HttpHeaders.CONTENT_TYPE, "application/x-www-form-urlencoded")
+                .POST(
+                    HttpRequest.BodyPublishers.ofString("announcement=" + urlEncode(announcement))),
+            "federation change announcement");
+    if (resp.statusCode() != HttpStatus.OK.value()) {
+      throw failed(
+          resp,
+          "Federation change was not accepted by Fedmaster "
+              + fedmasterUrl
+              + ". Reason: "
+              + resp.body()
+              + HttpStatus.valueOf(resp.statusCode()));
+    }
+  }
+
+  public void sendLogsToBde(
       final Queue<String> logs, final String filename, final String bdeEndpointUrl) {
-    Unirest.config().verifySsl(false);
     final String logString = String.join("\n", logs);
-    final HttpResponse<String> resp =
-        Unirest.post(bdeEndpointUrl)
-            .header("Content-Type", "application/octet-stream")
-            .header("Accept-Encoding", "gzip, deflate")
-            .header("filename", filename)
-            .body(logString.isEmpty() ? "leer" : logString)
-            .asString();
-    log.info("BDE response; status: " + resp.getStatus() + "; body: " + resp.getBody());
+    try {
+      final HttpResponse<String> resp =
+          send(
+              bdeClient,
+              HttpRequest.newBuilder(URI.create(bdeEndpointUrl))
+                  .header("Content-Type", "application/octet-stream")
+                  .header("filename", filename)
+                  .POST(
+                      HttpRequest.BodyPublishers.ofString(
+                          logString.isEmpty() ? "leer" : logString)));
+      log.info("BDE response; status: " + resp.statusCode() + "; body: " + resp.body());
+    } catch (final IOException e) {
+      log.warn("Sending logs to BDE failed: {}", e.getMessage());
+    }
+  }
+
+  private HttpResponse<String> fetchFromFedmaster(final String uri, final String what) {
+    return fetchFromFedmaster(get(uri), what);
+  }
+
+  private HttpResponse<String> fetchFromFedmaster(
+      final HttpRequest.Builder request, final String what) {
+    try {
+      return send(client, request);
+    } catch (final IOException e) {
+      throw transportFailed(
+          "Error when fetching " + what + " at Fedmaster. Reason: " + e.getMessage(), e);
+    }
+  }
+
+  /** calls another node of this GSI, bounded like every outbound call */
+  public HttpResponse<String> callNode(final HttpRequest.Builder request) throws IOException {
+    return send(client, request);
+  }
+
+  /**
+   * whether a fetch failed because the remote was unreachable, timed out, its circuit breaker was
+   * open or it answered with 5xx, or because this server cannot fetch yet; such a failure may pass,
+   * other failures are definitive answers
+   */
+  public static boolean isTransient(final Throwable e) {
+    return e instanceof final GsiException gsiException
+        && (gsiException.getStatusCode() == HttpStatus.SERVICE_UNAVAILABLE
+            || e.getCause() instanceof IOException && !isSSLException(e.getCause()));
+  }
+
+  private static GsiException transportFailed(final String message, final IOException e) {
+    return new GsiException(message, e, HttpStatus.BAD_REQUEST, INVALID_REQUEST);
+  }
+
+  private static GsiException failed(final HttpResponse<String> resp, final String message) {
+    return resp.statusCode() >= 500
+        ? transportFailed(message, new IOException("Status " + resp.statusCode()))
+        : new GsiException(INVALID_REQUEST, message, HttpStatus.BAD_REQUEST);
+  }
+
+  private static HttpRequest.Builder get(final String uri) {
+    return HttpRequest.newBuilder(URI.create(uri)).GET();
+  }
+
+  private static HttpRequest.Builder conditionalGet(
+      final String uri, final HttpValidators validators) {
+    final HttpRequest.Builder request = get(uri);
+    if (validators.etag() != null) {
+      request.header(HttpHeaders.IF_NONE_MATCH, validators.etag());
+    }
+    if (validators.lastModified() != null) {
+      request.header(HttpHeaders.IF_MODIFIED_SINCE, validators.lastModified());
+    }
+    return request;
+  }
+
+  private static boolean isNotModified(
+      final HttpResponse<String> resp, final HttpValidators validators) {
+    return resp.statusCode() == HttpStatus.NOT_MODIFIED.value() && !validators.isEmpty();
+  }
+
+  // a 304 may leave out validators that did not change
+  private static HttpValidators validatorsOf(
+      final HttpResponse<String> resp, final HttpValidators previous) {
+    return new HttpValidators(
+        resp.headers().firstValue(HttpHeaders.ETAG).orElse(previous.etag()),
+        resp.headers().firstValue(HttpHeaders.LAST_MODIFIED).orElse(previous.lastModified()),
+        maxAge(resp));
+  }
+
+  private static Duration maxAge(final HttpResponse<String> resp) {
+    for (final String cacheControl : resp.headers().allValues(HttpHeaders.CACHE_CONTROL)) {
+      for (final String directive : cacheControl.split(",")) {
+        final String normalized = directive.trim().toLowerCase(Locale.ROOT);
+        if (normalized.equals("no-cache") || normalized.equals("no-store")) {
+          return Duration.ZERO;
+        }
+        if (normalized.startsWith("max-age=")) {
+          try {
+            return Duration.ofSeconds(Long.parseLong(normalized.substring("max-age=".length())));
+          } catch (final NumberFormatException e) {
+            return null;
+          }
+        }
+      }
+    }
+    return null;
+  }
+
+  private HttpResponse<String> send(
+      final java.net.http.HttpClient httpClient, final HttpRequest.Builder requestBuilder)
+      throws IOException {
+    final Duration timeout = Duration.ofMillis(httpClientConfiguration.getRequestTimeoutMillis());
+    final HttpRequest request = requestBuilder.timeout(timeout).build();
+    final Host host = hosts.get(request.uri().getAuthority(), this::newHost);
+    if (!host.breaker().tryAcquire()) {
+      host.rejectedByBreaker().increment();
+      throw new IOException("Circuit breaker of " + host.name() + " is open");
+    }
+    final long deadline = System.nanoTime() + timeout.toNanos();
+    try {
+      if (!host.calls()
+          .tryAcquire(httpClientConfiguration.getBulkheadMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+        host.breaker().onNotCalled();
+        host.rejectedByBulkhead().increment();
+        throw new IOException("Too many concurrent requests to " + host.name());
+      }
+    } catch (final InterruptedException e) {
+      host.breaker().onNotCalled();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while calling " + host.name(), e);
+    }
+    try {
+      final HttpResponse<String> response = call(httpClient, request, host.name(), deadline);
+      if (response.statusCode() >= HttpStatus.INTERNAL_SERVER_ERROR.value()) {
+        host.breaker().onFailure();
+      } else {
+        host.breaker().onSuccess();
+      }
+      return response;
+    } catch (final IOException e) {
+      host.breaker().onFailure();
+      throw e;
+    } catch (final InterruptedException e) {
+      host.breaker().onNotCalled();
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while calling " + host.name(), e);
+    } finally {
+      host.calls().release();
+    }
+  }
+
+  private HttpResponse<String> call(
+      final java.net.http.HttpClient httpClient,
+      final HttpRequest request,
+      final String host,
+      final long deadline)
+      throws IOException, InterruptedException {
+    final CappedBody body = new CappedBody(httpClientConfiguration.getMaxResponseBytes());
+    final CompletableFuture<HttpResponse<String>> response =
+        httpClient.sendAsync(request, responseInfo -> body);
+    try {
+      return response.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (final TimeoutException e) {
+      response.cancel(true);
+      throw new IOException(
+          "No response of "
+              + host
+              + " within "
+              + httpClientConfiguration.getRequestTimeoutMillis()
+              + "ms");
+    } catch (final ExecutionException e) {
+      // over HTTP/2 the cancelled stream fails the exchange instead of the capped body
+      final Throwable failure =
+          body.getBody().isCompletedExceptionally() ? body.getBody().exceptionNow() : e.getCause();
+      throw failure instanceof final IOException cause ? cause : new IOException(failure);
+    }
+  }
+
+  private Host newHost(final String name) {
+    final HostCircuitBreaker breaker =
+        new HostCircuitBreaker(
+            httpClientConfiguration.getCircuitBreakerFailureThreshold(),
+            httpClientConfiguration.getCircuitBreakerOpenMillis());
+    final int maxCalls = httpClientConfiguration.getMaxConcurrentRequestsPerHost();
+    final Semaphore calls = new Semaphore(maxCalls);
+    final Gauge circuitState =
+        Gauge.builder("gsi.http.client.circuit.state", breaker, b -> b.state().ordinal())
+            .description("circuit breaker of a remote host, 0 closed, 1 open, 2 half open")
+            .tag("host", name)
+            .register(meterRegistry);
+    final Gauge activeCalls =
+        Gauge.builder("gsi.http.client.calls.active", calls, c -> maxCalls - c.availablePermits())
+            .description("calls to a remote host in flight")
+            .tag("host", name)
+            .register(meterRegistry);
+    final Counter rejectedByBreaker = rejectedCounter(name, "circuit_open");
+    final Counter rejectedByBulkhead = rejectedCounter(name, "bulkhead_full");
+    return new Host(
+        name,
+        calls,
+        breaker,
+        rejectedByBreaker,
+        rejectedByBulkhead,
+        List.of(circuitState, activeCalls, rejectedByBreaker, rejectedByBulkhead));
+  }
+
+  private Counter rejectedCounter(final String host, final String reason) {
+    return Counter.builder("gsi.http.client.rejected")
+        .description("calls to a remote host rejected without sending them")
+        .tag("host", host)
+        .tag("reason", reason)
+        .register(meterRegistry);
+  }
+
+  // bulkhead and circuit breaker of one remote host
+  private record Host(
+      String name,
+      Semaphore calls,
+      HostCircuitBreaker breaker,
+      Counter rejectedByBreaker,
+      Counter rejectedByBulkhead,
+      List<Meter> meters) {}
+
+  private static boolean isSuccess(final HttpResponse<String> resp) {
+    return resp.statusCode() >= 200 && resp.statusCode() < 300;
+  }
+
+  private static String urlEncode(final String value) {
+    return URLEncoder.encode(value, StandardCharsets.UTF_8);
   }
 
-  private static boolean isSSLException(final UnirestException e) {
-    Throwable cause = e.getCause();
+  private static boolean isSSLException(final Throwable e) {
+    Throwable cause = e;
     while (cause != null) {
       for (final Class<? extends Throwable> sslEx : SSL_EXCEPTIONS) {
         if (sslEx.isInstance(cause)) {
@@ -147,4 +535,97 @@ public abstract class HttpClient {
           SSLException.class,
           CertPathBuilderException.class,
           CertificateException.class);
+
+  private static SSLContext trustAllSslContext() {
+    try {
+      final SSLContext sslContext = SSLContext.getInstance("TLS");
+      sslContext.init(null, new TrustManager[] {new TrustAllManager()}, null);
+      return sslContext;
+    } catch (final GeneralSecurityException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // collects the body up to maxBytes, a larger body cancels the response
+  private static final class CappedBody implements HttpResponse.BodySubscriber<String> {
+
+    private final int maxBytes;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final CompletableFuture<String> body = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+
+    private CappedBody(final int maxBytes) {
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public void onSubscribe(final Flow.Subscription newSubscription) {
+      subscription = newSubscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(final List<ByteBuffer> buffers) {
+      for (final ByteBuffer buffer : buffers) {
+        if (body.isDone()) {
+          return;
+        }
+        if (bytes.size() + buffer.remaining() > maxBytes) {
+          body.completeExceptionally(
+              new IOException("Response body exceeds " + maxBytes + " bytes"));
+          subscription.cancel();
+          return;
+        }
+        final byte[] chunk = new byte[buffer.remaining()];
+        buffer.get(chunk);
+        bytes.write(chunk, 0, chunk.length);
+      }
+    }
+
+    @Override
+    public void onError(final Throwable throwable) {
+      body.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      body.complete(bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public CompletableFuture<String> getBody() {
+      return body;
+    }
+  }
+
+  // BDE endpoints of test environments present self-signed certificates
+  private static final class TrustAllManager extends X509ExtendedTrustManager {
+
+    @Override
+    public void checkClientTrusted(final X509Certificate[] chain, final String authType) {}
+
+    @Override
+    public void checkServerTrusted(final X509Certificate[] chain, final String authType) {}
+
+    @Override
+    public void checkClientTrusted(
+        final X509Certificate[] chain, final String authType, final Socket socket) {}
+
+    @Override
+    public void checkServerTrusted(
+        final X509Certificate[] chain, final String authType, final Socket socket) {}
+
+    @Override
+    public void checkClientTrusted(
+        final X509Certificate[] chain, final String authType, final SSLEngine engine) {}
+
+    @Override
+    public void checkServerTrusted(
+        final X509Certificate[] chain, final String authType, final SSLEngine engine) {}
+
+    @Override
+    public X509Certificate[] getAcceptedIssuers() {
+      return new X509Certificate[0];
+    }
+  }
 }
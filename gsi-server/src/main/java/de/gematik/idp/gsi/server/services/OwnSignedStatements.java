@@ -0,0 +1,78 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import static de.gematik.idp.gsi.server.services.EntityStatementBuilder.ENTITY_STATEMENT_TTL_HOURS;
+
+import de.gematik.idp.gsi.server.data.SignedJwt;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Service;
+
+/**
+ * Signed entity statement and signed JWKS of this server, re-signed after half of their lifetime or
+ * when the content they were signed from changes. Requests in between get the same bytes and etag.
+ * The keys are loaded at startup, a key change comes with a restart and starts unsigned.
+ */
+@Service
+public class OwnSignedStatements {
+
+  static final Duration REUSE_DURATION = Duration.ofHours(ENTITY_STATEMENT_TTL_HOURS).dividedBy(2);
+
+  private final Map<String, Signed> signedJwts = new ConcurrentHashMap<>();
+
+  // content is what the JWT is built from, e.g. the configured urls
+  public SignedJwt get(final String endpoint, final String content, final Supplier<String> sign) {
+    final Instant now = Instant.now();
+    final Signed current = signedJwts.get(endpoint);
+    if (isReusable(current, content, now)) {
+      return current.signedJwt();
+    }
+    // signed without holding a lock of the map, concurrent requests may sign at the same time
+    final Signed fresh =
+        new Signed(
+            content,
+            SignedJwt.of(
+                sign.get(), now.truncatedTo(ChronoUnit.SECONDS), now.plus(REUSE_DURATION)));
+    final boolean published =
+        current == null
+            ? signedJwts.putIfAbsent(endpoint, fresh) == null
+            : signedJwts.replace(endpoint, current, fresh);
+    if (published) {
+      return fresh.signedJwt();
+    }
+    // another request published first, its signature is served to keep the etag stable
+    final Signed winner = signedJwts.get(endpoint);
+    return isReusable(winner, content, now) ? winner.signedJwt() : fresh.signedJwt();
+  }
+
+  private static boolean isReusable(final Signed signed, final String content, final Instant now) {
+    return signed != null
+        && signed.content().equals(content)
+        && now.isBefore(signed.signedJwt().reusableUntil());
+  }
+
+  private record Signed(String content, SignedJwt signedJwt) {}
+}
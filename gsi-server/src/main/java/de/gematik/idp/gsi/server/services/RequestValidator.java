@@ -39,16 +39,15 @@ import de.gematik.idp.crypto.exceptions.IdpCryptoException;
 import de.gematik.idp.field.ClientUtilities;
 import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
 import de.gematik.idp.gsi.server.data.GsiConstants;
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.gsi.server.util.TrustedCertificateLoader;
-import de.gematik.idp.token.JsonWebToken;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
@@ -61,11 +60,11 @@ import org.springframework.http.HttpStatus;
 public abstract class RequestValidator {
 
   public static void validateParParams(
-      final JsonWebToken entityStmntAboutRp, final String redirectUri, final String scope) {
+      final RpMetadata rpMetadata, final String redirectUri, final String scope) {
     // Msg 2a and 2b
     // Msg 2c and 2d
-    EntityStatementRpVerifier.verifyRedirectUriExistsInEntityStmnt(entityStmntAboutRp, redirectUri);
-    EntityStatementRpVerifier.verifyRequestedScopesListedInEntityStmnt(entityStmntAboutRp, scope);
+    EntityStatementRpVerifier.verifyRedirectUriExistsInEntityStmnt(rpMetadata, redirectUri);
+    EntityStatementRpVerifier.verifyRequestedScopesListedInEntityStmnt(rpMetadata, scope);
     verifyIdpDoesSupportRequestedScopes(scope);
   }
 
@@ -86,9 +85,8 @@ public abstract class RequestValidator {
           entityStmntRp.getRpTlsClientCertificates();
 
       final List<X509Certificate> trustedCerts = TrustedCertificateLoader.loadTrustedCertificates();
-      final List<X509Certificate> allCerts = new ArrayList<>(certsFromEntityStatement);
-      allCerts.addAll(trustedCerts);
-      if (allCerts.stream().noneMatch(certFromEs -> certFromEs.equals(certFromRequest))) {
+      if (!entityStmntRp.isRpTlsClientCertificate(certFromRequest)
+          && trustedCerts.stream().noneMatch(certFromRequest::equals)) {
         log.info(
             "No match found for client certificate {} in entity statement or trusted certificates",
             certFromRequest.getSerialNumber());
@@ -0,0 +1,131 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Fetches and verifies the statements of all RPs on the federation list of the fedmaster after
+ * startup, so their first requests find them cached. The list names IdPs as well, their statements
+ * fail and are skipped. Part of the readiness group: out of service until the warm-up finished or
+ * warmUpDeadlineSeconds passed.
+ */
+@Slf4j
+@Component
+public class RpCacheWarmUp implements HealthIndicator {
+
+  private final TokenRepositoryRp tokenRepositoryRp;
+  private final FederationList federationList;
+  private final RpCacheConfiguration rpCacheConfiguration;
+  private final Clock clock;
+  private final AtomicInteger warmedUp = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private volatile Instant deadline;
+  private volatile boolean finished;
+
+  @Autowired
+  public RpCacheWarmUp(
+      final TokenRepositoryRp tokenRepositoryRp,
+      final FederationList federationList,
+      final RpCacheConfiguration rpCacheConfiguration) {
+    this(tokenRepositoryRp, federationList, rpCacheConfiguration, Clock.systemUTC());
+  }
+
+  RpCacheWarmUp(
+      final TokenRepositoryRp tokenRepositoryRp,
+      final FederationList federationList,
+      final RpCacheConfiguration rpCacheConfiguration,
+      final Clock clock) {
+    this.tokenRepositoryRp = tokenRepositoryRp;
+    this.federationList = federationList;
+    this.rpCacheConfiguration = rpCacheConfiguration;
+    this.clock = clock;
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!rpCacheConfiguration.isWarmUpEnabled()) {
+      return;
+    }
+    deadline = clock.instant().plusSeconds(rpCacheConfiguration.getWarmUpDeadlineSeconds());
+    Thread.ofVirtual().name("gsi-rp-warm-up").start(this::warmUp);
+  }
+
+  void warmUp() {
+    try {
+      final List<String> issuers = federationList.fetch();
+      log.info("Warming up entity statements of {} federation members.", issuers.size());
+      try (final ExecutorService executor =
+          Executors.newFixedThreadPool(
+              rpCacheConfiguration.getWarmUpConcurrency(),
+              Thread.ofVirtual().name("gsi-rp-warm-up-", 0).factory())) {
+        issuers.forEach(issuer -> executor.execute(() -> warmUp(issuer)));
+      }
+      log.info(
+          "Warm-up done, {} entity statements of RPs stored, {} failed.",
+          warmedUp.get(),
+          failed.get());
+    } catch (final RuntimeException e) {
+      log.warn("Warm-up failed: {}", e.getMessage());
+    } finally {
+      finished = true;
+    }
+  }
+
+  private void warmUp(final String issuer) {
+    try {
+      tokenRepositoryRp.getEntityStatementRp(issuer, true);
+      warmedUp.incrementAndGet();
+    } catch (final RuntimeException e) {
+      failed.incrementAndGet();
+      log.debug("Warm-up of [{}] failed: {}", issuer, e.getMessage());
+    }
+  }
+
+  @Override
+  public Health health() {
+    if (!rpCacheConfiguration.isWarmUpEnabled()) {
+      return Health.up().build();
+    }
+    final Health.Builder health =
+        finished || (deadline != null && !clock.instant().isBefore(deadline))
+            ? Health.up()
+            : Health.outOfService();
+    return health
+        .withDetail("finished", finished)
+        .withDetail("warmedUp", warmedUp.get())
+        .withDetail("failed", failed.get())
+        .build();
+  }
+}
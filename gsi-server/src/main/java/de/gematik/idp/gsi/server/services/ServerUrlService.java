@@ -20,28 +20,56 @@
 
 package de.gematik.idp.gsi.server.services;
 
+import static de.gematik.idp.data.Oauth2ErrorCode.TEMPORARILY_UNAVAILABLE;
+
 import de.gematik.idp.IdpConstants;
+import de.gematik.idp.gsi.server.configuration.FedmasterDiscoveryConfiguration;
 import de.gematik.idp.gsi.server.configuration.GsiConfiguration;
+import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import kong.unirest.core.HttpResponse;
-import kong.unirest.core.Unirest;
-import lombok.RequiredArgsConstructor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.boot.health.contributor.Health;
+import org.springframework.boot.health.contributor.HealthIndicator;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
 
+/**
+ * URLs of this server and the fedmaster. The federation fetch endpoint of the fedmaster is
+ * discovered in the background from startup on and rediscovered every ttlSeconds, failed
+ * discoveries are retried with exponential backoff. Requests only read the last discovered
+ * endpoint. The server is not ready before the first discovery attempt finished.
+ */
 @Service
-@RequiredArgsConstructor
 @Slf4j
-public class ServerUrlService {
+public class ServerUrlService implements HealthIndicator {
 
   private final GsiConfiguration gsiConfiguration;
-  private String fedmasterUrl;
-  private String fedmasterFetchEntityStatementEndpoint;
+  private final HttpClient httpClient;
+  private final FedmasterDiscoveryConfiguration discoveryConfiguration;
+  private final ScheduledExecutorService discoveryExecutor;
+  private volatile String fedmasterFetchEntityStatementEndpoint;
+  private volatile boolean firstAttemptFinished;
+
+  public ServerUrlService(
+      final GsiConfiguration gsiConfiguration,
+      final HttpClient httpClient,
+      final FedmasterDiscoveryConfiguration discoveryConfiguration) {
+    this.gsiConfiguration = gsiConfiguration;
+    this.httpClient = httpClient;
+    this.discoveryConfiguration = discoveryConfiguration;
+    this.discoveryExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("gsi-fedmaster-discovery").daemon().factory());
+  }
 
   public String determineServerUrl() {
     return getServerUrlFromConfig()
@@ -53,31 +81,88 @@ public class ServerUrlService {
   }
 
   public String determineFedmasterUrl() {
-    if (fedmasterUrl == null) {
-      fedmasterUrl =
-          Optional.ofNullable(gsiConfiguration.getFedmasterUrl())
-              .filter(StringUtils::isNotBlank)
-              .orElse("Parameter \"gsi.fedmasterUrl\" not found in configuration.");
-    }
-    return fedmasterUrl;
+    return Optional.ofNullable(gsiConfiguration.getFedmasterUrl())
+        .filter(StringUtils::isNotBlank)
+        .orElse("Parameter \"gsi.fedmasterUrl\" not found in configuration.");
   }
 
+  /** the last discovered federation fetch endpoint, never fetched on the calling thread */
   public String determineFetchEntityStatementEndpoint() {
-    if (fedmasterFetchEntityStatementEndpoint == null) {
-      final HttpResponse<String> resp =
-          Unirest.get(determineFedmasterUrl() + IdpConstants.ENTITY_STATEMENT_ENDPOINT).asString();
-      if (resp.getStatus() == HttpStatus.OK.value()) {
-        final JsonWebToken fedmasterEntityStatement = new JsonWebToken(resp.getBody());
-        fedmasterFetchEntityStatementEndpoint =
-            readFederationFetchEndpointFromEntityStatement(fedmasterEntityStatement);
-      } else {
+    final String endpoint = fedmasterFetchEntityStatementEndpoint;
+    if (endpoint == null) {
+      throw new GsiException(
+          TEMPORARILY_UNAVAILABLE,
+          "Federation fetch endpoint of Fedmaster "
+              + determineFedmasterUrl()
+              + " not discovered yet.",
+          HttpStatus.SERVICE_UNAVAILABLE);
+    }
+    return endpoint;
+  }
+
+  // the first attempt runs on the discovery thread, readiness waits for it
+  @PostConstruct
+  void discoverAtStartup() {
+    discoveryExecutor.execute(() -> discover(0));
+  }
+
+  /** reads the federation fetch endpoint from the entity statement of the fedmaster */
+  public boolean discoverFetchEntityStatementEndpoint() {
+    try {
+      final Optional<JsonWebToken> fedmasterEntityStatement =
+          httpClient.fetchEntityStatementFedmaster(determineFedmasterUrl());
+      if (fedmasterEntityStatement.isEmpty()) {
         log.error(
             "Error while Fetching the Fedmasters EntityStatement: "
                 + determineFedmasterUrl()
                 + IdpConstants.ENTITY_STATEMENT_ENDPOINT);
+        return false;
       }
+      fedmasterFetchEntityStatementEndpoint =
+          readFederationFetchEndpointFromEntityStatement(fedmasterEntityStatement.get());
+      log.info(
+          "Federation fetch endpoint of Fedmaster discovered: {}",
+          fedmasterFetchEntityStatementEndpoint);
+      return true;
+    } catch (final RuntimeException e) {
+      log.error(
+          "Discovering the federation fetch endpoint of Fedmaster {} failed: {}",
+          determineFedmasterUrl(),
+          e.getMessage());
+      return false;
+    }
+  }
+
+  // a failed discovery keeps the endpoint discovered before
+  private void discover(final int failedAttempts) {
+    final boolean discovered = discoverFetchEntityStatementEndpoint();
+    firstAttemptFinished = true;
+    if (discovered) {
+      discoveryExecutor.schedule(
+          () -> discover(0), discoveryConfiguration.getTtlSeconds(), TimeUnit.SECONDS);
+      return;
     }
-    return fedmasterFetchEntityStatementEndpoint;
+    final long backoffMillis =
+        Math.min(
+            TimeUnit.SECONDS.toMillis(discoveryConfiguration.getRetryMaxBackoffSeconds()),
+            (long) discoveryConfiguration.getRetryInitialBackoffMillis()
+                << Math.min(failedAttempts, 20));
+    discoveryExecutor.schedule(
+        () -> discover(failedAttempts + 1), backoffMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    discoveryExecutor.shutdownNow();
+  }
+
+  @Override
+  public Health health() {
+    final Health.Builder health = firstAttemptFinished ? Health.up() : Health.outOfService();
+    return health
+        .withDetail("firstAttemptFinished", firstAttemptFinished)
+        .withDetail("discovered", fedmasterFetchEntityStatementEndpoint != null)
+        .build();
   }
 
   private static String readFederationFetchEndpointFromEntityStatement(
@@ -0,0 +1,63 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/** Runs one fetch per key at a time, concurrent callers for the same key wait for its result. */
+final class SingleFlight<T> {
+
+  private final Map<String, CompletableFuture<T>> inFlight = new ConcurrentHashMap<>();
+
+  T run(final String key, final Supplier<T> fetch) {
+    final CompletableFuture<T> flight = new CompletableFuture<>();
+    final CompletableFuture<T> running = inFlight.putIfAbsent(key, flight);
+    if (running != null) {
+      return await(running);
+    }
+    try {
+      final T result = fetch.get();
+      flight.complete(result);
+      return result;
+    } catch (final RuntimeException e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  private static <T> T await(final CompletableFuture<T> running) {
+    try {
+      return running.join();
+    } catch (final CompletionException e) {
+      // the waiting callers get the exception of the fetch, e.g. a GsiException
+      if (e.getCause() instanceof final RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+}
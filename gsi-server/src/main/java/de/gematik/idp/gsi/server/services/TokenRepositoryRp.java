@@ -21,94 +21,599 @@
 package de.gematik.idp.gsi.server.services;
 
 import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
+import static de.gematik.idp.field.ClaimName.EXPIRES_AT;
+import static de.gematik.idp.field.ClaimName.ISSUED_AT;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.gematik.idp.data.Oauth2ErrorCode;
 import de.gematik.idp.exceptions.IdpJwtSignatureInvalidException;
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import de.gematik.idp.gsi.server.data.ConditionalResponse;
+import de.gematik.idp.gsi.server.data.HttpValidators;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
+import de.gematik.idp.gsi.server.memory.BudgetedCache;
 import de.gematik.idp.token.JsonWebToken;
 import de.gematik.idp.token.TokenClaimExtraction;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import java.security.PublicKey;
-import java.util.HashMap;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
-import lombok.RequiredArgsConstructor;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 import org.jose4j.jwk.JsonWebKeySet;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+/**
+ * Verified entity statements of and about relying parties. Statements are refetched in the
+ * background before they expire. While a statement cannot be refetched, the last verified one is
+ * served for staleIfErrorSeconds after its expiry and refetching is retried with exponential
+ * backoff. Failures without a statement to serve are remembered for negativeTtlSeconds, requests of
+ * such an RP fail without outbound calls meanwhile. signed_jwks of RPs are cached the same way by
+ * uri for signedJwksTtlSeconds at most, verified once per fetch and read into the metadata of the
+ * statements of RPs publishing them. The statement of an RP on the federation list of the fedmaster
+ * and the statement about it are fetched concurrently on fetchConcurrency threads, only verifying
+ * the former waits for the latter; the host of any other RP is contacted after the fedmaster
+ * confirmed it. Stored statements are refetched conditionally, one answered with 304 is kept
+ * without verifying it again and revalidated after its max-age. Under memory pressure the
+ * statements expiring first are dropped.
+ */
 @Slf4j
 @Service
-@RequiredArgsConstructor
-public class TokenRepositoryRp {
+public class TokenRepositoryRp implements BudgetedCache {
+
+  // raw JWT plus its parsed header and body claims
+  private static final int BYTES_PER_JWT_CHAR = 4;
 
-  private final Map<String, RpToken> entityStmtsOfRp = new HashMap<>();
-  private final Map<String, JsonWebToken> entityStmtsAboutRp = new HashMap<>();
+  private final Map<String, CachedStatement<RpToken>> entityStmtsOfRp = new ConcurrentHashMap<>();
+  private final Map<String, CachedStatement<JsonWebToken>> entityStmtsAboutRp =
+      new ConcurrentHashMap<>();
+  private final Map<String, CachedStatement<JsonWebToken>> signedJwksByUri =
+      new ConcurrentHashMap<>();
+  // concurrent requests of the same RP wait for a single fetch
+  private final SingleFlight<RpToken> fetchesOfRp = new SingleFlight<>();
+  private final SingleFlight<JsonWebToken> fetchesAboutRp = new SingleFlight<>();
+  private final SingleFlight<JsonWebToken> fetchesSignedJwks = new SingleFlight<>();
+  // statements being refetched or retried in the background
+  private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+  // RPs on the federation list of the fedmaster, kept current by FederationList
+  private volatile Set<String> federationMembers = Set.of();
+  // definitive failures of unknown or broken RPs by statement
+  private final Cache<String, FailedStatement> failedStmts;
+  private final HttpClient httpClient;
   private final ServerUrlService serverUrlService;
   private final PublicKey fedmasterSigKey;
+  private final RpCacheConfiguration rpCacheConfiguration;
+  private final Clock clock;
+  private final ScheduledExecutorService refreshExecutor;
+  // absent with a fetchConcurrency of 0, statements are fetched one after another then
+  private final ExecutorService fetchExecutor;
+  private final Counter staleStmtsOfRp;
+  private final Counter staleStmtsAboutRp;
+  private final Counter staleSignedJwks;
+  private final Counter rejectedStmts;
+  private final Counter notModifiedStmts;
+
+  @Autowired
+  public TokenRepositoryRp(
+      final HttpClient httpClient,
+      final ServerUrlService serverUrlService,
+      final PublicKey fedmasterSigKey,
+      final RpCacheConfiguration rpCacheConfiguration,
+      final MeterRegistry meterRegistry) {
+    this(
+        httpClient,
+        serverUrlService,
+        fedmasterSigKey,
+        rpCacheConfiguration,
+        meterRegistry,
+        Clock.systemUTC());
+  }
+
+  TokenRepositoryRp(
+      final HttpClient httpClient,
+      final ServerUrlService serverUrlService,
+      final PublicKey fedmasterSigKey,
+      final RpCacheConfiguration rpCacheConfiguration,
+      final MeterRegistry meterRegistry,
+      final Clock clock) {
+    this.httpClient = httpClient;
+    this.serverUrlService = serverUrlService;
+    this.fedmasterSigKey = fedmasterSigKey;
+    this.rpCacheConfiguration = rpCacheConfiguration;
+    this.clock = clock;
+    this.refreshExecutor =
+        Executors.newScheduledThreadPool(
+            rpCacheConfiguration.getRefreshThreads(),
+            Thread.ofPlatform().name("gsi-rp-refresh-", 0).daemon().factory());
+    this.fetchExecutor =
+        rpCacheConfiguration.getFetchConcurrency() > 0
+            ? Executors.newFixedThreadPool(
+                rpCacheConfiguration.getFetchConcurrency(),
+                Thread.ofVirtual().name("gsi-rp-fetch-", 0).factory())
+            : null;
+    this.staleStmtsOfRp = staleCounter(meterRegistry, "of");
+    this.staleStmtsAboutRp = staleCounter(meterRegistry, "about");
+    this.staleSignedJwks = staleCounter(meterRegistry, "signed_jwks");
+    this.failedStmts =
+        Caffeine.newBuilder()
+            .maximumSize(rpCacheConfiguration.getNegativeCacheSize())
+            .expireAfterWrite(Duration.ofSeconds(rpCacheConfiguration.getNegativeTtlSeconds()))
+            .ticker(() -> TimeUnit.MILLISECONDS.toNanos(clock.millis()))
+            .build();
+    this.rejectedStmts =
+        Counter.builder("gsi.rp.statements.rejected")
+            .description("requests of unknown or broken RPs rejected without fetching")
+            .register(meterRegistry);
+    this.notModifiedStmts =
+        Counter.builder("gsi.rp.statements.not_modified")
+            .description("refetches answered with 304, the stored statement was kept")
+            .register(meterRegistry);
+  }
+
+  private static Counter staleCounter(final MeterRegistry meterRegistry, final String statement) {
+    return Counter.builder("gsi.rp.statements.stale")
+        .description("expired entity statements served because refetching them failed")
+        .tag("statement", statement)
+        .register(meterRegistry);
+  }
 
   public RpToken getEntityStatementRp(final String issuerRp) {
+    return getEntityStatementRp(issuerRp, federationMembers.contains(issuerRp));
+  }
+
+  /** RPs on the federation list of the fedmaster, their requests fetch both statements at once */
+  public void updateFederationMembers(final Collection<String> issuers) {
+    federationMembers = Set.copyOf(issuers);
+  }
+
+  /**
+   * @param listedByFedmaster the RP is on the federation list of the fedmaster, its statement may
+   *     be fetched while the fedmaster is asked about it
+   */
+  public RpToken getEntityStatementRp(final String issuerRp, final boolean listedByFedmaster) {
     log.debug("Entitystatement of RP [{}] requested.", issuerRp);
-    updateStatementRpIfExpiredAndNewIsAvailable(issuerRp);
+    // a refetched statement about the RP updates redirect uris and scopes of the statement of the
+    // RP
+    final CompletableFuture<JsonWebToken> entityStmntAboutRp =
+        entityStatementAboutRpAsync(issuerRp, listedByFedmaster);
+    final RpToken entityStmnt =
+        updateStatementRpIfExpiredAndNewIsAvailable(issuerRp, listedByFedmaster);
+    join(entityStmntAboutRp);
     log.debug(
-        "Entitystatement of RP [{}] stored. JWT: {}",
-        issuerRp,
-        entityStmtsOfRp.get(issuerRp).token().getRawString());
-    return entityStmtsOfRp.get(issuerRp);
+        "Entitystatement of RP [{}] stored. JWT: {}", issuerRp, entityStmnt.token().getRawString());
+    final CachedStatement<RpToken> current = entityStmtsOfRp.get(issuerRp);
+    return current != null && current.statement().token() == entityStmnt.token()
+        ? current.statement()
+        : entityStmnt;
   }
 
   public JsonWebToken getEntityStatementAboutRp(final String sub) {
-    updateStatementAboutRpIfExpiredAndNewIsAvailable(sub);
-    return entityStmtsAboutRp.get(sub);
+    return updateStatementAboutRpIfExpiredAndNewIsAvailable(sub);
   }
 
-  private void updateStatementRpIfExpiredAndNewIsAvailable(final String issuer) {
-    if (entityStmtsOfRp.containsKey(issuer)) {
-      if (entityStmtsOfRp.get(issuer).isExpired()) {
-        log.debug("Entitystatement of RP [{}] is in storage but expired. Fetching...", issuer);
-        fetchAndStoreEntityStmnt(issuer);
-      } else {
-        log.debug("Entitystatement of RP [{}] is in storage and not expired.", issuer);
-      }
+  // starts fetching a statement about the RP that is not stored or expired; the host of an RP
+  // whose membership the fedmaster never confirmed is not contacted before it did
+  private CompletableFuture<JsonWebToken> entityStatementAboutRpAsync(
+      final String sub, final boolean listedByFedmaster) {
+    final CachedStatement<JsonWebToken> stored = entityStmtsAboutRp.get(sub);
+    if (stored != null && !stored.isExpired(clock.instant())) {
+      return CompletableFuture.completedFuture(stored.statement());
+    }
+    if (fetchExecutor == null || (stored == null && !listedByFedmaster)) {
+      return CompletableFuture.completedFuture(getEntityStatementAboutRp(sub));
+    }
+    return CompletableFuture.supplyAsync(() -> getEntityStatementAboutRp(sub), fetchExecutor);
+  }
+
+  private static <T> T join(final CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (final CompletionException e) {
+      throw e.getCause() instanceof final RuntimeException cause ? cause : e;
+    }
+  }
+
+  /** drops everything stored of and about the RP, its next request fetches it again */
+  public void invalidate(final String sub) {
+    entityStmtsAboutRp.remove(sub);
+    final CachedStatement<RpToken> entityStmnt = entityStmtsOfRp.remove(sub);
+    Optional.ofNullable(entityStmnt)
+        .map(cached -> cached.statement().metadata().signedJwksUri())
+        .ifPresent(
+            uri -> {
+              signedJwksByUri.remove(uri);
+              failedStmts.invalidate(signedJwks(uri));
+            });
+    failedStmts.invalidate(ofRp(sub));
+    failedStmts.invalidate(aboutRp(sub));
+    log.info("Entitystatements of and about RP [{}] invalidated.", sub);
+  }
+
+  public void invalidateAll() {
+    entityStmtsAboutRp.clear();
+    entityStmtsOfRp.clear();
+    signedJwksByUri.clear();
+    failedStmts.invalidateAll();
+    log.info("All entitystatements of and about RPs invalidated.");
+  }
+
+  @Override
+  public String cacheName() {
+    return "rp-statements";
+  }
+
+  @Override
+  public long estimatedBytes() {
+    return storedStatements().mapToLong(StoredStatement::bytes).sum();
+  }
+
+  // dropped statements are fetched again with the next request of their RP
+  @Override
+  public void limitTo(final long maxBytes) {
+    long bytes = estimatedBytes();
+    if (bytes <= maxBytes) {
       return;
     }
-    log.debug("Entitystatement of RP [{}] not found in storage. Fetching...", issuer);
-    fetchAndStoreEntityStmnt(issuer);
+    final List<StoredStatement> byExpiry =
+        storedStatements().sorted(Comparator.comparing(StoredStatement::expiresAt)).toList();
+    for (final StoredStatement stored : byExpiry) {
+      if (bytes <= maxBytes) {
+        break;
+      }
+      stored.remove().run();
+      bytes -= stored.bytes();
+    }
+    log.info("Entitystatements limited to {} bytes, {} bytes held.", maxBytes, bytes);
+  }
+
+  private Stream<StoredStatement> storedStatements() {
+    return Stream.of(
+            storedStatements(entityStmtsOfRp, RpToken::token),
+            storedStatements(entityStmtsAboutRp, Function.identity()),
+            storedStatements(signedJwksByUri, Function.identity()))
+        .flatMap(Function.identity());
+  }
+
+  private static <T> Stream<StoredStatement> storedStatements(
+      final Map<String, CachedStatement<T>> stmts, final Function<T, JsonWebToken> token) {
+    return stmts.entrySet().stream()
+        .map(
+            entry ->
+                new StoredStatement(
+                    (long) BYTES_PER_JWT_CHAR
+                        * token.apply(entry.getValue().statement()).getRawString().length(),
+                    entry.getValue().expiresAt(),
+                    () -> stmts.remove(entry.getKey(), entry.getValue())));
+  }
+
+  /**
+   * refetches statements that passed refreshAheadShare of their lifetime in the background,
+   * requests keep getting the cached statement meanwhile
+   */
+  @Scheduled(
+      fixedDelayString = "${gsi.rpCache.refreshCheckIntervalSeconds:30}",
+      timeUnit = TimeUnit.SECONDS)
+  public void refreshAhead() {
+    final Instant now = clock.instant();
+    // statements about RPs first, statements of RPs are verified with their jwks
+    entityStmtsAboutRp.forEach(
+        (sub, cached) -> {
+          if (cached.isRefreshDue(now)) {
+            refreshInBackground(aboutRp(sub), cached, () -> refreshStatementAboutRp(sub));
+          }
+        });
+    entityStmtsOfRp.forEach(
+        (issuer, cached) -> {
+          if (cached.isRefreshDue(now)) {
+            refreshInBackground(ofRp(issuer), cached, () -> refreshStatementRp(issuer));
+          }
+        });
+    signedJwksByUri.forEach(
+        (uri, cached) -> {
+          if (cached.isRefreshDue(now)) {
+            final Optional<JsonWebToken> entityStmntRp = entityStmntPublishingSignedJwks(uri);
+            if (entityStmntRp.isEmpty()) {
+              // no stored statement of an RP refers to it anymore
+              signedJwksByUri.remove(uri, cached);
+              return;
+            }
+            refreshInBackground(
+                signedJwks(uri), cached, () -> refreshSignedJwks(uri, entityStmntRp.get()));
+          }
+        });
+  }
+
+  private Optional<JsonWebToken> entityStmntPublishingSignedJwks(final String uri) {
+    return entityStmtsOfRp.values().stream()
+        .map(CachedStatement::statement)
+        .filter(entityStmnt -> uri.equals(entityStmnt.metadata().signedJwksUri()))
+        .map(RpToken::token)
+        .findAny();
+  }
+
+  private RpToken updateStatementRpIfExpiredAndNewIsAvailable(
+      final String issuer, final boolean listedByFedmaster) {
+    return getOrFetch(
+        ofRp(issuer),
+        entityStmtsOfRp,
+        issuer,
+        staleStmtsOfRp,
+        () ->
+            fetchesOfRp.run(
+                issuer,
+                () -> {
+                  // a fetch that finished meanwhile has stored a valid statement
+                  final CachedStatement<RpToken> current = entityStmtsOfRp.get(issuer);
+                  return current != null && !current.isExpired(clock.instant())
+                      ? current.statement()
+                      : fetchAndStoreEntityStmnt(issuer, listedByFedmaster);
+                }),
+        () -> refreshStatementRp(issuer));
+  }
+
+  private JsonWebToken updateStatementAboutRpIfExpiredAndNewIsAvailable(final String sub) {
+    return getOrFetch(
+        aboutRp(sub),
+        entityStmtsAboutRp,
+        sub,
+        staleStmtsAboutRp,
+        () ->
+            fetchesAboutRp.run(
+                sub,
+                () -> {
+                  final CachedStatement<JsonWebToken> current = entityStmtsAboutRp.get(sub);
+                  return current != null && !current.isExpired(clock.instant())
+                      ? current.statement()
+                      : fetchAndStoreEntityStmntAboutRp(sub);
+                }),
+        () -> refreshStatementAboutRp(sub));
+  }
+
+  private JsonWebToken getSignedJwks(final String uri, final JsonWebToken entityStmntRp) {
+    return getOrFetch(
+        signedJwks(uri),
+        signedJwksByUri,
+        uri,
+        staleSignedJwks,
+        () ->
+            fetchesSignedJwks.run(
+                uri,
+                () -> {
+                  final CachedStatement<JsonWebToken> current = signedJwksByUri.get(uri);
+                  return current != null && !current.isExpired(clock.instant())
+                      ? current.statement()
+                      : fetchAndStoreSignedJwks(uri, entityStmntRp);
+                }),
+        () -> refreshSignedJwks(uri, entityStmntRp));
+  }
+
+  private <T> T getOrFetch(
+      final String statement,
+      final Map<String, CachedStatement<T>> stmts,
+      final String key,
+      final Counter staleStmts,
+      final Supplier<T> fetch,
+      final Runnable refresh) {
+    final CachedStatement<T> stored = stmts.get(key);
+    final Instant now = clock.instant();
+    if (stored != null && !stored.isExpired(now)) {
+      log.debug("Entitystatement {} is in storage and not expired.", statement);
+      return stored.statement();
+    }
+    final boolean servableStale = stored != null && stored.isServableStale(now, staleIfError());
+    if (servableStale && refreshing.contains(statement)) {
+      // refetching failed before and is retried in the background
+      staleStmts.increment();
+      return stored.statement();
+    }
+    final FailedStatement failure = failedStmts.getIfPresent(statement);
+    if (failure != null) {
+      log.debug("Entitystatement {} failed recently: {}", statement, failure.message());
+      rejectedStmts.increment();
+      throw failure.toException();
+    }
+    log.debug(
+        "Entitystatement {} {}. Fetching...",
+        statement,
+        stored == null ? "not found in storage" : "is in storage but expired");
+    try {
+      return evictOnDefinitiveFailure(statement, stmts, key, fetch);
+    } catch (final RuntimeException e) {
+      // only an unreachable RP or fedmaster is answered with a stale statement
+      if (!HttpClient.isTransient(e)) {
+        failedStmts.put(statement, FailedStatement.of(e));
+        throw e;
+      }
+      // an unreachable remote is not remembered, its open circuit breaker fails fast
+      if (!servableStale) {
+        throw e;
+      }
+      log.warn(
+          "Entitystatement {} expired and could not be refetched, serving it until {}: {}",
+          statement,
+          stored.expiresAt().plus(staleIfError()),
+          e.getMessage());
+      staleStmts.increment();
+      retryInBackground(statement, stored, refresh);
+      return stored.statement();
+    }
   }
 
-  private void updateStatementAboutRpIfExpiredAndNewIsAvailable(final String sub) {
-    if (entityStmtsAboutRp.containsKey(sub)) {
-      if (entityStmtsAboutRp.get(sub).isExpired()) {
-        log.debug("Entitystatement about RP [{}] is in storage but expired. Fetching...", sub);
-        fetchAndStoreEntityStmntAboutRp(sub);
-      } else {
-        log.debug("Entitystatement about RP [{}] is in storage and not expired.", sub);
+  // an unknown or removed RP and a statement failing verification are no longer served
+  private <T> T evictOnDefinitiveFailure(
+      final String statement,
+      final Map<String, CachedStatement<T>> stmts,
+      final String key,
+      final Supplier<T> fetch) {
+    try {
+      return fetch.get();
+    } catch (final RuntimeException e) {
+      if (!HttpClient.isTransient(e) && stmts.remove(key) != null) {
+        log.info("Entitystatement {} dropped: {}", statement, e.getMessage());
       }
-      return;
+      throw e;
     }
-    log.debug("Entitystatement about RP [{}] not found in storage. Fetching...", sub);
-    fetchAndStoreEntityStmntAboutRp(sub);
   }
 
-  private void fetchAndStoreEntityStmnt(final String issuer) {
-    final RpToken entityStmnt = HttpClient.fetchEntityStatementRp(issuer);
+  private void refreshStatementRp(final String issuer) {
+    evictOnDefinitiveFailure(
+        ofRp(issuer),
+        entityStmtsOfRp,
+        issuer,
+        () -> fetchesOfRp.run(issuer, () -> fetchAndStoreEntityStmnt(issuer, false)));
+  }
+
+  private void refreshStatementAboutRp(final String sub) {
+    evictOnDefinitiveFailure(
+        aboutRp(sub),
+        entityStmtsAboutRp,
+        sub,
+        () -> fetchesAboutRp.run(sub, () -> fetchAndStoreEntityStmntAboutRp(sub)));
+  }
 
+  private void refreshSignedJwks(final String uri, final JsonWebToken entityStmntRp) {
+    evictOnDefinitiveFailure(
+        signedJwks(uri),
+        signedJwksByUri,
+        uri,
+        () -> fetchesSignedJwks.run(uri, () -> fetchAndStoreSignedJwks(uri, entityStmntRp)));
+  }
+
+  private void refreshInBackground(
+      final String statement, final CachedStatement<?> cached, final Runnable refresh) {
+    if (refreshing.add(statement)) {
+      refreshExecutor.execute(() -> refresh(statement, cached, refresh, 0));
+    }
+  }
+
+  private void retryInBackground(
+      final String statement, final CachedStatement<?> cached, final Runnable refresh) {
+    if (refreshing.add(statement)) {
+      scheduleRetry(statement, cached, refresh, 1);
+    }
+  }
+
+  private void refresh(
+      final String statement,
+      final CachedStatement<?> cached,
+      final Runnable refresh,
+      final int attempt) {
+    try {
+      refresh.run();
+      refreshing.remove(statement);
+      log.debug("Entitystatement {} refreshed.", statement);
+    } catch (final RuntimeException e) {
+      if (!HttpClient.isTransient(e) || !cached.isServableStale(clock.instant(), staleIfError())) {
+        refreshing.remove(statement);
+        log.warn("Refreshing entitystatement {} failed, giving up: {}", statement, e.getMessage());
+        return;
+      }
+      log.warn(
+          "Refreshing entitystatement {} failed (attempt {}): {}",
+          statement,
+          attempt + 1,
+          e.getMessage());
+      scheduleRetry(statement, cached, refresh, attempt + 1);
+    }
+  }
+
+  private void scheduleRetry(
+      final String statement,
+      final CachedStatement<?> cached,
+      final Runnable refresh,
+      final int attempt) {
+    final long backoffMillis =
+        Math.min(
+            TimeUnit.SECONDS.toMillis(rpCacheConfiguration.getRetryMaxBackoffSeconds()),
+            (long) rpCacheConfiguration.getRetryInitialBackoffMillis()
+                << Math.min(attempt - 1, 20));
+    refreshExecutor.schedule(
+        () -> refresh(statement, cached, refresh, attempt), backoffMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private Duration staleIfError() {
+    return Duration.ofSeconds(rpCacheConfiguration.getStaleIfErrorSeconds());
+  }
+
+  private static String ofRp(final String issuer) {
+    return "of RP [" + issuer + "]";
+  }
+
+  private static String aboutRp(final String sub) {
+    return "about RP [" + sub + "]";
+  }
+
+  private static String signedJwks(final String uri) {
+    return "signed_jwks [" + uri + "]";
+  }
+
+  private RpToken fetchAndStoreEntityStmnt(final String issuer, final boolean listedByFedmaster) {
+    final CompletableFuture<JsonWebToken> esAboutRpFetched =
+        entityStatementAboutRpAsync(issuer, listedByFedmaster);
+    final CachedStatement<RpToken> stored = entityStmtsOfRp.get(issuer);
+    final ConditionalResponse<RpToken> response =
+        httpClient.fetchEntityStatementRp(issuer, validatorsOf(stored));
+    if (response.isNotModified()) {
+      join(esAboutRpFetched);
+      return keepNotModified(entityStmtsOfRp, issuer, stored, response.validators(), ofRp(issuer));
+    }
+    final RpToken entityStmnt = response.body().orElseThrow();
+
+    // signed_jwks are fetched after verification, they are trusted by the keys of the statement
+    join(esAboutRpFetched);
     final JsonWebToken esAboutRp = getEntityStatementAboutRp(issuer);
     final JsonWebKeySet jwks = TokenClaimExtraction.extractJwksFromBody(esAboutRp.getRawString());
     entityStmnt.verify(jwks);
+    final RpToken verifiedEntityStmnt =
+        entityStmnt.withMetadata(
+            EntityStatementRpReader.getRpMetadata(
+                esAboutRp,
+                entityStmnt.token(),
+                uri -> Optional.of(getSignedJwks(uri, entityStmnt.token()))));
 
-    entityStmtsOfRp.put(issuer, entityStmnt);
+    entityStmtsOfRp.put(
+        issuer, cache(verifiedEntityStmnt, verifiedEntityStmnt.token(), response.validators()));
+    failedStmts.invalidate(ofRp(issuer));
     log.debug(
-        "Entitystatement of RP [{}] stored. JWT: {}",
-        issuer,
-        entityStmtsOfRp.get(issuer).token().getRawString());
+        "Entitystatement of RP [{}] stored. JWT: {}", issuer, entityStmnt.token().getRawString());
+    return verifiedEntityStmnt;
   }
 
-  private void fetchAndStoreEntityStmntAboutRp(final String sub) {
-    final JsonWebToken entityStmntAboutRp =
-        HttpClient.fetchEntityStatementAboutRp(
+  private JsonWebToken fetchAndStoreEntityStmntAboutRp(final String sub) {
+    final CachedStatement<JsonWebToken> stored = entityStmtsAboutRp.get(sub);
+    final ConditionalResponse<JsonWebToken> response =
+        httpClient.fetchEntityStatementAboutRp(
             sub,
             serverUrlService.determineFedmasterUrl(),
-            serverUrlService.determineFetchEntityStatementEndpoint());
+            serverUrlService.determineFetchEntityStatementEndpoint(),
+            validatorsOf(stored));
+    if (response.isNotModified()) {
+      return keepNotModified(entityStmtsAboutRp, sub, stored, response.validators(), aboutRp(sub));
+    }
+    final JsonWebToken entityStmntAboutRp = response.body().orElseThrow();
 
     try {
       entityStmntAboutRp.verify(fedmasterSigKey);
@@ -118,10 +623,190 @@ public class TokenRepositoryRp {
           "The JWT signature of the entity statement about the relying party was invalid.",
           HttpStatus.BAD_REQUEST);
     }
-    entityStmtsAboutRp.put(sub, entityStmntAboutRp);
-    log.debug(
-        "Entitystatement about RP [{}] stored. JWT: {}",
+    entityStmtsAboutRp.put(
+        sub, cache(entityStmntAboutRp, entityStmntAboutRp, response.validators()));
+    failedStmts.invalidate(aboutRp(sub));
+    // a stored statement of the RP keeps its keys but takes redirect uris and scopes from the new
+    // one
+    entityStmtsOfRp.computeIfPresent(
         sub,
-        entityStmtsAboutRp.get(sub).getRawString());
+        (issuer, cached) ->
+            cached.withStatement(
+                cached
+                    .statement()
+                    .withMetadata(
+                        EntityStatementRpReader.withRegistration(
+                            cached.statement().metadata(), entityStmntAboutRp))));
+    log.debug(
+        "Entitystatement about RP [{}] stored. JWT: {}", sub, entityStmntAboutRp.getRawString());
+    return entityStmntAboutRp;
+  }
+
+  private JsonWebToken fetchAndStoreSignedJwks(final String uri, final JsonWebToken entityStmntRp) {
+    final CachedStatement<JsonWebToken> stored = signedJwksByUri.get(uri);
+    final ConditionalResponse<JsonWebToken> response =
+        httpClient.fetchSignedJwks(uri, validatorsOf(stored));
+    if (response.isNotModified()) {
+      return keepNotModified(signedJwksByUri, uri, stored, response.validators(), signedJwks(uri));
+    }
+    final JsonWebToken signedJwks = response.body().orElseThrow();
+    EntityStatementRpVerifier.verifySignedJwks(signedJwks, entityStmntRp);
+
+    signedJwksByUri.put(uri, cacheSignedJwks(signedJwks, response.validators()));
+    failedStmts.invalidate(signedJwks(uri));
+    // stored statements of RPs publishing their keys at this uri take the new ones
+    entityStmtsOfRp.replaceAll(
+        (issuer, cached) ->
+            uri.equals(cached.statement().metadata().signedJwksUri())
+                ? cached.withStatement(
+                    cached
+                        .statement()
+                        .withMetadata(
+                            EntityStatementRpReader.withKeys(
+                                cached.statement().metadata(),
+                                cached.statement().token(),
+                                signedJwksUri -> Optional.of(signedJwks))))
+                : cached);
+    log.debug("signed_jwks at [{}] stored. JWT: {}", uri, signedJwks.getRawString());
+    return signedJwks;
+  }
+
+  private static HttpValidators validatorsOf(final CachedStatement<?> stored) {
+    return stored == null ? HttpValidators.NONE : stored.validators();
+  }
+
+  // a 304 keeps the stored statement, it was verified when it was fetched
+  private <T> T keepNotModified(
+      final Map<String, CachedStatement<T>> stmts,
+      final String key,
+      final CachedStatement<T> stored,
+      final HttpValidators validators,
+      final String statement) {
+    final Instant now = clock.instant();
+    if (stored.isExpired(now)) {
+      // an expired statement cannot be renewed by revalidating it
+      throw new GsiException(
+          INVALID_REQUEST,
+          "Entitystatement " + statement + " expired and was not renewed.",
+          HttpStatus.BAD_REQUEST);
+    }
+    final Duration revalidateAfter =
+        Duration.ofSeconds(rpCacheConfiguration.getRevalidateIntervalSeconds());
+    final Instant refreshAt =
+        now.plus(
+            validators.maxAge() != null && validators.maxAge().compareTo(revalidateAfter) > 0
+                ? validators.maxAge()
+                : revalidateAfter);
+    // a statement stored meanwhile is newer than the one revalidated
+    final CachedStatement<T> current =
+        stmts.computeIfPresent(
+            key,
+            (k, cached) ->
+                cached.validators() == stored.validators()
+                    ? cached.revalidated(validators, min(refreshAt, cached.expiresAt()))
+                    : cached);
+    failedStmts.invalidate(statement);
+    notModifiedStmts.increment();
+    log.debug("Entitystatement {} not modified.", statement);
+    return current != null ? current.statement() : stored.statement();
+  }
+
+  private static Instant min(final Instant a, final Instant b) {
+    return a.isBefore(b) ? a : b;
+  }
+
+  private <T> CachedStatement<T> cache(
+      final T statement, final JsonWebToken token, final HttpValidators validators) {
+    final Instant issuedAt =
+        token
+            .getBodyClaim(ISSUED_AT)
+            .map(iat -> Instant.ofEpochSecond(((Number) iat).longValue()))
+            .orElseGet(clock::instant);
+    return cache(statement, issuedAt, token.getExpiresAt().toInstant(), validators);
+  }
+
+  // signed_jwks need no exp, their lifetime starts when they are fetched
+  private CachedStatement<JsonWebToken> cacheSignedJwks(
+      final JsonWebToken signedJwks, final HttpValidators validators) {
+    final Instant fetchedAt = clock.instant();
+    final Instant maxExpiresAt =
+        fetchedAt.plusSeconds(rpCacheConfiguration.getSignedJwksTtlSeconds());
+    final Instant expiresAt =
+        signedJwks
+            .getBodyClaim(EXPIRES_AT)
+            .map(exp -> Instant.ofEpochSecond(((Number) exp).longValue()))
+            .filter(maxExpiresAt::isAfter)
+            .orElse(maxExpiresAt);
+    return cache(signedJwks, fetchedAt, expiresAt, validators);
+  }
+
+  // not refetched before the max-age of the response passed
+  private <T> CachedStatement<T> cache(
+      final T statement,
+      final Instant issuedAt,
+      final Instant expiresAt,
+      final HttpValidators validators) {
+    final long lifetimeMillis = Duration.between(issuedAt, expiresAt).toMillis();
+    final Instant refreshAhead =
+        issuedAt.plusMillis((long) (lifetimeMillis * rpCacheConfiguration.getRefreshAheadShare()));
+    final Instant fresh =
+        validators.maxAge() == null ? refreshAhead : clock.instant().plus(validators.maxAge());
+    return new CachedStatement<>(
+        statement,
+        expiresAt,
+        min(expiresAt, fresh.isAfter(refreshAhead) ? fresh : refreshAhead),
+        validators);
+  }
+
+  @PreDestroy
+  void shutdown() {
+    refreshExecutor.shutdownNow();
+    if (fetchExecutor != null) {
+      fetchExecutor.shutdownNow();
+    }
+  }
+
+  private record CachedStatement<T>(
+      T statement, Instant expiresAt, Instant refreshAt, HttpValidators validators) {
+
+    boolean isExpired(final Instant now) {
+      return !now.isBefore(expiresAt);
+    }
+
+    boolean isRefreshDue(final Instant now) {
+      return !now.isBefore(refreshAt);
+    }
+
+    boolean isServableStale(final Instant now, final Duration staleIfError) {
+      return now.isBefore(expiresAt.plus(staleIfError));
+    }
+
+    CachedStatement<T> withStatement(final T newStatement) {
+      return new CachedStatement<>(newStatement, expiresAt, refreshAt, validators);
+    }
+
+    CachedStatement<T> revalidated(final HttpValidators newValidators, final Instant newRefreshAt) {
+      return new CachedStatement<>(statement, expiresAt, newRefreshAt, newValidators);
+    }
+  }
+
+  private record StoredStatement(long bytes, Instant expiresAt, Runnable remove) {}
+
+  // every rejected request gets an exception of its own
+  private record FailedStatement(
+      Oauth2ErrorCode oauth2ErrorCode, HttpStatus status, String message) {
+
+    static FailedStatement of(final RuntimeException e) {
+      return e instanceof final GsiException gsiException
+          ? new FailedStatement(
+              gsiException.getOauth2ErrorCode(),
+              HttpStatus.valueOf(gsiException.getStatusCode().value()),
+              gsiException.getReason())
+          : new FailedStatement(INVALID_REQUEST, HttpStatus.INTERNAL_SERVER_ERROR, e.getMessage());
+    }
+
+    GsiException toException() {
+      return new GsiException(oauth2ErrorCode, message, status);
+    }
   }
 }
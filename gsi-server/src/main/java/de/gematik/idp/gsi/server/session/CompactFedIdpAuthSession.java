@@ -0,0 +1,302 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+
+/**
+ * FedIdpAuthSession packed into a single byte array. Client ids, redirect uris, claim names and
+ * acr/amr values are replaced by SessionDictionary ids, claim sets by bitmasks and hex/base64url
+ * nonces by their raw bytes.
+ */
+final class CompactFedIdpAuthSession {
+
+  private static final int NULL_TERM = 0;
+  private static final int LITERAL_TERM = 1;
+  private static final int FIRST_TERM_ID = 2;
+
+  private static final byte NULL_STRING = 0;
+  private static final byte UTF8_STRING = 1;
+  private static final byte HEX_STRING = 2;
+  private static final byte BASE64URL_STRING = 3;
+
+  private static final HexFormat HEX = HexFormat.of();
+
+  @Getter private final long authorizationCode;
+  @Getter private final long expiresAt;
+  private final byte[] packed;
+
+  private CompactFedIdpAuthSession(
+      final long authorizationCode, final long expiresAt, final byte[] packed) {
+    this.authorizationCode = authorizationCode;
+    this.expiresAt = expiresAt;
+    this.packed = packed;
+  }
+
+  /** authorization codes of stored sessions are 16 hex digits, packed into a long */
+  static boolean isPackableCode(final String code) {
+    return code.length() == 16 && code.chars().allMatch(HexFormat::isHexDigit);
+  }
+
+  static long packCode(final String code) {
+    return HexFormat.fromHexDigitsToLong(code);
+  }
+
+  static String unpackCode(final long code) {
+    return HEX.toHexDigits(code);
+  }
+
+  static CompactFedIdpAuthSession pack(
+      final FedIdpAuthSession session, final SessionDictionary dictionary) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+    try (final DataOutputStream out = new DataOutputStream(bytes)) {
+      writeTerm(out, session.getFachdienstClientId(), dictionary);
+      writeString(out, session.getFachdienstState());
+      writeString(out, session.getFachdienstCodeChallenge());
+      writeTerm(out, session.getFachdienstCodeChallengeMethod(), dictionary);
+      writeString(out, session.getFachdienstNonce());
+      writeTermSet(out, session.getRequestedOptionalClaims(), dictionary);
+      writeTermSet(out, session.getRequestedEssentialClaims(), dictionary);
+      writeTermSet(out, session.getEssentialRequestedAcr(), dictionary);
+      writeTermSet(out, session.getEssentialRequestedAmr(), dictionary);
+      writeTerm(out, session.getFachdienstRedirectUri(), dictionary);
+      writeTerm(out, session.getIdTokenVersion(), dictionary);
+      writeVarLong(out, session.getUserData().size());
+      for (final Map.Entry<String, Object> entry : session.getUserData().entrySet()) {
+        writeTerm(out, entry.getKey(), dictionary);
+        FedIdpAuthSessionCodec.writeValue(out, entry.getValue());
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return new CompactFedIdpAuthSession(
+        packCode(session.getAuthorizationCode()), session.getExpiresAt(), bytes.toByteArray());
+  }
+
+  FedIdpAuthSession unpack(final SessionDictionary dictionary) {
+    try (final DataInputStream in = new DataInputStream(new ByteArrayInputStream(packed))) {
+      final FedIdpAuthSession session =
+          FedIdpAuthSession.builder()
+              .fachdienstClientId(readTerm(in, dictionary))
+              .fachdienstState(readString(in))
+              .fachdienstCodeChallenge(readString(in))
+              .fachdienstCodeChallengeMethod(readTerm(in, dictionary))
+              .fachdienstNonce(readString(in))
+              .requestedOptionalClaims(readTermSet(in, dictionary))
+              .requestedEssentialClaims(readTermSet(in, dictionary))
+              .essentialRequestedAcr(readTermSet(in, dictionary))
+              .essentialRequestedAmr(readTermSet(in, dictionary))
+              .fachdienstRedirectUri(readTerm(in, dictionary))
+              .idTokenVersion(readTerm(in, dictionary))
+              .authorizationCode(unpackCode(authorizationCode))
+              .expiresAt(expiresAt)
+              .build();
+      final long userDataSize = readVarLong(in);
+      for (long i = 0; i < userDataSize; i++) {
+        session.getUserData().put(readTerm(in, dictionary), FedIdpAuthSessionCodec.readValue(in));
+      }
+      return session;
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  int packedSize() {
+    return packed.length;
+  }
+
+  private static void writeTerm(
+      final DataOutputStream out, final String term, final SessionDictionary dictionary)
+      throws IOException {
+    if (term == null) {
+      writeVarLong(out, NULL_TERM);
+      return;
+    }
+    final int id = dictionary.id(term);
+    if (id < 0) {
+      writeVarLong(out, LITERAL_TERM);
+      writeUtf8(out, term);
+    } else {
+      writeVarLong(out, FIRST_TERM_ID + (long) id);
+    }
+  }
+
+  private static String readTerm(final DataInputStream in, final SessionDictionary dictionary)
+      throws IOException {
+    final long tag = readVarLong(in);
+    if (tag == NULL_TERM) {
+      return null;
+    }
+    if (tag == LITERAL_TERM) {
+      return readUtf8(in);
+    }
+    return dictionary.term((int) (tag - FIRST_TERM_ID));
+  }
+
+  // null: 0, otherwise 1 + bitmask of the ids below 64, followed by all other terms
+  private static void writeTermSet(
+      final DataOutputStream out, final Set<String> terms, final SessionDictionary dictionary)
+      throws IOException {
+    if (terms == null) {
+      writeVarLong(out, 0);
+      return;
+    }
+    writeVarLong(out, 1);
+    long bitmask = 0;
+    final ByteArrayOutputStream others = new ByteArrayOutputStream();
+    int otherCount = 0;
+    try (final DataOutputStream othersOut = new DataOutputStream(others)) {
+      for (final String term : terms) {
+        final int id = dictionary.id(term);
+        if (id >= 0 && id < Long.SIZE) {
+          bitmask |= 1L << id;
+        } else {
+          writeTerm(othersOut, term, dictionary);
+          otherCount++;
+        }
+      }
+    }
+    writeVarLong(out, bitmask);
+    writeVarLong(out, otherCount);
+    others.writeTo(out);
+  }
+
+  private static Set<String> readTermSet(
+      final DataInputStream in, final SessionDictionary dictionary) throws IOException {
+    if (readVarLong(in) == 0) {
+      return null;
+    }
+    final Set<String> terms = new HashSet<>();
+    long bitmask = readVarLong(in);
+    while (bitmask != 0) {
+      final int id = Long.numberOfTrailingZeros(bitmask);
+      terms.add(dictionary.term(id));
+      bitmask &= bitmask - 1;
+    }
+    final long otherCount = readVarLong(in);
+    for (long i = 0; i < otherCount; i++) {
+      terms.add(readTerm(in, dictionary));
+    }
+    return terms;
+  }
+
+  private static void writeString(final DataOutputStream out, final String value)
+      throws IOException {
+    if (value == null) {
+      out.writeByte(NULL_STRING);
+    } else if (isLowerHex(value)) {
+      out.writeByte(HEX_STRING);
+      writeBytes(out, HEX.parseHex(value));
+    } else {
+      final byte[] base64UrlBytes = base64UrlBytes(value);
+      if (base64UrlBytes != null) {
+        out.writeByte(BASE64URL_STRING);
+        writeBytes(out, base64UrlBytes);
+      } else {
+        out.writeByte(UTF8_STRING);
+        writeUtf8(out, value);
+      }
+    }
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final byte type = in.readByte();
+    return switch (type) {
+      case NULL_STRING -> null;
+      case HEX_STRING -> HEX.formatHex(readBytes(in));
+      case BASE64URL_STRING ->
+          Base64.getUrlEncoder().withoutPadding().encodeToString(readBytes(in));
+      case UTF8_STRING -> readUtf8(in);
+      default -> throw new IOException("unknown string type " + type);
+    };
+  }
+
+  private static boolean isLowerHex(final String value) {
+    return !value.isEmpty()
+        && value.length() % 2 == 0
+        && value.chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+  }
+
+  // raw bytes if the value is unpadded base64url that encodes back to exactly the same string
+  private static byte[] base64UrlBytes(final String value) {
+    try {
+      final byte[] decoded = Base64.getUrlDecoder().decode(value);
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(decoded).equals(value)
+          ? decoded
+          : null;
+    } catch (final IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private static void writeUtf8(final DataOutputStream out, final String value) throws IOException {
+    writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String readUtf8(final DataInputStream in) throws IOException {
+    return new String(readBytes(in), StandardCharsets.UTF_8);
+  }
+
+  private static void writeBytes(final DataOutputStream out, final byte[] bytes)
+      throws IOException {
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  private static byte[] readBytes(final DataInputStream in) throws IOException {
+    return in.readNBytes((int) readVarLong(in));
+  }
+
+  private static void writeVarLong(final DataOutputStream out, final long value)
+      throws IOException {
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0) {
+      out.writeByte((int) ((remaining & 0x7F) | 0x80));
+      remaining >>>= 7;
+    }
+    out.writeByte((int) remaining);
+  }
+
+  private static long readVarLong(final DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < Long.SIZE; shift += 7) {
+      final byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("malformed varint");
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Binary form of a FedIdpAuthSession, user data values keep their java type. Sessions leaving the
+ * memory of the node are sealed with AES-GCM: [version][iv][ciphertext and tag].
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class FedIdpAuthSessionCodec {
+
+  private static final byte FORMAT_VERSION = 1;
+
+  private static final byte TYPE_NULL = 0;
+  private static final byte TYPE_STRING = 1;
+  private static final byte TYPE_STRING_ARRAY = 2;
+  private static final byte TYPE_LIST = 3;
+  private static final byte TYPE_BOOLEAN = 4;
+  private static final byte TYPE_INTEGER = 5;
+  private static final byte TYPE_LONG = 6;
+  private static final byte TYPE_DOUBLE = 7;
+
+  private static final byte SEALED_VERSION = 1;
+  private static final int IV_LENGTH = 12;
+  private static final int TAG_LENGTH_BITS = 128;
+  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+  /** encrypts with a random iv, purpose is authenticated and has to be given to open it again */
+  static byte[] seal(final SecretKey key, final byte[] plaintext, final byte[] purpose)
+      throws GeneralSecurityException {
+    final byte[] iv = new byte[IV_LENGTH];
+    SECURE_RANDOM.nextBytes(iv);
+    final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+    cipher.updateAAD(purpose);
+    final ByteBuffer sealed =
+        ByteBuffer.allocate(1 + IV_LENGTH + cipher.getOutputSize(plaintext.length));
+    sealed.put(SEALED_VERSION).put(iv);
+    cipher.doFinal(ByteBuffer.wrap(plaintext), sealed);
+    return sealed.array();
+  }
+
+  static byte[] open(final SecretKey key, final byte[] sealed, final byte[] purpose)
+      throws GeneralSecurityException {
+    if (sealed.length <= 1 + IV_LENGTH || sealed[0] != SEALED_VERSION) {
+      throw new GeneralSecurityException("unsupported sealed FedIdpAuthSession");
+    }
+    final Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+    cipher.init(
+        Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, sealed, 1, IV_LENGTH));
+    cipher.updateAAD(purpose);
+    return cipher.doFinal(sealed, 1 + IV_LENGTH, sealed.length - 1 - IV_LENGTH);
+  }
+
+  static byte[] encode(final FedIdpAuthSession session) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+    try (final DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(FORMAT_VERSION);
+      writeString(out, session.getFachdienstClientId());
+      writeString(out, session.getFachdienstState());
+      writeString(out, session.getFachdienstCodeChallenge());
+      writeString(out, session.getFachdienstCodeChallengeMethod());
+      writeString(out, session.getFachdienstNonce());
+      writeStringSet(out, session.getRequestedOptionalClaims());
+      writeStringSet(out, session.getRequestedEssentialClaims());
+      writeStringSet(out, session.getEssentialRequestedAcr());
+      writeStringSet(out, session.getEssentialRequestedAmr());
+      writeString(out, session.getFachdienstRedirectUri());
+      writeString(out, session.getAuthorizationCode());
+      writeString(out, session.getIdTokenVersion());
+      out.writeLong(session.getExpiresAt());
+      out.writeInt(session.getUserData().size());
+      for (final Map.Entry<String, Object> entry : session.getUserData().entrySet()) {
+        writeString(out, entry.getKey());
+        writeValue(out, entry.getValue());
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  static FedIdpAuthSession decode(final byte[] encoded) throws IOException {
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+    if (in.readByte() != FORMAT_VERSION) {
+      throw new IOException("unsupported FedIdpAuthSession format");
+    }
+    final FedIdpAuthSession session =
+        FedIdpAuthSession.builder()
+            .fachdienstClientId(readString(in))
+            .fachdienstState(readString(in))
+            .fachdienstCodeChallenge(readString(in))
+            .fachdienstCodeChallengeMethod(readString(in))
+            .fachdienstNonce(readString(in))
+            .requestedOptionalClaims(readStringSet(in))
+            .requestedEssentialClaims(readStringSet(in))
+            .essentialRequestedAcr(readStringSet(in))
+            .essentialRequestedAmr(readStringSet(in))
+            .fachdienstRedirectUri(readString(in))
+            .authorizationCode(readString(in))
+            .idTokenVersion(readString(in))
+            .expiresAt(in.readLong())
+            .build();
+    final int userDataSize = in.readInt();
+    for (int i = 0; i < userDataSize; i++) {
+      session.getUserData().put(readString(in), readValue(in));
+    }
+    return session;
+  }
+
+  private static void writeString(final DataOutputStream out, final String value)
+      throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    final byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(utf8.length);
+    out.write(utf8);
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.available()) {
+      throw new IOException("truncated FedIdpAuthSession");
+    }
+    return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+  }
+
+  private static void writeStringSet(final DataOutputStream out, final Set<String> values)
+      throws IOException {
+    if (values == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(values.size());
+    for (final String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  private static Set<String> readStringSet(final DataInputStream in) throws IOException {
+    final int size = in.readInt();
+    if (size < 0) {
+      return null;
+    }
+    if (size > in.available()) {
+      throw new IOException("truncated FedIdpAuthSession");
+    }
+    final Set<String> values = new HashSet<>();
+    for (int i = 0; i < size; i++) {
+      values.add(readString(in));
+    }
+    return values;
+  }
+
+  static void writeValue(final DataOutputStream out, final Object value) throws IOException {
+    switch (value) {
+      case null -> out.writeByte(TYPE_NULL);
+      case final String string -> {
+        out.writeByte(TYPE_STRING);
+        writeString(out, string);
+      }
+      case final String[] strings -> {
+        out.writeByte(TYPE_STRING_ARRAY);
+        out.writeInt(strings.length);
+        for (final String string : strings) {
+          writeString(out, string);
+        }
+      }
+      case final List<?> list -> {
+        out.writeByte(TYPE_LIST);
+        out.writeInt(list.size());
+        for (final Object element : list) {
+          writeValue(out, element);
+        }
+      }
+      case final Boolean bool -> {
+        out.writeByte(TYPE_BOOLEAN);
+        out.writeBoolean(bool);
+      }
+      case final Integer integer -> {
+        out.writeByte(TYPE_INTEGER);
+        out.writeInt(integer);
+      }
+      case final Long number -> {
+        out.writeByte(TYPE_LONG);
+        out.writeLong(number);
+      }
+      case final Double number -> {
+        out.writeByte(TYPE_DOUBLE);
+        out.writeDouble(number);
+      }
+      default ->
+          throw new IllegalArgumentException(
+              "unsupported user data type " + value.getClass().getName());
+    }
+  }
+
+  static Object readValue(final DataInputStream in) throws IOException {
+    final byte type = in.readByte();
+    return switch (type) {
+      case TYPE_NULL -> null;
+      case TYPE_STRING -> readString(in);
+      case TYPE_STRING_ARRAY -> {
+        final String[] strings = new String[checkedSize(in)];
+        for (int i = 0; i < strings.length; i++) {
+          strings[i] = readString(in);
+        }
+        yield strings;
+      }
+      case TYPE_LIST -> {
+        final int size = checkedSize(in);
+        final List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(in));
+        }
+        yield list;
+      }
+      case TYPE_BOOLEAN -> in.readBoolean();
+      case TYPE_INTEGER -> in.readInt();
+      case TYPE_LONG -> in.readLong();
+      case TYPE_DOUBLE -> in.readDouble();
+      default -> throw new IOException("unknown user data type " + type);
+    };
+  }
+
+  private static int checkedSize(final DataInputStream in) throws IOException {
+    final int size = in.readInt();
+    if (size < 0 || size > in.available()) {
+      throw new IOException("truncated FedIdpAuthSession");
+    }
+    return size;
+  }
+}
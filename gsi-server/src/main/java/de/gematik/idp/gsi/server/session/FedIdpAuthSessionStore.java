@@ -0,0 +1,47 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import java.util.Optional;
+
+/** Pending FedIdpAuthSessions, addressed by request_uri and authorization code */
+public interface FedIdpAuthSessionStore {
+
+  /** stores the session of a pushed authorization request and returns its request_uri */
+  String add(FedIdpAuthSession session);
+
+  Optional<FedIdpAuthSession> getByRequestUri(String requestUri);
+
+  /** returns the authorization code of a session the user has consented to */
+  String issueAuthorizationCode(String requestUri, FedIdpAuthSession session);
+
+  Optional<FedIdpAuthSession> getByAuthorizationCode(String authorizationCode);
+
+  /**
+   * atomically claims the single use authorization code, of concurrent redemptions only one gets
+   * the session
+   */
+  Optional<FedIdpAuthSession> redeemAuthorizationCode(String authorizationCode);
+
+  /** amount of sessions held by this node */
+  long size();
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static de.gematik.idp.gsi.server.controller.FedIdpController.URI_NONCE_LENGTH;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import de.gematik.idp.crypto.Nonce;
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import de.gematik.idp.gsi.server.memory.BudgetedCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import javax.crypto.SecretKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Bounded, concurrent FedIdpAuthSessionStore. Every client_id gets its own partition, a Caffeine
+ * cache (W-TinyLFU eviction) bounded by maxSessionsPerClient. Clients share the capacity: a client
+ * may use what others leave free, and a full store evicts from the client holding the most
+ * sessions, so a client flooding PAR requests only evicts its own sessions. Expired sessions are
+ * removed by Caffeine's timer wheel, driven by the system scheduler, instead of waiting to be
+ * touched again. A partition left empty is dropped together with its client_id tagged meters.
+ * Sessions are held as CompactFedIdpAuthSession, a few hundred bytes each. With a journalDirectory
+ * configured, changes are written to a SessionJournal and replayed on startup. With a nodeId
+ * configured, request_uris and codes name this node as owner of the session. Under memory pressure
+ * the MemoryBudget lowers the capacity below the configured one.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(
+    prefix = "gsi.session-store",
+    name = "mode",
+    havingValue = "in-memory",
+    matchIfMissing = true)
+public class InMemoryFedIdpAuthSessionStore implements FedIdpAuthSessionStore, BudgetedCache {
+
+  // object headers, Caffeine node, boxed key and the index entry by authorization code
+  private static final int SESSION_OVERHEAD_BYTES = 200;
+
+  private final SessionStoreConfiguration sessionStoreConfiguration;
+  private final MeterRegistry meterRegistry;
+  private final long retentionMillis;
+  private final String nodeId;
+  private final SessionDictionary dictionary;
+  private final Map<String, ClientPartition> partitionsByClientId = new ConcurrentHashMap<>();
+  // partitions by their size when last ranked, the oldest first among equal sizes; a put ranks its
+  // partition, removals are ranked once the partition comes up as the largest
+  private final NavigableSet<ClientPartition> partitionsBySize =
+      new ConcurrentSkipListSet<>(
+          Comparator.comparingLong((ClientPartition partition) -> partition.rankedSize)
+              .thenComparingLong(partition -> -partition.creation));
+  private final AtomicLong createdPartitions = new AtomicLong();
+  // request_uri and authorization code nonces are 16 hex digits, keys are their long value
+  final Map<Long, SessionKey> sessionKeysByAuthCode = new ConcurrentHashMap<>();
+  private final SessionJournal journal;
+  // running totals over all partitions, kept on every put, replace and removal
+  private final AtomicLong storedSessions = new AtomicLong();
+  private final AtomicLong storedBytes = new AtomicLong();
+  // capacity granted by the MemoryBudget
+  private volatile long budgetedCapacity = Long.MAX_VALUE;
+
+  InMemoryFedIdpAuthSessionStore(
+      final SessionStoreConfiguration sessionStoreConfiguration,
+      final MeterRegistry meterRegistry) {
+    this(sessionStoreConfiguration, meterRegistry, Optional.empty());
+  }
+
+  @Autowired
+  public InMemoryFedIdpAuthSessionStore(
+      final SessionStoreConfiguration sessionStoreConfiguration,
+      final MeterRegistry meterRegistry,
+      @Qualifier("sessionJournalKey") final Optional<SecretKey> sessionJournalKey) {
+    log.info(
+        "FedIdpAuthSessionStore capacity: {} sessions, at most {} per client",
+        sessionStoreConfiguration.getCapacity(),
+        sessionStoreConfiguration.getMaxSessionsPerClient());
+    this.sessionStoreConfiguration = sessionStoreConfiguration;
+    this.meterRegistry = meterRegistry;
+    this.retentionMillis =
+        Duration.ofSeconds(sessionStoreConfiguration.getExpiredRetentionSeconds()).toMillis();
+    this.nodeId = SessionOwner.checkedNodeId(sessionStoreConfiguration.getNodeId());
+    this.dictionary = new SessionDictionary(sessionStoreConfiguration.getDictionarySize());
+    this.journal = openJournal(sessionJournalKey);
+  }
+
+  private SessionJournal openJournal(final Optional<SecretKey> sessionJournalKey) {
+    if (sessionStoreConfiguration.getJournalDirectory().isBlank()) {
+      return null;
+    }
+    final SessionJournal sessionJournal =
+        new SessionJournal(
+            Path.of(sessionStoreConfiguration.getJournalDirectory()),
+            sessionStoreConfiguration.getJournalSegmentBytes(),
+            Duration.ofSeconds(sessionStoreConfiguration.getJournalCompactionIntervalSeconds()),
+            this::liveEntries,
+            sessionJournalKey.orElseThrow(
+                () -> new IllegalStateException("A session journal needs a sessionJournalKey")));
+    final long now = System.currentTimeMillis();
+    int restored = 0;
+    for (final SessionJournal.Entry entry : sessionJournal.replay()) {
+      // sessions past their retention would only be evicted right away
+      if (entry.session().getExpiresAt() + retentionMillis > now) {
+        restore(entry.requestId(), entry.session());
+        restored++;
+      }
+    }
+    log.info("FedIdpAuthSessionStore: {} sessions restored from journal", restored);
+    sessionJournal.start();
+    return sessionJournal;
+  }
+
+  private void restore(final long requestId, final FedIdpAuthSession session) {
+    final CompactFedIdpAuthSession compactSession =
+        CompactFedIdpAuthSession.pack(session, dictionary);
+    put(session.getFachdienstClientId(), requestId, compactSession);
+  }
+
+  private Stream<SessionJournal.Entry> liveEntries() {
+    return partitionsByClientId.values().stream()
+        .flatMap(partition -> partition.sessions.asMap().entrySet().stream())
+        .map(
+            entry -> new SessionJournal.Entry(entry.getKey(), entry.getValue().unpack(dictionary)));
+  }
+
+  @PreDestroy
+  void close() {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+
+  @Override
+  public String add(final FedIdpAuthSession session) {
+    // from specification: "URI zur späteren Identifikation des Requestes":
+    // https://tools.ietf.org/id/draft-ietf-oauth-par-04.html#section-2.2
+    final String requestNonce = Nonce.getNonceAsHex(URI_NONCE_LENGTH);
+    final long requestId = CompactFedIdpAuthSession.packCode(requestNonce);
+    final CompactFedIdpAuthSession compactSession =
+        CompactFedIdpAuthSession.pack(session, dictionary);
+    put(session.getFachdienstClientId(), requestId, compactSession);
+    if (journal != null) {
+      journal.put(requestId, session);
+    }
+    return "urn:" + session.getFachdienstClientId() + ":" + SessionOwner.tag(requestNonce, nodeId);
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> getByRequestUri(final String requestUri) {
+    final int nonceStart = requestUri.lastIndexOf(':') + 1;
+    if (!requestUri.startsWith("urn:") || nonceStart < "urn::".length()) {
+      return Optional.empty();
+    }
+    final Optional<Long> requestId = toRequestId(requestUri.substring(nonceStart));
+    return Optional.ofNullable(
+            partitionsByClientId.get(requestUri.substring("urn:".length(), nonceStart - 1)))
+        .flatMap(partition -> requestId.flatMap(id -> get(partition, id)));
+  }
+
+  @Override
+  public String issueAuthorizationCode(final String requestUri, final FedIdpAuthSession session) {
+    // write back the user data bound to the session
+    final String authorizationCode = SessionOwner.tag(session.getAuthorizationCode(), nodeId);
+    final SessionKey sessionKey =
+        sessionKeysByAuthCode.get(
+            CompactFedIdpAuthSession.packCode(session.getAuthorizationCode()));
+    if (sessionKey == null) {
+      return authorizationCode;
+    }
+    final CompactFedIdpAuthSession issued = CompactFedIdpAuthSession.pack(session, dictionary);
+    final CompactFedIdpAuthSession replaced =
+        sessionKey.partition().sessions.asMap().replace(sessionKey.requestId(), issued);
+    if (replaced != null) {
+      storedBytes.addAndGet(bytes(issued) - bytes(replaced));
+      if (journal != null) {
+        journal.put(sessionKey.requestId(), session);
+      }
+    }
+    return authorizationCode;
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> getByAuthorizationCode(final String authorizationCode) {
+    return toRequestId(authorizationCode)
+        .map(sessionKeysByAuthCode::get)
+        .flatMap(sessionKey -> get(sessionKey.partition(), sessionKey.requestId()));
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> redeemAuthorizationCode(final String authorizationCode) {
+    // removing the index entry is the claim, a lost race costs one failed remove
+    return toRequestId(authorizationCode)
+        .map(sessionKeysByAuthCode::remove)
+        .map(this::removeSession)
+        .map(session -> session.unpack(dictionary));
+  }
+
+  private CompactFedIdpAuthSession removeSession(final SessionKey sessionKey) {
+    final CompactFedIdpAuthSession session =
+        sessionKey.partition().sessions.asMap().remove(sessionKey.requestId());
+    if (session != null) {
+      removed(session);
+      if (journal != null) {
+        journal.remove(sessionKey.requestId());
+      }
+      sessionKey.partition().retireIfEmpty();
+    }
+    return session;
+  }
+
+  private void put(
+      final String clientId, final long requestId, final CompactFedIdpAuthSession session) {
+    ClientPartition partition = partition(clientId);
+    // a partition retired meanwhile takes no sessions, the next lookup creates a new one
+    while (!partition.put(requestId, session)) {
+      partition = partition(clientId);
+    }
+    storedSessions.incrementAndGet();
+    storedBytes.addAndGet(bytes(session));
+    partition.rank();
+    evictAboveCapacity();
+  }
+
+  private void removed(final CompactFedIdpAuthSession session) {
+    storedSessions.decrementAndGet();
+    storedBytes.addAndGet(-bytes(session));
+  }
+
+  private static long bytes(final CompactFedIdpAuthSession session) {
+    return SESSION_OVERHEAD_BYTES + session.packedSize();
+  }
+
+  // a full store takes sessions back from the client holding the most, found without a scan
+  private void evictAboveCapacity() {
+    while (storedSessions.get() > capacity()) {
+      final Iterator<ClientPartition> largestFirst = partitionsBySize.descendingIterator();
+      if (!largestFirst.hasNext()) {
+        return;
+      }
+      final ClientPartition largest = largestFirst.next();
+      if (largest.sessions.estimatedSize() < largest.rankedSize) {
+        // shrunk since it was ranked, its place is taken again
+        largest.rank();
+        continue;
+      }
+      if (!largest.evictColdest()) {
+        return;
+      }
+      largest.rank();
+      largest.retireIfEmpty();
+    }
+  }
+
+  private long capacity() {
+    return Math.min(sessionStoreConfiguration.getCapacity(), budgetedCapacity);
+  }
+
+  @Override
+  public long size() {
+    return storedSessions.get();
+  }
+
+  @Override
+  public String cacheName() {
+    return "sessions";
+  }
+
+  @Override
+  public long estimatedBytes() {
+    return storedBytes.get();
+  }
+
+  @Override
+  public void limitTo(final long maxBytes) {
+    final long sessions = size();
+    final long newCapacity =
+        maxBytes == Long.MAX_VALUE || sessions == 0
+            ? Long.MAX_VALUE
+            : maxBytes / Math.max(1, estimatedBytes() / sessions);
+    if (newCapacity != budgetedCapacity) {
+      budgetedCapacity = newCapacity;
+      resizePartitions();
+      evictAboveCapacity();
+    }
+  }
+
+  private Optional<FedIdpAuthSession> get(final ClientPartition partition, final long requestId) {
+    return Optional.ofNullable(partition.sessions.getIfPresent(requestId))
+        .map(session -> session.unpack(dictionary));
+  }
+
+  private Optional<Long> toRequestId(final String key) {
+    return SessionOwner.ownKey(key, nodeId)
+        .filter(CompactFedIdpAuthSession::isPackableCode)
+        .map(CompactFedIdpAuthSession::packCode);
+  }
+
+  private ClientPartition partition(final String clientId) {
+    final ClientPartition partition = partitionsByClientId.get(clientId);
+    if (partition != null) {
+      return partition;
+    }
+    return partitionsByClientId.computeIfAbsent(clientId, ClientPartition::new);
+  }
+
+  // no client holds more than maxSessionsPerClient or the whole capacity
+  private long quota() {
+    return Math.max(1, Math.min(sessionStoreConfiguration.getMaxSessionsPerClient(), capacity()));
+  }
+
+  private synchronized void resizePartitions() {
+    final long quota = quota();
+    partitionsByClientId
+        .values()
+        .forEach(
+            partition ->
+                partition.sessions.policy().eviction().ifPresent(e -> e.setMaximum(quota)));
+    log.info("FedIdpAuthSessionStore: up to {} sessions per client", quota);
+  }
+
+  // removes sessions past their retention and the partitions they leave empty
+  @Scheduled(
+      fixedDelayString = "${gsi.sessionStore.cleanUpIntervalSeconds:60}",
+      timeUnit = TimeUnit.SECONDS)
+  void cleanUp() {
+    partitionsByClientId
+        .values()
+        .forEach(
+            partition -> {
+              partition.sessions.cleanUp();
+              partition.retireIfEmpty();
+            });
+  }
+
+  private record SessionKey(ClientPartition partition, long requestId) {}
+
+  private final class ClientPartition {
+
+    private final String clientId;
+    private final Cache<Long, CompactFedIdpAuthSession> sessions;
+    private final Counter expiredSessions;
+    private final Counter evictedSessions;
+    private final Gauge storedSessionsGauge;
+    // puts share the read lock, retiring an empty partition takes the write lock
+    private final ReadWriteLock retirement = new ReentrantReadWriteLock();
+    private volatile boolean retired;
+    // creation order, breaks ties in partitionsBySize
+    private final long creation = createdPartitions.incrementAndGet();
+    // only changed while the partition is out of partitionsBySize
+    private volatile long rankedSize;
+
+    private ClientPartition(final String clientId) {
+      this.clientId = clientId;
+      expiredSessions =
+          Counter.builder("gsi.sessions.removed")
+              .description("FedIdpAuthSessions removed after their request_uri expired")
+              .tag("cause", "expired")
+              .tag("client_id", clientId)
+              .register(meterRegistry);
+      evictedSessions =
+          Counter.builder("gsi.sessions.removed")
+              .description("FedIdpAuthSessions removed because the client reached its quota")
+              .tag("cause", "evicted")
+              .tag("client_id", clientId)
+              .register(meterRegistry);
+      sessions =
+          Caffeine.newBuilder()
+              .maximumSize(quota())
+              // evictions run within the put, the running totals do not lag behind
+              .executor(Runnable::run)
+              .expireAfter(
+                  Expiry.creating(
+                      (final Long requestId, final CompactFedIdpAuthSession session) ->
+                          Duration.ofMillis(
+                              session.getExpiresAt()
+                                  + retentionMillis
+                                  - System.currentTimeMillis())))
+              .scheduler(Scheduler.systemScheduler())
+              .evictionListener(
+                  (final Long requestId,
+                      final CompactFedIdpAuthSession session,
+                      final RemovalCause cause) -> onEviction(requestId, session, cause))
+              .build();
+      storedSessionsGauge =
+          Gauge.builder("gsi.sessions.stored", sessions, Cache::estimatedSize)
+              .description("pending FedIdpAuthSessions")
+              .tag("client_id", clientId)
+              .register(meterRegistry);
+    }
+
+    private boolean put(final long requestId, final CompactFedIdpAuthSession session) {
+      retirement.readLock().lock();
+      try {
+        if (retired) {
+          return false;
+        }
+        // index first, an eviction right after the put has to find the index entry
+        sessionKeysByAuthCode.put(session.getAuthorizationCode(), new SessionKey(this, requestId));
+        sessions.put(requestId, session);
+        return true;
+      } finally {
+        retirement.readLock().unlock();
+      }
+    }
+
+    private synchronized void rank() {
+      partitionsBySize.remove(this);
+      if (!retired) {
+        rankedSize = sessions.estimatedSize();
+        partitionsBySize.add(this);
+      }
+    }
+
+    // an empty partition is dropped with its meters, distinct client_ids leave nothing behind
+    private void retireIfEmpty() {
+      if (!sessions.asMap().isEmpty() || !retirement.writeLock().tryLock()) {
+        return;
+      }
+      try {
+        if (retired || !sessions.asMap().isEmpty()) {
+          return;
+        }
+        retired = true;
+        synchronized (this) {
+          partitionsBySize.remove(this);
+        }
+        // a new partition of the client registers its meters again
+        meterRegistry.remove(expiredSessions);
+        meterRegistry.remove(evictedSessions);
+        meterRegistry.remove(storedSessionsGauge);
+        partitionsByClientId.remove(clientId, this);
+      } finally {
+        retirement.writeLock().unlock();
+      }
+    }
+
+    private boolean evictColdest() {
+      return sessions
+          .policy()
+          .eviction()
+          .flatMap(eviction -> eviction.coldest(1).keySet().stream().findFirst())
+          .filter(
+              requestId -> {
+                final CompactFedIdpAuthSession session = sessions.asMap().remove(requestId);
+                if (session != null) {
+                  onEviction(requestId, session, RemovalCause.SIZE);
+                }
+                return session != null;
+              })
+          .isPresent();
+    }
+
+    private void onEviction(
+        final long requestId, final CompactFedIdpAuthSession session, final RemovalCause cause) {
+      removed(session);
+      sessionKeysByAuthCode.remove(session.getAuthorizationCode(), new SessionKey(this, requestId));
+      if (journal != null) {
+        journal.remove(requestId);
+      }
+      if (cause == RemovalCause.EXPIRED) {
+        expiredSessions.increment();
+      } else {
+        evictedSessions.increment();
+      }
+    }
+  }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
+import static de.gematik.idp.gsi.server.controller.FedIdpController.URI_NONCE_LENGTH;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import de.gematik.idp.crypto.Nonce;
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import de.gematik.idp.gsi.server.exceptions.GsiException;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * FedIdpAuthSessionStore shared by all nodes through a database, so the requests of one login may
+ * hit different nodes. New sessions go to a near-cache and are written behind in batches, lookups
+ * by request_uri and authorization code use the primary key and a unique index. Issuing the
+ * authorization code writes the consented session through, a code is only issued once and only
+ * issued codes are found by lookups and redemption, which always read the database. The near-cache
+ * is never authoritative across nodes. Redemption deletes the row, of concurrent redemptions on any
+ * node only one deletes it. Expired sessions are deleted in batches.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "gsi.session-store", name = "mode", havingValue = "jdbc")
+public class JdbcFedIdpAuthSessionStore implements FedIdpAuthSessionStore {
+
+  private static final String INSERT =
+      "INSERT INTO fed_idp_auth_session"
+          + " (request_uri, authorization_code, expires_at, session, code_issued)"
+          + " VALUES (?, ?, ?, ?, ?)";
+  private static final String ISSUE =
+      "UPDATE fed_idp_auth_session SET session = ?, code_issued = TRUE"
+          + " WHERE request_uri = ? AND code_issued = FALSE";
+  private static final String SELECT_BY_REQUEST_URI =
+      "SELECT session FROM fed_idp_auth_session WHERE request_uri = ? AND expires_at > ?";
+  private static final String SELECT_BY_AUTHORIZATION_CODE =
+      "SELECT request_uri, session FROM fed_idp_auth_session"
+          + " WHERE authorization_code = ? AND code_issued = TRUE AND expires_at > ?";
+  private static final String DELETE_BY_AUTHORIZATION_CODE =
+      "DELETE FROM fed_idp_auth_session WHERE authorization_code = ? AND code_issued = TRUE";
+  private static final String DELETE_EXPIRED =
+      "DELETE FROM fed_idp_auth_session WHERE request_uri IN (SELECT request_uri FROM"
+          + " fed_idp_auth_session WHERE expires_at < ? FETCH FIRST ? ROWS ONLY)";
+
+  private final SessionStoreConfiguration sessionStoreConfiguration;
+  private final long retentionMillis;
+  private final JdbcTemplate jdbcTemplate;
+  private final Cache<String, byte[]> sessionsByRequestUri;
+  private final Cache<String, String> requestUrisByAuthCode;
+  // new sessions not yet in the database
+  private final Map<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("gsi-session-store-jdbc").daemon().factory());
+
+  public JdbcFedIdpAuthSessionStore(
+      final SessionStoreConfiguration sessionStoreConfiguration,
+      @Qualifier("sessionDataSource") final DataSource sessionDataSource) {
+    this.sessionStoreConfiguration = sessionStoreConfiguration;
+    this.retentionMillis =
+        Duration.ofSeconds(sessionStoreConfiguration.getExpiredRetentionSeconds()).toMillis();
+    this.jdbcTemplate = new JdbcTemplate(sessionDataSource);
+    final Duration nearCacheDuration =
+        Duration.ofSeconds(sessionStoreConfiguration.getNearCacheSeconds());
+    this.sessionsByRequestUri =
+        Caffeine.newBuilder()
+            .maximumSize(sessionStoreConfiguration.getCapacity())
+            .expireAfterWrite(nearCacheDuration)
+            .build();
+    this.requestUrisByAuthCode =
+        Caffeine.newBuilder()
+            .maximumSize(sessionStoreConfiguration.getCapacity())
+            .expireAfterWrite(nearCacheDuration)
+            .build();
+    executor.scheduleWithFixedDelay(
+        this::flushQuietly,
+        sessionStoreConfiguration.getWriteBehindMillis(),
+        sessionStoreConfiguration.getWriteBehindMillis(),
+        TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(
+        this::deleteExpiredQuietly,
+        sessionStoreConfiguration.getExpiryDeleteIntervalSeconds(),
+        sessionStoreConfiguration.getExpiryDeleteIntervalSeconds(),
+        TimeUnit.SECONDS);
+  }
+
+  @Override
+  public String add(final FedIdpAuthSession session) {
+    // from specification: "URI zur späteren Identifikation des Requestes":
+    // https://tools.ietf.org/id/draft-ietf-oauth-par-04.html#section-2.2
+    final String requestUri =
+        "urn:" + session.getFachdienstClientId() + ":" + Nonce.getNonceAsHex(URI_NONCE_LENGTH);
+    final byte[] encoded = FedIdpAuthSessionCodec.encode(session);
+    sessionsByRequestUri.put(requestUri, encoded);
+    requestUrisByAuthCode.put(session.getAuthorizationCode(), requestUri);
+    pendingWrites.put(
+        requestUri,
+        new PendingWrite(session.getAuthorizationCode(), session.getExpiresAt(), encoded));
+    return requestUri;
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> getByRequestUri(final String requestUri) {
+    return Optional.ofNullable(sessionsByRequestUri.get(requestUri, this::load))
+        .flatMap(JdbcFedIdpAuthSessionStore::decode);
+  }
+
+  @Override
+  public String issueAuthorizationCode(final String requestUri, final FedIdpAuthSession session) {
+    // write through the user data bound to the session, the token request may hit any node
+    final byte[] encoded = FedIdpAuthSessionCodec.encode(session);
+    if (!writeIssued(requestUri, session, encoded)) {
+      throw new GsiException(
+          INVALID_REQUEST,
+          "unknown request_uri or authorization code already issued",
+          HttpStatus.BAD_REQUEST);
+    }
+    sessionsByRequestUri.put(requestUri, encoded);
+    requestUrisByAuthCode.put(session.getAuthorizationCode(), requestUri);
+    return session.getAuthorizationCode();
+  }
+
+  // synchronized with flush, a pending session is inserted either here or by flush
+  private synchronized boolean writeIssued(
+      final String requestUri, final FedIdpAuthSession session, final byte[] encoded) {
+    final PendingWrite pendingWrite = pendingWrites.get(requestUri);
+    if (pendingWrite == null) {
+      return jdbcTemplate.update(ISSUE, encoded, requestUri) == 1;
+    }
+    jdbcTemplate.update(
+        INSERT, requestUri, session.getAuthorizationCode(), session.getExpiresAt(), encoded, true);
+    pendingWrites.remove(requestUri, pendingWrite);
+    return true;
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> getByAuthorizationCode(final String authorizationCode) {
+    // not near-cached, the code may have been redeemed on another node
+    return selectByAuthorizationCode(authorizationCode).flatMap(row -> decode(row.getValue()));
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> redeemAuthorizationCode(final String authorizationCode) {
+    final Optional<Map.Entry<String, byte[]>> row = selectByAuthorizationCode(authorizationCode);
+    // the delete is the claim, concurrent redemptions on other nodes delete nothing
+    if (row.isEmpty()
+        || jdbcTemplate.update(DELETE_BY_AUTHORIZATION_CODE, authorizationCode) != 1) {
+      return Optional.empty();
+    }
+    sessionsByRequestUri.invalidate(row.get().getKey());
+    requestUrisByAuthCode.invalidate(authorizationCode);
+    return decode(row.get().getValue());
+  }
+
+  @Override
+  public long size() {
+    return sessionsByRequestUri.estimatedSize();
+  }
+
+  private byte[] load(final String requestUri) {
+    final PendingWrite pendingWrite = pendingWrites.get(requestUri);
+    if (pendingWrite != null) {
+      return pendingWrite.session();
+    }
+    return jdbcTemplate
+        .query(
+            SELECT_BY_REQUEST_URI,
+            (rs, rowNum) -> rs.getBytes(1),
+            requestUri,
+            System.currentTimeMillis() - retentionMillis)
+        .stream()
+        .findFirst()
+        .orElse(null);
+  }
+
+  private Optional<Map.Entry<String, byte[]>> selectByAuthorizationCode(
+      final String authorizationCode) {
+    return jdbcTemplate
+        .query(
+            SELECT_BY_AUTHORIZATION_CODE,
+            (rs, rowNum) -> Map.entry(rs.getString(1), rs.getBytes(2)),
+            authorizationCode,
+            System.currentTimeMillis() - retentionMillis)
+        .stream()
+        .findFirst();
+  }
+
+  private static Optional<FedIdpAuthSession> decode(final byte[] encoded) {
+    try {
+      return Optional.of(FedIdpAuthSessionCodec.decode(encoded));
+    } catch (final IOException e) {
+      log.warn("Stored session could not be decoded: {}", e.getMessage());
+      return Optional.empty();
+    }
+  }
+
+  // a session leaves pendingWrites only after its batch committed, a failed batch stays pending
+  synchronized void flush() {
+    final List<Map.Entry<String, PendingWrite>> inserts =
+        pendingWrites.entrySet().stream()
+            .map(pending -> Map.entry(pending.getKey(), pending.getValue()))
+            .toList();
+    if (inserts.isEmpty()) {
+      return;
+    }
+    jdbcTemplate.batchUpdate(
+        INSERT,
+        inserts.stream()
+            .map(
+                insert ->
+                    new Object[] {
+                      insert.getKey(),
+                      insert.getValue().authorizationCode(),
+                      insert.getValue().expiresAt(),
+                      insert.getValue().session(),
+                      false
+                    })
+            .toList());
+    inserts.forEach(insert -> pendingWrites.remove(insert.getKey(), insert.getValue()));
+  }
+
+  private void flushQuietly() {
+    try {
+      flush();
+    } catch (final DataAccessException e) {
+      log.error("FedIdpAuthSessions could not be written: {}", e.getMessage());
+      // failed writes are retried until their session expires
+      final long expiredBefore = System.currentTimeMillis() - retentionMillis;
+      pendingWrites.values().removeIf(pending -> pending.expiresAt() < expiredBefore);
+    }
+  }
+
+  /** deletes sessions past their retention, returns the amount of deleted rows */
+  int deleteExpired() {
+    final int batchSize = sessionStoreConfiguration.getExpiryDeleteBatchSize();
+    final long expiredBefore = System.currentTimeMillis() - retentionMillis;
+    int deleted = 0;
+    int batch;
+    do {
+      batch = jdbcTemplate.update(DELETE_EXPIRED, expiredBefore, batchSize);
+      deleted += batch;
+    } while (batch == batchSize);
+    return deleted;
+  }
+
+  private void deleteExpiredQuietly() {
+    try {
+      log.debug("Deleted {} expired FedIdpAuthSessions", deleteExpired());
+    } catch (final DataAccessException e) {
+      log.warn("Expired FedIdpAuthSessions could not be deleted: {}", e.getMessage());
+    }
+  }
+
+  @PreDestroy
+  void close() {
+    executor.shutdown();
+    flushQuietly();
+  }
+
+  private record PendingWrite(String authorizationCode, long expiresAt, byte[] session) {}
+}
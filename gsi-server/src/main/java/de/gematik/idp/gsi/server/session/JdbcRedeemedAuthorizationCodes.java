@@ -0,0 +1,89 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Redeemed authorization codes in the session database shared by all nodes. The insert is the
+ * claim, the primary key lets only one of concurrent redemptions on any node succeed.
+ */
+@Slf4j
+final class JdbcRedeemedAuthorizationCodes implements RedeemedAuthorizationCodes {
+
+  private static final String INSERT =
+      "INSERT INTO redeemed_authorization_code (authorization_code, expires_at) VALUES (?, ?)";
+  private static final String COUNT =
+      "SELECT COUNT(*) FROM redeemed_authorization_code WHERE authorization_code = ?";
+  private static final String DELETE_EXPIRED =
+      "DELETE FROM redeemed_authorization_code WHERE expires_at < ?";
+
+  private final JdbcTemplate jdbcTemplate;
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(
+          Thread.ofPlatform().name("gsi-redeemed-codes-jdbc").daemon().factory());
+
+  JdbcRedeemedAuthorizationCodes(
+      final SessionStoreConfiguration sessionStoreConfiguration, final DataSource dataSource) {
+    this.jdbcTemplate = new JdbcTemplate(dataSource);
+    executor.scheduleWithFixedDelay(
+        this::deleteExpiredQuietly,
+        sessionStoreConfiguration.getExpiryDeleteIntervalSeconds(),
+        sessionStoreConfiguration.getExpiryDeleteIntervalSeconds(),
+        TimeUnit.SECONDS);
+  }
+
+  @Override
+  public boolean redeem(final String authorizationCode, final long expiresAt) {
+    try {
+      return jdbcTemplate.update(INSERT, authorizationCode, expiresAt) == 1;
+    } catch (final DuplicateKeyException e) {
+      return false;
+    }
+  }
+
+  @Override
+  public boolean isRedeemed(final String authorizationCode) {
+    final Integer count = jdbcTemplate.queryForObject(COUNT, Integer.class, authorizationCode);
+    return count != null && count > 0;
+  }
+
+  private void deleteExpiredQuietly() {
+    try {
+      jdbcTemplate.update(DELETE_EXPIRED, System.currentTimeMillis());
+    } catch (final DataAccessException e) {
+      log.warn("Expired redeemed authorization codes could not be deleted: {}", e.getMessage());
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+  }
+}
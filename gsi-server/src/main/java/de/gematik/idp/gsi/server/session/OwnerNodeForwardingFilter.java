@@ -0,0 +1,255 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static de.gematik.idp.IdpConstants.FED_AUTH_ENDPOINT;
+import static de.gematik.idp.IdpConstants.TOKEN_ENDPOINT;
+
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.services.HttpClient;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Proxies requests for a request_uri or authorization code owned by another node to that node, so
+ * nodes with in-memory sessions need no sticky routing. Only the endpoints taking a request_uri or
+ * code are inspected. Forwarded requests are marked with the forwarding node, an expiry and an HMAC
+ * over both and the request line; they are never forwarded again. A marker set by anybody else is
+ * ignored.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(
+    prefix = "gsi.session-store",
+    name = "forward-to-owner",
+    havingValue = "true")
+public class OwnerNodeForwardingFilter extends OncePerRequestFilter {
+
+  static final String FORWARDED_BY_HEADER = "X-Gsi-Forwarded-By";
+
+  // a marker is accepted this long, the owner answers within the request timeout
+  private static final int MARKER_VALIDITY_SECONDS = 60;
+
+  // set by the client, not forwarded as is
+  private static final Set<String> HOP_BY_HOP_HEADERS =
+      Set.of(
+          "connection",
+          "content-length",
+          "expect",
+          "host",
+          "keep-alive",
+          "transfer-encoding",
+          "upgrade",
+          FORWARDED_BY_HEADER.toLowerCase());
+
+  private final SessionStoreConfiguration sessionStoreConfiguration;
+  private final HttpClient httpClient;
+  private final SecretKey nodeForwardingKey;
+
+  public OwnerNodeForwardingFilter(
+      final SessionStoreConfiguration sessionStoreConfiguration,
+      final HttpClient httpClient,
+      @Qualifier("nodeForwardingKey") final SecretKey nodeForwardingKey) {
+    SessionOwner.checkedNodeId(sessionStoreConfiguration.getNodeId());
+    sessionStoreConfiguration.getNodeUrls().keySet().forEach(SessionOwner::checkedNodeId);
+    this.sessionStoreConfiguration = sessionStoreConfiguration;
+    this.httpClient = httpClient;
+    this.nodeForwardingKey = nodeForwardingKey;
+    log.info(
+        "Node {} forwards foreign sessions to {}",
+        sessionStoreConfiguration.getNodeId(),
+        sessionStoreConfiguration.getNodeUrls());
+  }
+
+  // only these endpoints take a request_uri or code, other requests are not parsed
+  @Override
+  protected boolean shouldNotFilter(final HttpServletRequest request) {
+    return !request.getRequestURI().equals(FED_AUTH_ENDPOINT)
+        && !request.getRequestURI().equals(TOKEN_ENDPOINT);
+  }
+
+  @Override
+  protected void doFilterInternal(
+      final HttpServletRequest request,
+      final HttpServletResponse response,
+      final FilterChain filterChain)
+      throws ServletException, IOException {
+    final Optional<String> ownerUrl =
+        isForwardedByNode(request) ? Optional.empty() : ownerUrl(request);
+    if (ownerUrl.isEmpty()) {
+      filterChain.doFilter(request, response);
+      return;
+    }
+    try {
+      forward(request, response, ownerUrl.get());
+    } catch (final IOException e) {
+      log.warn("Forwarding to {} failed: {}", ownerUrl.get(), e.getMessage());
+      response.sendError(HttpStatus.BAD_GATEWAY.value());
+    }
+  }
+
+  private boolean isForwardedByNode(final HttpServletRequest request) {
+    final String marker = request.getHeader(FORWARDED_BY_HEADER);
+    if (marker == null) {
+      return false;
+    }
+    final String[] parts = marker.split("\\.");
+    try {
+      if (parts.length == 3
+          && sessionStoreConfiguration.getNodeUrls().containsKey(parts[0])
+          && Instant.now().getEpochSecond() < Long.parseLong(parts[1])
+          && MessageDigest.isEqual(
+              Base64.getUrlDecoder().decode(parts[2]),
+              mac(parts[0], parts[1], request.getMethod(), request.getRequestURI()))) {
+        return true;
+      }
+    } catch (final IllegalArgumentException e) {
+      // not a marker of a node
+    }
+    log.debug("Ignoring invalid {} header: {}", FORWARDED_BY_HEADER, marker);
+    return false;
+  }
+
+  String marker(final String method, final String requestUri) {
+    final String nodeId = sessionStoreConfiguration.getNodeId();
+    final String expiresAt =
+        String.valueOf(Instant.now().plusSeconds(MARKER_VALIDITY_SECONDS).getEpochSecond());
+    return nodeId
+        + "."
+        + expiresAt
+        + "."
+        + Base64.getUrlEncoder()
+            .withoutPadding()
+            .encodeToString(mac(nodeId, expiresAt, method, requestUri));
+  }
+
+  private byte[] mac(
+      final String nodeId, final String expiresAt, final String method, final String requestUri) {
+    try {
+      final Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(nodeForwardingKey);
+      return mac.doFinal(
+          (nodeId + "." + expiresAt + "." + method + " " + requestUri)
+              .getBytes(StandardCharsets.UTF_8));
+    } catch (final GeneralSecurityException e) {
+      throw new IllegalStateException("Could not sign forwarded request", e);
+    }
+  }
+
+  private Optional<String> ownerUrl(final HttpServletRequest request) {
+    final String sessionKey =
+        request.getRequestURI().equals(TOKEN_ENDPOINT)
+            ? request.getParameter("code")
+            : request.getParameter("request_uri");
+    return Optional.ofNullable(sessionKey)
+        .flatMap(SessionOwner::ownerOf)
+        .filter(owner -> !owner.equals(sessionStoreConfiguration.getNodeId()))
+        .map(sessionStoreConfiguration.getNodeUrls()::get);
+  }
+
+  private void forward(
+      final HttpServletRequest request, final HttpServletResponse response, final String ownerUrl)
+      throws IOException {
+    final String query = request.getQueryString();
+    final HttpRequest.Builder forwardedRequest =
+        HttpRequest.newBuilder(
+                URI.create(ownerUrl + request.getRequestURI() + (query == null ? "" : "?" + query)))
+            .version(java.net.http.HttpClient.Version.HTTP_1_1)
+            .method(request.getMethod(), body(request));
+    Collections.list(request.getHeaderNames()).stream()
+        .filter(name -> !HOP_BY_HOP_HEADERS.contains(name.toLowerCase()))
+        .forEach(
+            name ->
+                Collections.list(request.getHeaders(name))
+                    .forEach(value -> forwardedRequest.header(name, value)));
+    forwardedRequest.header(
+        FORWARDED_BY_HEADER, marker(request.getMethod(), request.getRequestURI()));
+
+    final HttpResponse<String> ownerResponse = httpClient.callNode(forwardedRequest);
+    response.setStatus(ownerResponse.statusCode());
+    ownerResponse.headers().map().entrySet().stream()
+        .filter(header -> !HOP_BY_HOP_HEADERS.contains(header.getKey().toLowerCase()))
+        .forEach(header -> header.getValue().forEach(v -> response.addHeader(header.getKey(), v)));
+    response.getOutputStream().write(ownerResponse.body().getBytes(StandardCharsets.UTF_8));
+  }
+
+  // form parameters were already read by getParameter, the body is rebuilt from them
+  private static HttpRequest.BodyPublisher body(final HttpServletRequest request)
+      throws IOException {
+    final String contentType = request.getContentType();
+    if (contentType == null) {
+      return HttpRequest.BodyPublishers.noBody();
+    }
+    if (!MediaType.APPLICATION_FORM_URLENCODED.includes(MediaType.parseMediaType(contentType))) {
+      return HttpRequest.BodyPublishers.ofByteArray(request.getInputStream().readAllBytes());
+    }
+    final Set<String> queryParameters =
+        request.getQueryString() == null
+            ? Set.of()
+            : UriComponentsBuilder.newInstance()
+                .query(request.getQueryString())
+                .build()
+                .getQueryParams()
+                .keySet();
+    return HttpRequest.BodyPublishers.ofString(
+        request.getParameterMap().entrySet().stream()
+            .filter(parameter -> !queryParameters.contains(parameter.getKey()))
+            .flatMap(parameter -> formFields(parameter.getKey(), parameter.getValue()))
+            .collect(Collectors.joining("&")));
+  }
+
+  private static Stream<String> formFields(final String name, final String[] values) {
+    return List.of(values).stream()
+        .map(
+            value ->
+                URLEncoder.encode(name, StandardCharsets.UTF_8)
+                    + "="
+                    + URLEncoder.encode(value, StandardCharsets.UTF_8));
+  }
+}
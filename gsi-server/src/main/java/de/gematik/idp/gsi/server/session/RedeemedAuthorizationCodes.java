@@ -0,0 +1,66 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import java.time.Duration;
+
+/** Authorization codes redeemed in stateless session mode, remembered until they expire. */
+interface RedeemedAuthorizationCodes {
+
+  /** returns false when the code was redeemed before, on any node sharing this store */
+  boolean redeem(String authorizationCode, long expiresAt);
+
+  boolean isRedeemed(String authorizationCode);
+
+  void close();
+
+  /** held by this node only, codes can be redeemed once per node */
+  static RedeemedAuthorizationCodes local() {
+    final Cache<String, Long> redeemed =
+        Caffeine.newBuilder()
+            .expireAfter(
+                Expiry.creating(
+                    (final String authorizationCode, final Long expiresAt) ->
+                        Duration.ofMillis(expiresAt - System.currentTimeMillis())))
+            .scheduler(Scheduler.systemScheduler())
+            .build();
+    return new RedeemedAuthorizationCodes() {
+      @Override
+      public boolean redeem(final String authorizationCode, final long expiresAt) {
+        return redeemed.asMap().putIfAbsent(authorizationCode, expiresAt) == null;
+      }
+
+      @Override
+      public boolean isRedeemed(final String authorizationCode) {
+        return redeemed.getIfPresent(authorizationCode) != null;
+      }
+
+      @Override
+      public void close() {
+        redeemed.invalidateAll();
+      }
+    };
+  }
+}
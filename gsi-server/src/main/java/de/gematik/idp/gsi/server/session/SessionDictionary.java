@@ -0,0 +1,92 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static de.gematik.idp.gsi.server.data.GsiConstants.ACR_VALUES;
+import static de.gematik.idp.gsi.server.data.GsiConstants.AMR_VALUES_V1;
+import static de.gematik.idp.gsi.server.data.GsiConstants.AMR_VALUES_V2;
+import static de.gematik.idp.gsi.server.data.GsiConstants.SUPPORTED_ID_TOKEN_VERSIONS;
+import static de.gematik.idp.gsi.server.data.GsiConstants.VALID_CLAIMS;
+
+import de.gematik.idp.field.ClaimName;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Interns the small vocabularies of FedIdpAuthSessions (client ids, redirect uris, claim names,
+ * acr/amr values). Terms are never removed, the size is capped so request data cannot grow it
+ * without bound.
+ */
+final class SessionDictionary {
+
+  // claims, acr and amr values get the lowest ids, so claim sets fit into a bitmask
+  private static final List<String> WELL_KNOWN_TERMS =
+      Stream.of(
+              VALID_CLAIMS,
+              Set.of(ClaimName.BIRTHDATE.getJoseName()),
+              ACR_VALUES,
+              AMR_VALUES_V1,
+              AMR_VALUES_V2,
+              SUPPORTED_ID_TOKEN_VERSIONS)
+          .flatMap(set -> set.stream().sorted())
+          .distinct()
+          .toList();
+
+  private final int maxSize;
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private final List<String> terms = new CopyOnWriteArrayList<>();
+
+  SessionDictionary(final int maxSize) {
+    this.maxSize = maxSize;
+    WELL_KNOWN_TERMS.forEach(this::register);
+  }
+
+  /** returns the id of the term, -1 if the dictionary is full */
+  int id(final String term) {
+    final Integer id = ids.get(term);
+    return id != null ? id : register(term);
+  }
+
+  String term(final int id) {
+    return terms.get(id);
+  }
+
+  int size() {
+    return terms.size();
+  }
+
+  private synchronized int register(final String term) {
+    final Integer id = ids.get(term);
+    if (id != null) {
+      return id;
+    }
+    if (terms.size() >= maxSize) {
+      return -1;
+    }
+    terms.add(term);
+    ids.put(term, terms.size() - 1);
+    return terms.size() - 1;
+  }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import javax.crypto.SecretKey;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only, memory-mapped journal of pending FedIdpAuthSessions in a local directory. Request
+ * threads only enqueue changes, a single writer thread appends them and forces each batch to disk
+ * at once (group commit). When the file is full, and periodically, it is compacted by rewriting the
+ * live sessions into a new file. Records are [length][crc32c][payload], replay stops at the first
+ * torn or corrupt record. Sessions carry claims of insured persons and are sealed with the journal
+ * key, bound to their request id; records sealed with another key are skipped on replay.
+ */
+@Slf4j
+final class SessionJournal implements AutoCloseable {
+
+  static final String JOURNAL_FILE_NAME = "sessions.journal";
+
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+  private static final int QUEUE_CAPACITY = 65536;
+
+  record Entry(long requestId, FedIdpAuthSession session) {}
+
+  private record Change(byte type, long requestId, FedIdpAuthSession session) {}
+
+  private final Path journalFile;
+  private final Path compactionFile;
+  private final int segmentBytes;
+  private final long compactionIntervalMillis;
+  private final Supplier<Stream<Entry>> liveEntries;
+  private final SecretKey journalKey;
+  private final BlockingQueue<Change> changes = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final Thread writer;
+
+  private volatile boolean running = true;
+  // set when a change could not be queued, the next compaction writes the true state
+  private volatile boolean changesDropped = false;
+  private FileChannel channel;
+  private MappedByteBuffer mapped;
+  private long lastCompaction;
+
+  SessionJournal(
+      final Path directory,
+      final int segmentBytes,
+      final Duration compactionInterval,
+      final Supplier<Stream<Entry>> liveEntries,
+      final SecretKey journalKey) {
+    this.journalFile = directory.resolve(JOURNAL_FILE_NAME);
+    this.compactionFile = directory.resolve(JOURNAL_FILE_NAME + ".compact");
+    this.segmentBytes = segmentBytes;
+    this.compactionIntervalMillis = compactionInterval.toMillis();
+    this.liveEntries = liveEntries;
+    this.journalKey = journalKey;
+    this.writer = Thread.ofPlatform().name("gsi-session-journal").daemon().unstarted(this::run);
+    try {
+      Files.createDirectories(directory);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** reads the journal left by the previous run, last record per request_uri wins */
+  List<Entry> replay() {
+    if (!Files.exists(journalFile)) {
+      return List.of();
+    }
+    final Map<Long, FedIdpAuthSession> sessions = new LinkedHashMap<>();
+    int unreadable = 0;
+    try (final FileChannel existing = FileChannel.open(journalFile, StandardOpenOption.READ)) {
+      final ByteBuffer buffer = existing.map(FileChannel.MapMode.READ_ONLY, 0, existing.size());
+      while (buffer.remaining() > RECORD_HEADER_BYTES) {
+        final int length = buffer.getInt();
+        final int crc = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+          break;
+        }
+        final byte[] payload = new byte[length];
+        buffer.get(payload);
+        if (crc != crc32c(payload)) {
+          log.warn("SessionJournal: corrupt record, replay stops at offset {}", buffer.position());
+          break;
+        }
+        final ByteBuffer record = ByteBuffer.wrap(payload);
+        final byte type = record.get();
+        final long requestId = record.getLong();
+        if (type == PUT) {
+          final byte[] session = new byte[record.remaining()];
+          record.get(session);
+          try {
+            sessions.put(
+                requestId,
+                FedIdpAuthSessionCodec.decode(
+                    FedIdpAuthSessionCodec.open(journalKey, session, purpose(requestId))));
+          } catch (final GeneralSecurityException e) {
+            unreadable++;
+          }
+        } else {
+          sessions.remove(requestId);
+        }
+      }
+    } catch (final IOException e) {
+      log.warn("SessionJournal: could not replay {}: {}", journalFile, e.getMessage());
+    }
+    if (unreadable > 0) {
+      log.warn("SessionJournal: {} sessions sealed with another key skipped", unreadable);
+    }
+    final List<Entry> entries = new ArrayList<>(sessions.size());
+    sessions.forEach((requestId, session) -> entries.add(new Entry(requestId, session)));
+    return entries;
+  }
+
+  /** writes the live sessions into a fresh journal and starts appending */
+  void start() {
+    compact();
+    writer.start();
+  }
+
+  void put(final long requestId, final FedIdpAuthSession session) {
+    enqueue(new Change(PUT, requestId, session));
+  }
+
+  void remove(final long requestId) {
+    enqueue(new Change(REMOVE, requestId, null));
+  }
+
+  private void enqueue(final Change change) {
+    if (!changes.offer(change)) {
+      changesDropped = true;
+    }
+  }
+
+  private void run() {
+    final List<Change> batch = new ArrayList<>();
+    while (running || !changes.isEmpty()) {
+      try {
+        final Change first = changes.poll(1, TimeUnit.SECONDS);
+        if (first != null) {
+          batch.add(first);
+          changes.drainTo(batch);
+          append(batch);
+          batch.clear();
+        }
+        if (changesDropped
+            || System.currentTimeMillis() - lastCompaction > compactionIntervalMillis) {
+          compact();
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (final RuntimeException e) {
+        log.error("SessionJournal: write failed", e);
+      }
+    }
+  }
+
+  private void append(final List<Change> batch) {
+    for (final Change change : batch) {
+      final byte[] record = record(change.type(), change.requestId(), change.session());
+      if (record.length > mapped.remaining()) {
+        // the live state already contains this change
+        compact();
+      } else {
+        mapped.put(record);
+      }
+    }
+    mapped.force();
+  }
+
+  private void compact() {
+    changesDropped = false;
+    final List<byte[]> records =
+        liveEntries.get().map(entry -> record(PUT, entry.requestId(), entry.session())).toList();
+    final long liveBytes = records.stream().mapToLong(record -> record.length).sum();
+    final long size = Math.max(segmentBytes, 2 * liveBytes);
+    try {
+      Files.deleteIfExists(compactionFile);
+      final FileChannel compacted =
+          FileChannel.open(
+              compactionFile,
+              StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE);
+      final MappedByteBuffer compactedMapped =
+          compacted.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      records.forEach(compactedMapped::put);
+      compactedMapped.force();
+      Files.move(
+          compactionFile,
+          journalFile,
+          StandardCopyOption.ATOMIC_MOVE,
+          StandardCopyOption.REPLACE_EXISTING);
+      if (channel != null) {
+        channel.close();
+      }
+      channel = compacted;
+      mapped = compactedMapped;
+      lastCompaction = System.currentTimeMillis();
+      log.debug("SessionJournal compacted: {} sessions, {} bytes", records.size(), liveBytes);
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private byte[] record(final byte type, final long requestId, final FedIdpAuthSession session) {
+    final byte[] encodedSession = session == null ? new byte[0] : seal(requestId, session);
+    final int payloadLength = 1 + Long.BYTES + encodedSession.length;
+    final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+    payload.put(type).putLong(requestId).put(encodedSession);
+    return ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadLength)
+        .putInt(payloadLength)
+        .putInt(crc32c(payload.array()))
+        .put(payload.array())
+        .array();
+  }
+
+  private byte[] seal(final long requestId, final FedIdpAuthSession session) {
+    try {
+      return FedIdpAuthSessionCodec.seal(
+          journalKey, FedIdpAuthSessionCodec.encode(session), purpose(requestId));
+    } catch (final GeneralSecurityException e) {
+      throw new IllegalStateException("Could not seal FedIdpAuthSession", e);
+    }
+  }
+
+  // a sealed session cannot be replayed under another request id
+  private static byte[] purpose(final long requestId) {
+    return ByteBuffer.allocate(Long.BYTES).putLong(requestId).array();
+  }
+
+  private static int crc32c(final byte[] bytes) {
+    final CRC32C crc = new CRC32C();
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  @Override
+  public void close() {
+    running = false;
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(10));
+      if (writer.isAlive()) {
+        // the writer still appends to the mapped file, a torn last batch is skipped on replay
+        log.warn("SessionJournal: writer did not stop, journal left open");
+        return;
+      }
+      if (channel != null) {
+        mapped.force();
+        channel.close();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (final IOException e) {
+      log.warn("SessionJournal: close failed: {}", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import java.util.Optional;
+import java.util.regex.Pattern;
+
+/**
+ * request_uri nonces and authorization codes carry the id of the node holding the session as
+ * suffix, "nonce.nodeId", so a proxy or another node can route requests to the owner.
+ */
+final class SessionOwner {
+
+  private static final char SEPARATOR = '.';
+  // node ids end up in request_uris, codes and headers
+  private static final Pattern NODE_ID = Pattern.compile("[A-Za-z0-9_-]*");
+
+  private SessionOwner() {}
+
+  /** rejects node ids that would break parsing the owner of a request_uri or code */
+  static String checkedNodeId(final String nodeId) {
+    if (!NODE_ID.matcher(nodeId).matches()) {
+      throw new IllegalStateException(
+          "Invalid node id [" + nodeId + "], allowed are letters, digits, '-' and '_'");
+    }
+    return nodeId;
+  }
+
+  static String tag(final String key, final String nodeId) {
+    return nodeId.isEmpty() ? key : key + SEPARATOR + nodeId;
+  }
+
+  /** the node id of a request_uri or authorization code, empty for untagged keys */
+  static Optional<String> ownerOf(final String sessionKey) {
+    final String key = sessionKey.substring(sessionKey.lastIndexOf(':') + 1);
+    final int separator = key.indexOf(SEPARATOR);
+    return separator < 0 ? Optional.empty() : Optional.of(key.substring(separator + 1));
+  }
+
+  /** the key without its node id if it belongs to this node, empty for foreign keys */
+  static Optional<String> ownKey(final String key, final String nodeId) {
+    final int separator = key.indexOf(SEPARATOR);
+    if (separator < 0) {
+      return Optional.of(key);
+    }
+    return key.substring(separator + 1).equals(nodeId)
+        ? Optional.of(key.substring(0, separator))
+        : Optional.empty();
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import de.gematik.idp.gsi.server.exceptions.GsiException;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+import javax.crypto.SecretKey;
+import javax.sql.DataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+/**
+ * FedIdpAuthSessionStore without server side sessions. request_uri and authorization code carry the
+ * AES-GCM encrypted session, so any node sharing the entity statement key can serve any step of a
+ * login. Only redeemed authorization codes are remembered, until they would have expired, in the
+ * session database shared by all nodes unless statelessRedemption is single-node.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "gsi.session-store", name = "mode", havingValue = "stateless")
+public class StatelessFedIdpAuthSessionStore implements FedIdpAuthSessionStore {
+
+  // authenticated as associated data, a request_uri is never accepted as code and vice versa
+  private static final byte[] REQUEST_URI_PURPOSE = "request_uri".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] CODE_PURPOSE = "code".getBytes(StandardCharsets.UTF_8);
+
+  private final SecretKey sessionTokenKey;
+  private final long retentionMillis;
+  // redeemed session authorization codes (jti of the code token)
+  private final RedeemedAuthorizationCodes redeemedAuthorizationCodes;
+
+  public StatelessFedIdpAuthSessionStore(
+      @Qualifier("sessionTokenKey") final SecretKey sessionTokenKey,
+      final SessionStoreConfiguration sessionStoreConfiguration,
+      @Qualifier("sessionDataSource") final Optional<DataSource> sessionDataSource) {
+    this.sessionTokenKey = sessionTokenKey;
+    this.retentionMillis =
+        Duration.ofSeconds(sessionStoreConfiguration.getExpiredRetentionSeconds()).toMillis();
+    this.redeemedAuthorizationCodes =
+        switch (sessionStoreConfiguration.getStatelessRedemption()) {
+          case "jdbc" ->
+              new JdbcRedeemedAuthorizationCodes(
+                  sessionStoreConfiguration, sessionDataSource.orElseThrow());
+          case "single-node" -> {
+            log.warn(
+                "Redeemed authorization codes are held by this node only, token requests have to"
+                    + " reach the node that issued the code");
+            yield RedeemedAuthorizationCodes.local();
+          }
+          default ->
+              throw new IllegalStateException(
+                  "Unknown gsi.session-store.statelessRedemption: "
+                      + sessionStoreConfiguration.getStatelessRedemption());
+        };
+  }
+
+  @Override
+  public String add(final FedIdpAuthSession session) {
+    return requestUriPrefix(session.getFachdienstClientId())
+        + seal(FedIdpAuthSessionCodec.encode(session), REQUEST_URI_PURPOSE);
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> getByRequestUri(final String requestUri) {
+    final int tokenStart = requestUri.lastIndexOf(':') + 1;
+    return open(requestUri.substring(tokenStart), REQUEST_URI_PURPOSE)
+        .filter(
+            session ->
+                requestUri
+                    .substring(0, tokenStart)
+                    .equals(requestUriPrefix(session.getFachdienstClientId())));
+  }
+
+  @Override
+  public String issueAuthorizationCode(final String requestUri, final FedIdpAuthSession session) {
+    return seal(FedIdpAuthSessionCodec.encode(session), CODE_PURPOSE);
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> getByAuthorizationCode(final String authorizationCode) {
+    return open(authorizationCode, CODE_PURPOSE)
+        .filter(session -> !redeemedAuthorizationCodes.isRedeemed(session.getAuthorizationCode()));
+  }
+
+  @Override
+  public Optional<FedIdpAuthSession> redeemAuthorizationCode(final String authorizationCode) {
+    return open(authorizationCode, CODE_PURPOSE)
+        .filter(
+            session ->
+                redeemedAuthorizationCodes.redeem(
+                    session.getAuthorizationCode(), session.getExpiresAt() + retentionMillis));
+  }
+
+  @Override
+  public long size() {
+    return 0;
+  }
+
+  @PreDestroy
+  void close() {
+    redeemedAuthorizationCodes.close();
+  }
+
+  private static String requestUriPrefix(final String clientId) {
+    return "urn:" + clientId + ":";
+  }
+
+  private String seal(final byte[] plaintext, final byte[] purpose) {
+    try {
+      return Base64.getUrlEncoder()
+          .withoutPadding()
+          .encodeToString(FedIdpAuthSessionCodec.seal(sessionTokenKey, plaintext, purpose));
+    } catch (final GeneralSecurityException e) {
+      throw new GsiException("Could not encrypt FedIdpAuthSession", e);
+    }
+  }
+
+  private Optional<FedIdpAuthSession> open(final String token, final byte[] purpose) {
+    try {
+      final FedIdpAuthSession session =
+          FedIdpAuthSessionCodec.decode(
+              FedIdpAuthSessionCodec.open(
+                  sessionTokenKey, Base64.getUrlDecoder().decode(token), purpose));
+      // same lifetime as a stored session: answered as expired for a while, then unknown
+      if (System.currentTimeMillis() > session.getExpiresAt() + retentionMillis) {
+        return Optional.empty();
+      }
+      return Optional.of(session);
+    } catch (final IllegalArgumentException | GeneralSecurityException | IOException e) {
+      log.debug("Rejected session token: {}", e.getMessage());
+      return Optional.empty();
+    }
+  }
+}
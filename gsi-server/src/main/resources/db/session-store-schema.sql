@@ -0,0 +1,14 @@
+CREATE TABLE IF NOT EXISTS fed_idp_auth_session (
+  request_uri VARCHAR(1024) PRIMARY KEY,
+  authorization_code VARCHAR(64) NOT NULL,
+  expires_at BIGINT NOT NULL,
+  session VARBINARY(1048576) NOT NULL,
+  code_issued BOOLEAN DEFAULT FALSE NOT NULL
+);
+CREATE UNIQUE INDEX IF NOT EXISTS fed_idp_auth_session_code ON fed_idp_auth_session (authorization_code);
+CREATE INDEX IF NOT EXISTS fed_idp_auth_session_expires_at ON fed_idp_auth_session (expires_at);
+CREATE TABLE IF NOT EXISTS redeemed_authorization_code (
+  authorization_code VARCHAR(64) PRIMARY KEY,
+  expires_at BIGINT NOT NULL
+);
+CREATE INDEX IF NOT EXISTS redeemed_authorization_code_expires_at ON redeemed_authorization_code (expires_at);
@@ -28,17 +28,24 @@ import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
 import static de.gematik.idp.gsi.server.common.Constants.ENTITY_STATEMENT_FED_MASTER;
 import static de.gematik.idp.gsi.server.common.Constants.ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
+import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 
 import com.github.tomakehurst.wiremock.WireMockServer;
 import de.gematik.idp.IdpConstants;
+import de.gematik.idp.data.Oauth2ErrorCode;
+import de.gematik.idp.gsi.server.configuration.FedmasterDiscoveryConfiguration;
 import de.gematik.idp.gsi.server.configuration.GsiConfiguration;
+import de.gematik.idp.gsi.server.exceptions.GsiException;
+import de.gematik.idp.gsi.server.services.HttpClient;
 import de.gematik.idp.gsi.server.services.ServerUrlService;
 import de.gematik.idp.token.JsonWebToken;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.health.contributor.Status;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
 import org.springframework.http.HttpStatus;
@@ -90,9 +97,46 @@ class ServerUrlServiceTest {
                     .withHeader("Content-Type", "application/json")
                     .withBody(ENTITY_STATEMENT_FED_MASTER)));
     gsiConfiguration.setFedmasterUrl("http://localhost:" + MOCK_SERVER_PORT);
+    assertThat(serverUrlService.discoverFetchEntityStatementEndpoint()).isTrue();
     assertThat(serverUrlService.determineFetchEntityStatementEndpoint()).isNotBlank();
   }
 
+  @DirtiesContext(methodMode = MethodMode.BEFORE_METHOD)
+  @Test
+  void testFailedDiscoveryKeepsLastEndpoint() {
+    stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(
+                aResponse()
+                    .withStatus(HttpStatus.OK.value())
+                    .withHeader("Content-Type", "application/json")
+                    .withBody(ENTITY_STATEMENT_FED_MASTER)));
+    gsiConfiguration.setFedmasterUrl("http://localhost:" + MOCK_SERVER_PORT);
+    serverUrlService.discoverFetchEntityStatementEndpoint();
+    final String endpoint = serverUrlService.determineFetchEntityStatementEndpoint();
+
+    stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(HttpStatus.NOT_FOUND.value())));
+    assertThat(serverUrlService.discoverFetchEntityStatementEndpoint()).isFalse();
+    assertThat(serverUrlService.determineFetchEntityStatementEndpoint()).isEqualTo(endpoint);
+  }
+
+  @Test
+  void testUndiscoveredEndpoint_isTemporarilyUnavailable() {
+    final ServerUrlService undiscovered =
+        new ServerUrlService(
+            GsiConfiguration.builder().fedmasterUrl("http://localhost:" + MOCK_SERVER_PORT).build(),
+            Mockito.mock(HttpClient.class),
+            FedmasterDiscoveryConfiguration.builder().build());
+
+    assertThat(undiscovered.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    assertThatThrownBy(undiscovered::determineFetchEntityStatementEndpoint)
+        .isInstanceOf(GsiException.class)
+        .hasFieldOrPropertyWithValue("oauth2ErrorCode", Oauth2ErrorCode.TEMPORARILY_UNAVAILABLE)
+        .hasFieldOrPropertyWithValue("statusCode", HttpStatus.SERVICE_UNAVAILABLE);
+  }
+
   @Test
   void testDetermineSignedJwksUri() {
     assertThat(
@@ -39,9 +39,9 @@ import de.gematik.idp.field.CodeChallengeMethod;
 import de.gematik.idp.gsi.server.GsiServer;
 import de.gematik.idp.gsi.server.configuration.GsiConfiguration;
 import de.gematik.idp.gsi.server.data.ClaimsResponse;
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
-import de.gematik.idp.gsi.server.services.EntityStatementRpReader;
 import de.gematik.idp.gsi.server.services.RequestValidator;
 import de.gematik.idp.gsi.server.services.TokenRepositoryRp;
 import de.gematik.idp.token.JsonWebToken;
@@ -90,7 +90,6 @@ public class FedIdpControllerAuthflowTest {
   @LocalServerPort private int serverPort;
 
   private static MockedStatic<RequestValidator> requestValidatorMockedStatic;
-  private static MockedStatic<EntityStatementRpReader> esReaderMockedStatic;
 
   private String testHostUrl;
   private String codeVerifier;
@@ -102,8 +101,7 @@ public class FedIdpControllerAuthflowTest {
   private String nonce;
   private String acrValues;
 
-  private static final RpToken VALID_RPTOKEN =
-      new RpToken(new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043));
+  private RpToken validRpToken;
   private static final String KEY_ID = "puk_fd_enc";
 
   private void waitForSeconds(final int seconds) {
@@ -133,10 +131,7 @@ public class FedIdpControllerAuthflowTest {
     mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
     log.info("START UNIT TEST: {}", testInfo.getDisplayName());
 
-    Mockito.doReturn(VALID_RPTOKEN).when(rpTokenRepository).getEntityStatementRp(any());
-
     requestValidatorMockedStatic = Mockito.mockStatic(RequestValidator.class);
-    esReaderMockedStatic = Mockito.mockStatic(EntityStatementRpReader.class);
 
     // key from gra-server/src/main/resources/keys/gras-enc-pubkey.pem
     final String JWK_AS_STRING_PUK_FED_ENC =
@@ -146,15 +141,18 @@ public class FedIdpControllerAuthflowTest {
             + " \"NQLaWbuQDHgSHahqb9zxlDdiMCHXSgY0L9ql1k7BVUE\",\"y\":"
             + " \"_USgmqhlM3pvabkZ2SS_YE2Q57tTs6pK9cE_uZB-u3c\"}";
 
-    esReaderMockedStatic
-        .when(() -> EntityStatementRpReader.getRpEncKey(any()))
-        .thenReturn(PublicJsonWebKey.Factory.newPublicJwk(JWK_AS_STRING_PUK_FED_ENC));
+    validRpToken =
+        new RpToken(
+            new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043),
+            RpMetadata.builder()
+                .encKey(PublicJsonWebKey.Factory.newPublicJwk(JWK_AS_STRING_PUK_FED_ENC))
+                .build());
+    Mockito.doReturn(validRpToken).when(rpTokenRepository).getEntityStatementRp(any());
   }
 
   @AfterEach
   void tearDown() {
     requestValidatorMockedStatic.close();
-    esReaderMockedStatic.close();
   }
 
   @SneakyThrows
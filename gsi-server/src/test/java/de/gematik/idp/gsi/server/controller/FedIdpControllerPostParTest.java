@@ -38,9 +38,9 @@ import de.gematik.idp.field.ClientUtilities;
 import de.gematik.idp.field.CodeChallengeMethod;
 import de.gematik.idp.gsi.server.GsiServer;
 import de.gematik.idp.gsi.server.configuration.GsiConfiguration;
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
-import de.gematik.idp.gsi.server.services.EntityStatementRpReader;
 import de.gematik.idp.gsi.server.services.RequestValidator;
 import de.gematik.idp.gsi.server.services.TokenRepositoryRp;
 import de.gematik.idp.token.JsonWebToken;
@@ -76,14 +76,12 @@ public class FedIdpControllerPostParTest {
   @Autowired private GsiConfiguration gsiConfiguration;
   @MockitoBean private TokenRepositoryRp rpTokenRepository;
   private static MockedStatic<RequestValidator> requestValidatorMockedStatic;
-  private static MockedStatic<EntityStatementRpReader> esReaderMockedStatic;
   private String testHostUrl;
   @LocalServerPort private int serverPort;
   private String codeVerifier;
   private String redirectUri;
   private String fachdienstClientId;
-  private static final RpToken VALID_RPTOKEN =
-      new RpToken(new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043));
+  private RpToken validRpToken;
   private static final String CERT1_FROM_REQUEST =
       "-----BEGIN%20CERTIFICATE-----%0AMIIDszCCApugAwIBAgIUY%2FqefKABeWr36nT%2Brw9hJsbYFu8wDQYJKoZIhvcNAQEL%0ABQAwdjELMAkGA1UEBhMCREUxDzANBgNVBAgMBkJlcmxpbjEPMA0GA1UEBwwGQmVy%0AbGluMRkwFwYDVQQKDBBnZW1hdGlrVEVTVC1PTkxZMQ8wDQYDVQQLDAZQVCBJRE0x%0AGTAXBgNVBAMMEGZhZGlUbHNDbGllbnRSc2EwHhcNMjQwNjEzMDcxNjUyWhcNMjUw%0ANjEzMDcxNjUyWjB2MQswCQYDVQQGEwJERTEPMA0GA1UECAwGQmVybGluMQ8wDQYD%0AVQQHDAZCZXJsaW4xGTAXBgNVBAoMEGdlbWF0aWtURVNULU9OTFkxDzANBgNVBAsM%0ABlBUIElETTEZMBcGA1UEAwwQZmFkaVRsc0NsaWVudFJzYTCCASIwDQYJKoZIhvcN%0AAQEBBQADggEPADCCAQoCggEBAKiQaMTyY%2FlTTO9V4YJq7xsfN8l0%2BSqe2rRRasVU%0A8wenG8eohk99d1i5%2Fh08%2B%2BK1A5FX9GxgWh0RXGotpvbVvM7kzdOWxBJIK7j68R9g%0A%2F6B%2BKKO89rywLiJkxRT%2BOA4dusqocGDKmqFYZC1ntt2nSsSLlX3OuDC%2F1Thlhz2i%0AEGtweuYRL3zPeDXiegdyjRCY%2F9Xe%2FwaC4amuuJ5JkE5EsM0mL09kfkZCzdx8j2KK%0AqYTH2TYmiOG16CIVyZi9pE%2BKEHw95MIIcrzrO6QLWXcl7Y82rwVeeoUSicLBEydd%0A4YmsZ6pp%2BKGH0b9ycQO%2Bxs2uv79%2B5Zza9Q4OazEka4N0LyMCAwEAAaM5MDcwCQYD%0AVR0TBAIwADALBgNVHQ8EBAMCBeAwHQYDVR0OBBYEFMmogwgia7kONxur5UWBDX5g%0ABP0HMA0GCSqGSIb3DQEBCwUAA4IBAQAFK6nct1YVLMR6Tznh6ZrsvYs0UzCElUGM%0AnJtYaeCTgQPVKigQC4SPf%2FJp9qychooSbS7gbponndXgGIz8VFmt9y4d4q0uZKOr%0ALp7qcK%2BgQdvBts5TDZH20IiwW5b6VyGp%2Fos8fqR8WIt7fHdNz6Mu1fh2HsB4YjV9%0AxbbXTcKSzS6TROzh9bt2ubFX4ex56j6Mniy3DNF6zsW4kdh7naB%2FLfXvtH276Gj%2B%0AInhaF1sBLI8IIyQ5K2q2MJaly%2F8wiOys7FuG7duD1Lmh2kRO0FZkXsaQJmbZncUs%0A%2B4tgmnpEVgZ0FlKQ1BDAl0o0e7QbVRMiI2gjz7itOWFiUXvnMNIA%0A-----END%20CERTIFICATE-----%0A";
 
@@ -104,10 +102,7 @@ public class FedIdpControllerPostParTest {
     mockMvc = MockMvcBuilders.webAppContextSetup(context).build();
     log.info("START UNIT TEST: {}", testInfo.getDisplayName());
 
-    Mockito.doReturn(VALID_RPTOKEN).when(rpTokenRepository).getEntityStatementRp(any());
-
     requestValidatorMockedStatic = Mockito.mockStatic(RequestValidator.class);
-    esReaderMockedStatic = Mockito.mockStatic(EntityStatementRpReader.class);
 
     // key from gra-server/src/main/resources/keys/gras-enc-pubkey.pem
     final String JWK_AS_STRING_PUK_FED_ENC =
@@ -117,15 +112,18 @@ public class FedIdpControllerPostParTest {
             + " \"NQLaWbuQDHgSHahqb9zxlDdiMCHXSgY0L9ql1k7BVUE\",\"y\":"
             + " \"_USgmqhlM3pvabkZ2SS_YE2Q57tTs6pK9cE_uZB-u3c\"}";
 
-    esReaderMockedStatic
-        .when(() -> EntityStatementRpReader.getRpEncKey(any()))
-        .thenReturn(PublicJsonWebKey.Factory.newPublicJwk(JWK_AS_STRING_PUK_FED_ENC));
+    validRpToken =
+        new RpToken(
+            new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043),
+            RpMetadata.builder()
+                .encKey(PublicJsonWebKey.Factory.newPublicJwk(JWK_AS_STRING_PUK_FED_ENC))
+                .build());
+    Mockito.doReturn(validRpToken).when(rpTokenRepository).getEntityStatementRp(any());
   }
 
   @AfterEach
   void tearDown() {
     requestValidatorMockedStatic.close();
-    esReaderMockedStatic.close();
   }
 
   @SneakyThrows
@@ -446,7 +444,7 @@ public class FedIdpControllerPostParTest {
         .when(
             () ->
                 RequestValidator.validateCertificate(
-                    "AnyInvalidCert", VALID_RPTOKEN, gsiConfiguration.isClientCertRequired()))
+                    "AnyInvalidCert", validRpToken, gsiConfiguration.isClientCertRequired()))
         .thenThrow(
             new GsiException(
                 UNAUTHORIZED_CLIENT,
@@ -482,7 +480,7 @@ public class FedIdpControllerPostParTest {
         .when(
             () ->
                 RequestValidator.validateCertificate(
-                    CERT1_FROM_REQUEST, VALID_RPTOKEN, gsiConfiguration.isClientCertRequired()))
+                    CERT1_FROM_REQUEST, validRpToken, gsiConfiguration.isClientCertRequired()))
         .thenThrow(
             new GsiException(
                 UNAUTHORIZED_CLIENT,
@@ -36,6 +36,7 @@ import org.junit.jupiter.api.TestInstance;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 
 @SpringBootTest(
     classes = GsiServer.class,
@@ -65,6 +66,28 @@ public class FedIdpControllerSignedJwksTest {
         .isEqualTo("application/jwk-set+json;charset=UTF-8");
   }
 
+  @Test
+  void test_signedJwksResponse_Validators() {
+    assertThat(signedJwksResponseGood.getHeaders().getFirst(HttpHeaders.ETAG)).isNotBlank();
+    assertThat(signedJwksResponseGood.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED))
+        .isNotBlank();
+  }
+
+  @Test
+  void test_signedJwksResponse_reusedAndRevalidated_NotModified() {
+    final String etag = signedJwksResponseGood.getHeaders().getFirst(HttpHeaders.ETAG);
+    assertThat(retrieveSignedJwks().getBody()).isEqualTo(signedJwksResponseGood.getBody());
+    assertThat(signedJwksResponseGood.getHeaders().getFirst(HttpHeaders.CACHE_CONTROL))
+        .startsWith("max-age=")
+        .isNotEqualTo("max-age=0");
+    assertThat(
+            Unirest.get(testHostUrl + FED_SIGNED_JWKS_ENDPOINT)
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .asString()
+                .getStatus())
+        .isEqualTo(HttpStatus.NOT_MODIFIED.value());
+  }
+
   @Test
   void test_signedJwksResponse_JoseHeader() {
     assertThat(signedJwks.extractHeaderClaims()).containsOnlyKeys("typ", "alg", "kid");
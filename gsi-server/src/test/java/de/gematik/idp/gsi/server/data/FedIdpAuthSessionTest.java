@@ -25,7 +25,7 @@ import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
 import de.gematik.idp.crypto.Nonce;
 import de.gematik.idp.gsi.server.util.ClaimHelper;
-import java.time.ZonedDateTime;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
@@ -52,12 +52,12 @@ class FedIdpAuthSessionTest {
             .requestedOptionalClaims(ClaimHelper.getClaimsForScopeSet(scopes))
             .fachdienstRedirectUri("fachdienstRedirectUri")
             .authorizationCode(Nonce.getNonceAsHex(AUTH_CODE_LENGTH))
-            .expiresAt(ZonedDateTime.now().plusSeconds(REQUEST_URI_TTL_SECS).toString())
+            .expiresAt(Instant.now().plusSeconds(REQUEST_URI_TTL_SECS).toEpochMilli())
             .build();
 
     assertThat(fedIdpAuthSession).isNotNull();
     assertThat(fedIdpAuthSession.getFachdienstCodeChallenge()).isEqualTo("fachdienstCodeChallenge");
-    assertThat(fedIdpAuthSession.getExpiresAt()).hasSizeGreaterThan(0);
+    assertThat(fedIdpAuthSession.isExpired()).isFalse();
     assertThat(fedIdpAuthSession.getAuthorizationCode()).hasSize(AUTH_CODE_LENGTH);
     assertThat(fedIdpAuthSession.getFachdienstNonce()).isEqualTo("fachdienstNonce");
     assertThat(fedIdpAuthSession.getFachdienstRedirectUri()).isEqualTo("fachdienstRedirectUri");
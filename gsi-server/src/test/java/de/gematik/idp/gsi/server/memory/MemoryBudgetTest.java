@@ -0,0 +1,124 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.memory;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.gsi.server.configuration.MemoryBudgetConfiguration;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class MemoryBudgetTest {
+
+  private static final class TestCache implements BudgetedCache {
+
+    private final String name;
+    private final boolean evictable;
+    private long bytes;
+    private Long limit;
+
+    private TestCache(final String name, final long bytes, final boolean evictable) {
+      this.name = name;
+      this.bytes = bytes;
+      this.evictable = evictable;
+    }
+
+    @Override
+    public String cacheName() {
+      return name;
+    }
+
+    @Override
+    public long estimatedBytes() {
+      return bytes;
+    }
+
+    @Override
+    public void limitTo(final long maxBytes) {
+      limit = maxBytes;
+      bytes = Math.min(bytes, maxBytes);
+    }
+
+    @Override
+    public boolean isEvictable() {
+      return evictable;
+    }
+  }
+
+  private static MemoryBudget memoryBudget(
+      final List<BudgetedCache> caches, final MeterRegistry meterRegistry) {
+    // budget of 1000 bytes, limits lifted at 800 bytes
+    return new MemoryBudget(
+        MemoryBudgetConfiguration.builder().heapShare(0.5).releaseShare(0.8).build(),
+        caches,
+        meterRegistry,
+        2000);
+  }
+
+  @Test
+  void test_enforce_withinBudget_noLimits_VALID() {
+    final TestCache sessions = new TestCache("sessions", 600, true);
+    final TestCache persons = new TestCache("insured-persons", 400, false);
+
+    memoryBudget(List.of(sessions, persons), new SimpleMeterRegistry()).enforce();
+
+    assertThat(sessions.limit).isNull();
+    assertThat(persons.limit).isNull();
+  }
+
+  @Test
+  void test_enforce_overBudget_limitsEvictableCachesByShare_VALID() {
+    final TestCache sessions = new TestCache("sessions", 900, true);
+    final TestCache statements = new TestCache("rp-statements", 300, true);
+    final TestCache persons = new TestCache("insured-persons", 400, false);
+    final MemoryBudget memoryBudget =
+        memoryBudget(List.of(sessions, statements, persons), new SimpleMeterRegistry());
+
+    memoryBudget.enforce();
+
+    // 600 bytes remain after the insured persons, shared 3:1
+    assertThat(sessions.limit).isEqualTo(450);
+    assertThat(statements.limit).isEqualTo(150);
+    assertThat(persons.limit).isNull();
+
+    // fits into the budget again, but not below the release threshold
+    memoryBudget.enforce();
+    assertThat(sessions.limit).isEqualTo(450);
+    assertThat(statements.limit).isEqualTo(150);
+
+    sessions.bytes = 200;
+    memoryBudget.enforce();
+    assertThat(sessions.limit).isEqualTo(Long.MAX_VALUE);
+    assertThat(statements.limit).isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test
+  void test_usagePerCache_isPublished_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    memoryBudget(List.of(new TestCache("sessions", 600, true)), meterRegistry);
+
+    assertThat(meterRegistry.get("gsi.memory.used").tag("cache", "sessions").gauge().value())
+        .isEqualTo(600);
+    assertThat(meterRegistry.get("gsi.memory.budget").gauge().value()).isEqualTo(1000);
+  }
+}
@@ -27,18 +27,16 @@ import static de.gematik.idp.gsi.server.common.Constants.SIGNED_JWKS_TWO_CERTS;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
-import static org.mockito.ArgumentMatchers.any;
 
-import de.gematik.idp.gsi.server.data.RpToken;
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import org.junit.jupiter.api.Test;
-import org.mockito.MockedStatic;
-import org.mockito.Mockito;
 
 class EntityStatementRpReaderTest {
 
@@ -101,101 +99,110 @@ class EntityStatementRpReaderTest {
 
   @Test
   void test_getRpTlsClientCerts_VALID() {
-    try (final MockedStatic<HttpClient> mockedStatic = Mockito.mockStatic(HttpClient.class)) {
-      mockedStatic
-          .when(() -> HttpClient.fetchSignedJwks(any()))
-          .thenReturn(Optional.of(new JsonWebToken(SIGNED_JWKS)));
-      assertDoesNotThrow(() -> EntityStatementRpReader.getRpTlsClientCerts(VALID_ENTITY_STMNT));
-      assertThat(EntityStatementRpReader.getRpTlsClientCerts(VALID_ENTITY_STMNT)).isNotNull();
-    }
+    assertThat(rpMetadata(VALID_ENTITY_STMNT, SIGNED_JWKS).getTlsClientCerts()).isNotEmpty();
   }
 
   @Test
   void test_getRpTlsClientCerts_twoCerts_VALID() {
-    try (final MockedStatic<HttpClient> mockedStatic = Mockito.mockStatic(HttpClient.class)) {
-      mockedStatic
-          .when(() -> HttpClient.fetchSignedJwks(any()))
-          .thenReturn(Optional.of(new JsonWebToken(SIGNED_JWKS_TWO_CERTS)));
-      assertDoesNotThrow(() -> EntityStatementRpReader.getRpTlsClientCerts(VALID_ENTITY_STMNT));
-      final List<X509Certificate> certs =
-          EntityStatementRpReader.getRpTlsClientCerts(VALID_ENTITY_STMNT);
-      assertThat(certs).isNotNull();
-      assertThat(certs).hasSize(2);
-    }
+    final List<X509Certificate> certs =
+        rpMetadata(VALID_ENTITY_STMNT, SIGNED_JWKS_TWO_CERTS).getTlsClientCerts();
+    assertThat(certs).hasSize(2);
   }
 
   @Test
   void test_getRpTlsClientCerts_fromEntityStatementRp_VALID() {
-    assertDoesNotThrow(
-        () ->
-            EntityStatementRpReader.getRpTlsClientCerts(
-                new JsonWebToken(ENTITY_STATEMENT_WITH_CERT)));
-    assertThat(
-            EntityStatementRpReader.getRpTlsClientCerts(
-                new JsonWebToken(ENTITY_STATEMENT_WITH_CERT)))
-        .isNotNull();
+    assertThat(rpMetadata(new JsonWebToken(ENTITY_STATEMENT_WITH_CERT), null).getTlsClientCerts())
+        .isNotEmpty();
   }
 
   @Test
   void test_getRpTlsClientCerts_throwsException_INVALID() {
-    try (final MockedStatic<HttpClient> mockedStatic = Mockito.mockStatic(HttpClient.class)) {
-      mockedStatic
-          .when(() -> HttpClient.fetchSignedJwks(any()))
-          .thenReturn(Optional.of(new JsonWebToken(SIGNED_JWKS_WITHOUT_CERT)));
-      assertThatThrownBy(() -> EntityStatementRpReader.getRpTlsClientCerts(VALID_ENTITY_STMNT))
-          .isInstanceOf(GsiException.class)
-          .hasMessageContaining("No TLS client certificate for relying party found");
-    }
+    final RpMetadata rpMetadata = rpMetadata(VALID_ENTITY_STMNT, SIGNED_JWKS_WITHOUT_CERT);
+    assertThatThrownBy(rpMetadata::getTlsClientCerts)
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining("No TLS client certificate for relying party found");
   }
 
   @Test
   void test_getRpEncKey_fromSignedJwks_VALID() {
-    try (final MockedStatic<HttpClient> mockedStatic = Mockito.mockStatic(HttpClient.class)) {
-      mockedStatic
-          .when(() -> HttpClient.fetchSignedJwks(any()))
-          .thenReturn(Optional.of(new JsonWebToken(SIGNED_JWKS)));
-      assertDoesNotThrow(() -> EntityStatementRpReader.getRpEncKey(VALID_ENTITY_STMNT));
-      assertThat(EntityStatementRpReader.getRpEncKey(VALID_ENTITY_STMNT)).isNotNull();
-    }
+    assertThat(rpMetadata(VALID_ENTITY_STMNT, SIGNED_JWKS).getEncKey()).isNotNull();
   }
 
   @Test
   void test_getRpEncKey_fromEntityStatementRp_VALID() {
-    assertDoesNotThrow(
-        () ->
-            EntityStatementRpReader.getRpEncKey(
-                new JsonWebToken(ENTITY_STMNT_FACHDIENST_WITH_OPTIONAL_JWKS)));
     assertThat(
-            EntityStatementRpReader.getRpEncKey(
-                new JsonWebToken(ENTITY_STMNT_FACHDIENST_WITH_OPTIONAL_JWKS)))
+            rpMetadata(new JsonWebToken(ENTITY_STMNT_FACHDIENST_WITH_OPTIONAL_JWKS), null)
+                .getEncKey())
         .isNotNull();
   }
 
   @Test
   void test_getRpEncKey_throwsException_INVALID() {
-    try (final MockedStatic<HttpClient> mockedStatic = Mockito.mockStatic(HttpClient.class)) {
-      mockedStatic
-          .when(() -> HttpClient.fetchSignedJwks(any()))
-          .thenReturn(Optional.of(new JsonWebToken(SIGNED_JWKS_WITHOUT_ENCKEY)));
-      assertThatThrownBy(() -> EntityStatementRpReader.getRpEncKey(VALID_ENTITY_STMNT))
-          .isInstanceOf(GsiException.class)
-          .hasMessageContaining("Encryption key for relying party not found");
-    }
+    final RpMetadata rpMetadata = rpMetadata(VALID_ENTITY_STMNT, SIGNED_JWKS_WITHOUT_ENCKEY);
+    assertThatThrownBy(rpMetadata::getEncKey)
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining("Encryption key for relying party not found");
   }
 
   @Test
   void test_getIdTokenVersionSupported_VALID() {
-    assertThat(new RpToken(VALID_ENTITY_STMNT).getIdTokenVersionSupported())
+    assertThat(EntityStatementRpReader.getIdTokenVersionSupported(VALID_ENTITY_STMNT))
         .isEqualTo(Set.of("1.0.0"));
   }
 
   @Test
   void test_getIdTokenVersionSupported_hasClaimTiFeaturesSupported_VALID() {
-    final RpToken validRpTokenWithClaimTiFeaturesSupported =
-        new RpToken(
-            new JsonWebToken(
-                "eyJhbGciOiJFUzI1NiIsInR5cCI6ImVudGl0eS1zdGF0ZW1lbnQrand0Iiwia2lkIjoicHVrX2ZkX3NpZyJ9.ewogICJpc3MiOiAiaHR0cDovL2xvY2FsaG9zdDo4MDg0IiwKICAic3ViIjogImh0dHA6Ly9sb2NhbGhvc3Q6ODA4NCIsCiAgImlhdCI6IDE3MDIwNTA0NTEsCiAgImV4cCI6IDIzMzMyMDI0NTEsCiAgImp3a3MiOiB7CiAgICAia2V5cyI6IFsKICAgICAgewogICAgICAgICJ1c2UiOiAic2lnIiwKICAgICAgICAia2lkIjogInB1a19mZF9zaWciLAogICAgICAgICJrdHkiOiAiRUMiLAogICAgICAgICJjcnYiOiAiUC0yNTYiLAogICAgICAgICJ4IjogIjliSnMyN1lBZmxNVVdLNW54dWlGNlhBRzBKYXp1dndSaTFFcEZLMFhLaWsiLAogICAgICAgICJ5IjogIlA4bHpOVlJPZ1R1d2JEcXNkOHJUMUFJM3plejk0SEJzVERwT3ZhalAwclkiLAogICAgICAgICJhbGciOiAiRVMyNTYiCiAgICAgIH0KICAgIF0KICB9LAogICJhdXRob3JpdHlfaGludHMiOiBbCiAgICAiaHR0cHM6Ly9hcHAtdGVzdC5mZWRlcmF0aW9ubWFzdGVyLmRlIgogIF0sCiAgIm1ldGFkYXRhIjogewogICAgIm9wZW5pZF9yZWx5aW5nX3BhcnR5IjogewogICAgICAic2lnbmVkX2p3a3NfdXJpIjogImh0dHA6Ly9sb2NhbGhvc3Q6ODA4NC9qd3MuanNvbiIsCiAgICAgICJvcmdhbml6YXRpb25fbmFtZSI6ICJGYWNoZGllbnN0MDA3IGRlcyBGZWRJZHAgUE9DcyIsCiAgICAgICJjbGllbnRfbmFtZSI6ICJGYWNoZGllbnN0MDA3IiwKICAgICAgImxvZ29fdXJpIjogImh0dHA6Ly9sb2NhbGhvc3Q6ODA4NC9ub0xvZ29ZZXQiLAogICAgICAicmVkaXJlY3RfdXJpcyI6IFsKICAgICAgICAiaHR0cHM6Ly9GYWNoZGllbnN0MDA3LmRlL2NsaWVudCIsCiAgICAgICAgImh0dHBzOi8vcmVkaXJlY3QudGVzdHN1aXRlLmdzaSIsCiAgICAgICAgImh0dHBzOi8vaWRwZmFkaS5kZXYuZ2VtYXRpay5zb2x1dGlvbnMvYXV0aCIKICAgICAgXSwKICAgICAgInJlc3BvbnNlX3R5cGVzIjogWwogICAgICAgICJjb2RlIgogICAgICBdLAogICAgICAiY2xpZW50X3JlZ2lzdHJhdGlvbl90eXBlcyI6IFsKICAgICAgICAiYXV0b21hdGljIgogICAgICBdLAogICAgICAiZ3JhbnRfdHlwZXMiOiBbCiAgICAgICAgImF1dGhvcml6YXRpb25fY29kZSIKICAgICAgXSwKICAgICAgInJlcXVpcmVfcHVzaGVkX2F1dGhvcml6YXRpb25fcmVxdWVzdHMiOiB0cnVlLAogICAgICAidG9rZW5fZW5kcG9pbnRfYXV0aF9tZXRob2QiOiAic2VsZl9zaWduZWRfdGxzX2NsaWVudF9hdXRoIiwKICAgICAgImRlZmF1bHRfYWNyX3ZhbHVlcyI6IFsKICAgICAgICAiZ2VtYXRpay1laGVhbHRoLWxvYS1oaWdoIgogICAgICBdLAogICAgICAiaWRfdG9rZW5fc2lnbmVkX3Jlc3BvbnNlX2FsZyI6ICJFUzI1NiIsCiAgICAgICJpZF90b2tlbl9lbmNyeXB0ZWRfcmVzcG9uc2VfYWxnIjogIkVDREgtRVMiLAogICAgICAiaWRfdG9rZW5fZW5jcnlwdGVkX3Jlc3BvbnNlX2VuYyI6ICJBMjU2R0NNIiwKICAgICAgInNjb3BlIjogInVybjp0ZWxlbWF0aWs6ZGlzcGxheV9uYW1lIHVybjp0ZWxlbWF0aWs6dmVyc2ljaGVydGVyIG9wZW5pZCIsCiAgICAgICJ0aV9mZWF0dXJlc19zdXBwb3J0ZWQiOnsKICAgICAgICAiaWRfdG9rZW5fdmVyc2lvbl9zdXBwb3J0ZWQiOiBbCiAgICAgICAgICAiMS4wLjAiLAogICAgICAgICAgIjIuMC4wIgogICAgICAgIF0KICAgICB9IAogICAgfSwKICAgICJmZWRlcmF0aW9uX2VudGl0eSI6IHsKICAgICAgIm5hbWUiOiAiRmFjaGRpZW5zdDAwNyIsCiAgICAgICJjb250YWN0cyI6IFsKICAgICAgICAiU3VwcG9ydEBGYWNoZGllbnN0MDA3LmRlIgogICAgICBdLAogICAgICAiaG9tZXBhZ2VfdXJpIjogImh0dHBzOi8vRmFjaGRpZW5zdDAwNy5kZSIKICAgIH0KICB9Cn0.XomqqjzmGfu3LFySjaKrfHcFStBK8lWW8uxH9HmNhdYoslBVd4z5t6I_DQQ2gbe5WWvKoGl0pVpGlGf5oIGR7Q"));
-    assertThat(validRpTokenWithClaimTiFeaturesSupported.getIdTokenVersionSupported())
+    final JsonWebToken validEntityStmntWithClaimTiFeaturesSupported =
+        new JsonWebToken(
+            "eyJhbGciOiJFUzI1NiIsInR5cCI6ImVudGl0eS1zdGF0ZW1lbnQrand0Iiwia2lkIjoicHVrX2ZkX3NpZyJ9.ewogICJpc3MiOiAiaHR0cDovL2xvY2FsaG9zdDo4MDg0IiwKICAic3ViIjogImh0dHA6Ly9sb2NhbGhvc3Q6ODA4NCIsCiAgImlhdCI6IDE3MDIwNTA0NTEsCiAgImV4cCI6IDIzMzMyMDI0NTEsCiAgImp3a3MiOiB7CiAgICAia2V5cyI6IFsKICAgICAgewogICAgICAgICJ1c2UiOiAic2lnIiwKICAgICAgICAia2lkIjogInB1a19mZF9zaWciLAogICAgICAgICJrdHkiOiAiRUMiLAogICAgICAgICJjcnYiOiAiUC0yNTYiLAogICAgICAgICJ4IjogIjliSnMyN1lBZmxNVVdLNW54dWlGNlhBRzBKYXp1dndSaTFFcEZLMFhLaWsiLAogICAgICAgICJ5IjogIlA4bHpOVlJPZ1R1d2JEcXNkOHJUMUFJM3plejk0SEJzVERwT3ZhalAwclkiLAogICAgICAgICJhbGciOiAiRVMyNTYiCiAgICAgIH0KICAgIF0KICB9LAogICJhdXRob3JpdHlfaGludHMiOiBbCiAgICAiaHR0cHM6Ly9hcHAtdGVzdC5mZWRlcmF0aW9ubWFzdGVyLmRlIgogIF0sCiAgIm1ldGFkYXRhIjogewogICAgIm9wZW5pZF9yZWx5aW5nX3BhcnR5IjogewogICAgICAic2lnbmVkX2p3a3NfdXJpIjogImh0dHA6Ly9sb2NhbGhvc3Q6ODA4NC9qd3MuanNvbiIsCiAgICAgICJvcmdhbml6YXRpb25fbmFtZSI6ICJGYWNoZGllbnN0MDA3IGRlcyBGZWRJZHAgUE9DcyIsCiAgICAgICJjbGllbnRfbmFtZSI6ICJGYWNoZGllbnN0MDA3IiwKICAgICAgImxvZ29fdXJpIjogImh0dHA6Ly9sb2NhbGhvc3Q6ODA4NC9ub0xvZ29ZZXQiLAogICAgICAicmVkaXJlY3RfdXJpcyI6IFsKICAgICAgICAiaHR0cHM6Ly9GYWNoZGllbnN0MDA3LmRlL2NsaWVudCIsCiAgICAgICAgImh0dHBzOi8vcmVkaXJlY3QudGVzdHN1aXRlLmdzaSIsCiAgICAgICAgImh0dHBzOi8vaWRwZmFkaS5kZXYuZ2VtYXRpay5zb2x1dGlvbnMvYXV0aCIKICAgICAgXSwKICAgICAgInJlc3BvbnNlX3R5cGVzIjogWwogICAgICAgICJjb2RlIgogICAgICBdLAogICAgICAiY2xpZW50X3JlZ2lzdHJhdGlvbl90eXBlcyI6IFsKICAgICAgICAiYXV0b21hdGljIgogICAgICBdLAogICAgICAiZ3JhbnRfdHlwZXMiOiBbCiAgICAgICAgImF1dGhvcml6YXRpb25fY29kZSIKICAgICAgXSwKICAgICAgInJlcXVpcmVfcHVzaGVkX2F1dGhvcml6YXRpb25fcmVxdWVzdHMiOiB0cnVlLAogICAgICAidG9rZW5fZW5kcG9pbnRfYXV0aF9tZXRob2QiOiAic2VsZl9zaWduZWRfdGxzX2NsaWVudF9hdXRoIiwKICAgICAgImRlZmF1bHRfYWNyX3ZhbHVlcyI6IFsKICAgICAgICAiZ2VtYXRpay1laGVhbHRoLWxvYS1oaWdoIgogICAgICBdLAogICAgICAiaWRfdG9rZW5fc2lnbmVkX3Jlc3BvbnNlX2FsZyI6ICJFUzI1NiIsCiAgICAgICJpZF90b2tlbl9lbmNyeXB0ZWRfcmVzcG9uc2VfYWxnIjogIkVDREgtRVMiLAogICAgICAiaWRfdG9rZW5fZW5jcnlwdGVkX3Jlc3BvbnNlX2VuYyI6ICJBMjU2R0NNIiwKICAgICAgInNjb3BlIjogInVybjp0ZWxlbWF0aWs6ZGlzcGxheV9uYW1lIHVybjp0ZWxlbWF0aWs6dmVyc2ljaGVydGVyIG9wZW5pZCIsCiAgICAgICJ0aV9mZWF0dXJlc19zdXBwb3J0ZWQiOnsKICAgICAgICAiaWRfdG9rZW5fdmVyc2lvbl9zdXBwb3J0ZWQiOiBbCiAgICAgICAgICAiMS4wLjAiLAogICAgICAgICAgIjIuMC4wIgogICAgICAgIF0KICAgICB9IAogICAgfSwKICAgICJmZWRlcmF0aW9uX2VudGl0eSI6IHsKICAgICAgIm5hbWUiOiAiRmFjaGRpZW5zdDAwNyIsCiAgICAgICJjb250YWN0cyI6IFsKICAgICAgICAiU3VwcG9ydEBGYWNoZGllbnN0MDA3LmRlIgogICAgICBdLAogICAgICAiaG9tZXBhZ2VfdXJpIjogImh0dHBzOi8vRmFjaGRpZW5zdDAwNy5kZSIKICAgIH0KICB9Cn0.XomqqjzmGfu3LFySjaKrfHcFStBK8lWW8uxH9HmNhdYoslBVd4z5t6I_DQQ2gbe5WWvKoGl0pVpGlGf5oIGR7Q");
+    assertThat(
+            EntityStatementRpReader.getIdTokenVersionSupported(
+                validEntityStmntWithClaimTiFeaturesSupported))
         .isEqualTo(Set.of("1.0.0", "2.0.0"));
   }
+
+  @Test
+  void test_getRpMetadata_keysFromSignedJwks_VALID() {
+    final List<String> requestedUris = new ArrayList<>();
+    final RpMetadata rpMetadata =
+        EntityStatementRpReader.getRpMetadata(
+            VALID_ENTITY_STMNT,
+            VALID_ENTITY_STMNT,
+            uri -> {
+              requestedUris.add(uri);
+              return Optional.of(new JsonWebToken(SIGNED_JWKS));
+            });
+
+    final List<X509Certificate> certs = rpMetadata.getTlsClientCerts();
+    assertThat(rpMetadata.isTlsClientCertRegistered(certs.getFirst())).isTrue();
+    assertThat(rpMetadata.isRedirectUriRegistered("https://Fachdienst007.de/client")).isTrue();
+    assertThat(rpMetadata.areScopesRegistered(List.of("openid", "urn:telematik:versicherter")))
+        .isTrue();
+    assertThat(rpMetadata.idTokenVersionsSupported()).isEqualTo(Set.of("1.0.0"));
+    assertThat(rpMetadata.signedJwksUri()).isEqualTo("http://localhost:8084/jws.json");
+    assertThat(requestedUris).containsExactly("http://localhost:8084/jws.json");
+  }
+
+  @Test
+  void test_getRpMetadata_keysFromEntityStatementRp_noSignedJwksRequested_VALID() {
+    final RpMetadata rpMetadata =
+        EntityStatementRpReader.getRpMetadata(
+            VALID_ENTITY_STMNT,
+            new JsonWebToken(ENTITY_STATEMENT_WITH_CERT),
+            uri -> {
+              throw new AssertionError("signed_jwks requested: " + uri);
+            });
+
+    assertThat(rpMetadata.getEncKey()).isNotNull();
+    assertThat(rpMetadata.getTlsClientCerts()).hasSize(1);
+    assertThat(rpMetadata.signedJwksUri()).isNull();
+  }
+
+  private static RpMetadata rpMetadata(
+      final JsonWebToken entityStmntRp, final String signedJwksOfRp) {
+    return EntityStatementRpReader.getRpMetadata(
+        VALID_ENTITY_STMNT,
+        entityStmntRp,
+        uri -> Optional.ofNullable(signedJwksOfRp).map(JsonWebToken::new));
+  }
 }
@@ -21,24 +21,29 @@
 package de.gematik.idp.gsi.server.services;
 
 import static de.gematik.idp.gsi.server.common.Constants.ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043;
+import static de.gematik.idp.gsi.server.common.Constants.SIGNED_JWKS;
+import static de.gematik.idp.gsi.server.common.Constants.SIGNED_JWKS_TWO_CERTS;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
 import org.junit.jupiter.api.Test;
 
 class EntityStatementRpVerifierTest {
 
-  private static final JsonWebToken VALID_ENTITY_STMNT =
-      new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043);
+  private static final RpMetadata VALID_RP_METADATA =
+      EntityStatementRpReader.withRegistration(
+          RpMetadata.builder().build(),
+          new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043));
 
   @Test
   void test_verifyRedirectUriExistsInEntityStmnt_VALID() {
     assertDoesNotThrow(
         () ->
             EntityStatementRpVerifier.verifyRedirectUriExistsInEntityStmnt(
-                VALID_ENTITY_STMNT, "https://Fachdienst007.de/client"));
+                VALID_RP_METADATA, "https://Fachdienst007.de/client"));
   }
 
   @Test
@@ -47,7 +52,7 @@ class EntityStatementRpVerifierTest {
     assertThatThrownBy(
             () ->
                 EntityStatementRpVerifier.verifyRedirectUriExistsInEntityStmnt(
-                    VALID_ENTITY_STMNT, invalidRedirectUri))
+                    VALID_RP_METADATA, invalidRedirectUri))
         .isInstanceOf(GsiException.class)
         .hasMessageContaining(
             "Content of parameter redirect_uri ["
@@ -60,8 +65,7 @@ class EntityStatementRpVerifierTest {
     assertDoesNotThrow(
         () ->
             EntityStatementRpVerifier.verifyRequestedScopesListedInEntityStmnt(
-                VALID_ENTITY_STMNT,
-                "urn:telematik:display_name urn:telematik:versicherter openid"));
+                VALID_RP_METADATA, "urn:telematik:display_name urn:telematik:versicherter openid"));
   }
 
   @Test
@@ -70,11 +74,36 @@ class EntityStatementRpVerifierTest {
     assertThatThrownBy(
             () ->
                 EntityStatementRpVerifier.verifyRequestedScopesListedInEntityStmnt(
-                    VALID_ENTITY_STMNT, "urn:telematik:display_name urn:telematik:alter openid"))
+                    VALID_RP_METADATA, "urn:telematik:display_name urn:telematik:alter openid"))
         .isInstanceOf(GsiException.class)
         .hasMessageContaining(
             "Content of parameter scope ["
                 + invalidScopes
                 + "] exceeds scopes found in entity statement. ");
   }
+
+  @Test
+  void test_verifySignedJwks_VALID() {
+    assertDoesNotThrow(
+        () ->
+            EntityStatementRpVerifier.verifySignedJwks(
+                new JsonWebToken(SIGNED_JWKS),
+                new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043)));
+  }
+
+  @Test
+  void test_verifySignedJwks_invalidSignature_INVALID() {
+    // keys of one signed_jwks with the signature of another
+    final String signedJwksInvalidSig =
+        SIGNED_JWKS_TWO_CERTS.substring(0, SIGNED_JWKS_TWO_CERTS.lastIndexOf('.'))
+            + SIGNED_JWKS.substring(SIGNED_JWKS.lastIndexOf('.'));
+    assertThatThrownBy(
+            () ->
+                EntityStatementRpVerifier.verifySignedJwks(
+                    new JsonWebToken(signedJwksInvalidSig),
+                    new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043)))
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining(
+            "The JWT signature of the signed_jwks of the relying party was invalid.");
+  }
 }
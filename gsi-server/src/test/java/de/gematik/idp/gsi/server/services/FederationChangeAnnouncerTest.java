@@ -0,0 +1,186 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
+import static de.gematik.idp.gsi.server.data.GsiConstants.FEDMASTER_FED_CHANGES_ENDPOINT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import de.gematik.idp.authentication.IdpJwtProcessor;
+import de.gematik.idp.crypto.KeyUtility;
+import de.gematik.idp.gsi.server.configuration.HttpClientConfiguration;
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import de.gematik.idp.token.JsonWebToken;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.File;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Map;
+import lombok.SneakyThrows;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class FederationChangeAnnouncerTest {
+
+  private static final String SERVER_URL = "http://127.0.0.1:8085";
+
+  private final TokenRepositoryRp tokenRepositoryRp = Mockito.mock(TokenRepositoryRp.class);
+  private final ServerUrlService serverUrlService = Mockito.mock(ServerUrlService.class);
+  private final HttpClient httpClient =
+      new HttpClient(HttpClientConfiguration.builder().build(), new SimpleMeterRegistry());
+  private final RpCacheConfiguration rpCacheConfiguration =
+      RpCacheConfiguration.builder().changeFeedEnabled(true).build();
+  private WireMockServer fedmaster;
+  private FederationChangeAnnouncer federationChangeAnnouncer;
+
+  @SneakyThrows
+  @BeforeEach
+  void init() {
+    fedmaster = new WireMockServer(WireMockConfiguration.options().dynamicPort());
+    fedmaster.start();
+    Mockito.doReturn(fedmaster.baseUrl()).when(serverUrlService).determineFedmasterUrl();
+    Mockito.doReturn(SERVER_URL).when(serverUrlService).determineServerUrl();
+    federationChangeAnnouncer =
+        new FederationChangeAnnouncer(
+            httpClient,
+            serverUrlService,
+            new IdpJwtProcessor(
+                KeyUtility.readX509PrivateKeyPlain(
+                    new File("src/main/resources/keys/ref-gsi-sig-privkey.pem")),
+                "puk_idp_sig"),
+            rpCacheConfiguration);
+  }
+
+  @AfterEach
+  void tearDown() {
+    fedmaster.stop();
+  }
+
+  private void stubAnnouncement(final int status) {
+    fedmaster.stubFor(
+        post(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT))
+            .willReturn(aResponse().withStatus(status).withBody("{\"seq\":4,\"sub\":\"x\"}")));
+  }
+
+  private JsonWebToken postedAnnouncement() {
+    final String body =
+        fedmaster
+            .findAll(postRequestedFor(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT)))
+            .getFirst()
+            .getBodyAsString();
+    return new JsonWebToken(
+        URLDecoder.decode(body.substring("announcement=".length()), StandardCharsets.UTF_8));
+  }
+
+  @SneakyThrows
+  @Test
+  void test_announce_postsAnnouncementSignedWithEntityStatementKey_VALID() {
+    stubAnnouncement(200);
+
+    federationChangeAnnouncer.announce();
+    federationChangeAnnouncer.announce();
+
+    fedmaster.verify(1, postRequestedFor(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT)));
+    final JsonWebToken announcement = postedAnnouncement();
+    announcement.verify(
+        KeyUtility.readX509PublicKey(new File("src/main/resources/keys/ref-gsi-sig-pubkey.pem")));
+    final Map<String, Object> claims = announcement.getBodyClaims();
+    assertThat(claims)
+        .containsEntry("iss", SERVER_URL)
+        .containsEntry("sub", SERVER_URL)
+        .containsEntry("aud", fedmaster.baseUrl());
+    assertThat(((Number) claims.get("exp")).longValue())
+        .isLessThanOrEqualTo(Instant.now().plusSeconds(300).getEpochSecond());
+  }
+
+  @Test
+  void test_announce_rejected_isRetried_VALID() {
+    stubAnnouncement(503);
+    federationChangeAnnouncer.announce();
+    stubAnnouncement(200);
+
+    federationChangeAnnouncer.announce();
+    federationChangeAnnouncer.announce();
+
+    fedmaster.verify(2, postRequestedFor(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT)));
+  }
+
+  @Test
+  void test_announce_changeFeedDisabled_announcesNothing_VALID() {
+    stubAnnouncement(200);
+    rpCacheConfiguration.setChangeFeedEnabled(false);
+
+    federationChangeAnnouncer.announce();
+
+    fedmaster.verify(0, postRequestedFor(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT)));
+  }
+
+  @Test
+  void test_announcedChange_reachesFeedAndInvalidatesMember_VALID() {
+    final FederationChangeFeed federationChangeFeed =
+        new FederationChangeFeed(
+            tokenRepositoryRp, httpClient, serverUrlService, rpCacheConfiguration);
+    // the fedmaster lists the change once it accepted the announcement
+    fedmaster.stubFor(
+        post(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT))
+            .inScenario("changes")
+            .whenScenarioStateIs(STARTED)
+            .willReturn(aResponse().withBody("{\"seq\":4,\"sub\":\"" + SERVER_URL + "\"}"))
+            .willSetStateTo("announced"));
+    fedmaster.stubFor(
+        get(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT))
+            .withQueryParam("since", equalTo("0"))
+            .willReturn(
+                aResponse()
+                    .withBody(
+                        "{\"epoch\":\"epoch-1\",\"seq\":3,\"truncated\":false,\"changes\":[]}")));
+    fedmaster.stubFor(
+        get(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT))
+            .withQueryParam("since", equalTo("3"))
+            .inScenario("changes")
+            .whenScenarioStateIs("announced")
+            .willReturn(
+                aResponse()
+                    .withBody(
+                        "{\"epoch\":\"epoch-1\",\"seq\":4,\"truncated\":false,\"changes\":[{\"seq\":4,\"sub\":\""
+                            + SERVER_URL
+                            + "\"}]}")));
+
+    federationChangeFeed.poll();
+    federationChangeAnnouncer.announce();
+    federationChangeFeed.poll();
+
+    assertThat(postedAnnouncement().getBodyClaims()).containsEntry("sub", SERVER_URL);
+    Mockito.verify(tokenRepositoryRp).invalidate(SERVER_URL);
+    Mockito.verifyNoMoreInteractions(tokenRepositoryRp);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static de.gematik.idp.gsi.server.data.GsiConstants.FEDMASTER_FED_CHANGES_ENDPOINT;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import de.gematik.idp.gsi.server.configuration.HttpClientConfiguration;
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class FederationChangeFeedTest {
+
+  private final TokenRepositoryRp tokenRepositoryRp = Mockito.mock(TokenRepositoryRp.class);
+  private final ServerUrlService serverUrlService = Mockito.mock(ServerUrlService.class);
+  private final HttpClient httpClient =
+      new HttpClient(HttpClientConfiguration.builder().build(), new SimpleMeterRegistry());
+  private WireMockServer fedmaster;
+  private FederationChangeFeed federationChangeFeed;
+
+  @BeforeEach
+  void init() {
+    fedmaster = new WireMockServer(WireMockConfiguration.options().dynamicPort());
+    fedmaster.start();
+    Mockito.doReturn(fedmaster.baseUrl()).when(serverUrlService).determineFedmasterUrl();
+    federationChangeFeed =
+        new FederationChangeFeed(
+            tokenRepositoryRp,
+            httpClient,
+            serverUrlService,
+            RpCacheConfiguration.builder().changeFeedEnabled(true).build());
+    stubChanges(0, "{\"epoch\":\"epoch-1\",\"seq\":3,\"truncated\":false,\"changes\":[]}");
+  }
+
+  @AfterEach
+  void tearDown() {
+    fedmaster.stop();
+  }
+
+  private void stubChanges(final long since, final String body) {
+    fedmaster.stubFor(
+        get(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT))
+            .withQueryParam("since", equalTo(String.valueOf(since)))
+            .willReturn(aResponse().withBody(body)));
+  }
+
+  @Test
+  void test_poll_invalidatesChangedMembers_VALID() {
+    stubChanges(
+        3,
+        "{\"epoch\":\"epoch-1\",\"seq\":5,\"truncated\":false,\"changes\":[{\"seq\":4,\"sub\":\"http://rp-1:8084\"},{\"seq\":5,\"sub\":\"http://rp-1:8084\"}]}");
+
+    federationChangeFeed.poll();
+    Mockito.verifyNoInteractions(tokenRepositoryRp);
+
+    federationChangeFeed.poll();
+    Mockito.verify(tokenRepositoryRp).invalidate("http://rp-1:8084");
+    Mockito.verifyNoMoreInteractions(tokenRepositoryRp);
+  }
+
+  @Test
+  void test_poll_newEpoch_invalidatesAll_VALID() {
+    stubChanges(3, "{\"epoch\":\"epoch-2\",\"seq\":1,\"truncated\":false,\"changes\":[]}");
+
+    federationChangeFeed.poll();
+    federationChangeFeed.poll();
+
+    Mockito.verify(tokenRepositoryRp).invalidateAll();
+  }
+
+  @Test
+  void test_poll_fedmasterUnavailable_keepsStatements_VALID() {
+    federationChangeFeed.poll();
+    fedmaster.stubFor(
+        get(urlPathEqualTo(FEDMASTER_FED_CHANGES_ENDPOINT))
+            .willReturn(aResponse().withStatus(503)));
+
+    federationChangeFeed.poll();
+
+    Mockito.verifyNoInteractions(tokenRepositoryRp);
+  }
+}
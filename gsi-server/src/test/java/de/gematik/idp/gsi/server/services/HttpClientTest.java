@@ -20,161 +20,329 @@
 
 package de.gematik.idp.gsi.server.services;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
-import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.mockStatic;
-import static org.mockito.Mockito.when;
 
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
 import de.gematik.idp.IdpConstants;
+import de.gematik.idp.gsi.server.configuration.HttpClientConfiguration;
+import de.gematik.idp.gsi.server.data.ConditionalResponse;
+import de.gematik.idp.gsi.server.data.HttpValidators;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.SSLException;
-import kong.unirest.core.GetRequest;
-import kong.unirest.core.HttpResponse;
-import kong.unirest.core.Unirest;
-import kong.unirest.core.UnirestException;
+import org.awaitility.Awaitility;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.MockedStatic;
-import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 
-@ExtendWith(MockitoExtension.class)
 class HttpClientTest {
 
-  private static final String ANY_URL = "https://gsi.dev.therapy.app";
-  private MockedStatic<Unirest> unirestMock;
+  private static final String TEST_JSON = "{\"some\": \"json\"}";
+  private static final String TEST_SUB = "sub42";
+
+  private WireMockServer wireMockServer;
+  private MeterRegistry meterRegistry;
+  private HttpClient httpClient;
 
   @BeforeEach
   void setUp() {
-    unirestMock = mockStatic(Unirest.class);
+    wireMockServer =
+        new WireMockServer(WireMockConfiguration.options().dynamicPort().dynamicHttpsPort());
+    wireMockServer.start();
+    meterRegistry = new SimpleMeterRegistry();
+    httpClient =
+        new HttpClient(
+            HttpClientConfiguration.builder()
+                .requestTimeoutMillis(1500)
+                .maxResponseBytes(1024)
+                .circuitBreakerFailureThreshold(2)
+                .circuitBreakerOpenMillis(300)
+                .build(),
+            meterRegistry);
   }
 
   @AfterEach
   void tearDown() {
-    unirestMock.close();
+    wireMockServer.stop();
+  }
+
+  // baseUrl() is the https one once https is enabled
+  private String httpUrl() {
+    return "http://localhost:" + wireMockServer.port();
   }
 
   @Test
   void test_fetchEntityStatementRpSSLException() {
+    // the self-signed certificate of WireMock is not trusted
+    final String issuer = "https://localhost:" + wireMockServer.httpsPort();
 
-    final GetRequest mockedRequest = mock(GetRequest.class);
-
-    unirestMock
-        .when(() -> Unirest.get(ANY_URL + IdpConstants.ENTITY_STATEMENT_ENDPOINT))
-        .thenReturn(mockedRequest);
-
-    when(mockedRequest.asString())
-        .thenThrow(new UnirestException("SSL error", new SSLException("TLS handshake failed")));
-
-    assertThatThrownBy(() -> HttpClient.fetchEntityStatementRp(ANY_URL))
+    assertThatThrownBy(() -> httpClient.fetchEntityStatementRp(issuer, HttpValidators.NONE))
         .isInstanceOf(GsiException.class)
-        .hasMessageContaining(
-            "SSL certificate validation failed for relying party ["
-                + ANY_URL
-                + "] available. Reason: SSL error")
-        .hasCauseInstanceOf(UnirestException.class)
-        .cause()
-        .hasCauseInstanceOf(SSLException.class)
-        .cause()
-        .hasMessageContaining("TLS handshake failed");
+        .hasMessageContaining("SSL certificate validation failed for relying party [" + issuer)
+        .hasCauseInstanceOf(SSLException.class);
   }
 
   @Test
-  void test_fetchEntityStatementRpUnirestException() {
-
-    final GetRequest mockedRequest = mock(GetRequest.class);
-
-    unirestMock
-        .when(() -> Unirest.get(ANY_URL + IdpConstants.ENTITY_STATEMENT_ENDPOINT))
-        .thenReturn(mockedRequest);
+  void test_fetchEntityStatementRpConnectionRefused() {
+    final String issuer = httpUrl();
+    wireMockServer.stop();
 
-    when(mockedRequest.asString()).thenThrow(new UnirestException("REST error"));
-
-    assertThatThrownBy(() -> HttpClient.fetchEntityStatementRp(ANY_URL))
+    assertThatThrownBy(() -> httpClient.fetchEntityStatementRp(issuer, HttpValidators.NONE))
         .isInstanceOf(GsiException.class)
         .hasMessageContaining(
-            "400 BAD_REQUEST \"Error when fetching entity statement of ["
-                + ANY_URL
-                + "]. Reason: REST error\"");
+            "400 BAD_REQUEST \"Error when fetching entity statement of [" + issuer + "]");
   }
 
   @Test
   void test_fetchEntityStatementRpHttp200() {
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withBody(TEST_JSON)));
 
-    final GetRequest mockedRequest = mock(GetRequest.class);
-    final HttpResponse<String> mockedResponse = mock(HttpResponse.class);
-    final String testSub = "sub42";
-    final String testJson = "{\"some\": \"json\"}";
-
-    unirestMock
-        .when(() -> Unirest.get(ANY_URL + IdpConstants.ENTITY_STATEMENT_ENDPOINT))
-        .thenReturn(mockedRequest);
-
-    when(mockedResponse.getStatus()).thenReturn(200);
-    when(mockedResponse.getBody()).thenReturn(testJson);
+    final ConditionalResponse<RpToken> result =
+        httpClient.fetchEntityStatementRp(httpUrl(), HttpValidators.NONE);
 
-    when(mockedRequest.asString()).thenReturn(mockedResponse);
-
-    final RpToken result = HttpClient.fetchEntityStatementRp(ANY_URL);
+    assertThat(result.body()).isPresent();
+  }
 
-    assertThat(result).isNotNull();
+  @Test
+  void test_fetchEntityStatementRpNotModified() {
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(
+                aResponse()
+                    .withHeader(HttpHeaders.ETAG, "\"v1\"")
+                    .withHeader(HttpHeaders.LAST_MODIFIED, "Wed, 21 Oct 2026 07:28:00 GMT")
+                    .withHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=600")
+                    .withBody(TEST_JSON)));
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .withHeader(HttpHeaders.IF_NONE_MATCH, equalTo("\"v1\""))
+            .withHeader(HttpHeaders.IF_MODIFIED_SINCE, equalTo("Wed, 21 Oct 2026 07:28:00 GMT"))
+            .willReturn(aResponse().withStatus(304)));
+
+    final ConditionalResponse<RpToken> fetched =
+        httpClient.fetchEntityStatementRp(httpUrl(), HttpValidators.NONE);
+    assertThat(fetched.validators().etag()).isEqualTo("\"v1\"");
+    assertThat(fetched.validators().maxAge()).isEqualTo(Duration.ofSeconds(600));
+
+    final ConditionalResponse<RpToken> revalidated =
+        httpClient.fetchEntityStatementRp(httpUrl(), fetched.validators());
+    assertThat(revalidated.isNotModified()).isTrue();
+    // validators left out of the 304 are kept
+    assertThat(revalidated.validators().etag()).isEqualTo("\"v1\"");
+    assertThat(revalidated.validators().lastModified()).isEqualTo("Wed, 21 Oct 2026 07:28:00 GMT");
   }
 
   @Test
-  void test_fetchEntityStatementAboutRpHttp200() {
+  void test_fetchEntityStatementRpTimeout() {
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withFixedDelay(4000).withBody(TEST_JSON)));
 
-    final GetRequest mockedRequest = mock(GetRequest.class);
-    final HttpResponse<String> mockedResponse = mock(HttpResponse.class);
-    final String testSub = "sub42";
-    final String testJson = "{\"some\": \"json\"}";
+    final long start = System.nanoTime();
+    assertThatThrownBy(() -> httpClient.fetchEntityStatementRp(httpUrl(), HttpValidators.NONE))
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining("Error when fetching entity statement of");
+    assertThat(System.nanoTime() - start).isLessThan(3_000_000_000L);
+  }
 
-    unirestMock
-        .when(() -> Unirest.get(ANY_URL + IdpConstants.ENTITY_STATEMENT_ENDPOINT))
-        .thenReturn(mockedRequest);
-    when(mockedRequest.queryString(eq("iss"), eq(ANY_URL))).thenReturn(mockedRequest);
-    when(mockedRequest.queryString(eq("sub"), eq(testSub))).thenReturn(mockedRequest);
+  @Test
+  void test_fetchEntityStatementRpResponseTooLarge() {
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withBody("x".repeat(4096))));
 
-    when(mockedResponse.getStatus()).thenReturn(200);
-    when(mockedResponse.getBody()).thenReturn(testJson);
+    assertThatThrownBy(() -> httpClient.fetchEntityStatementRp(httpUrl(), HttpValidators.NONE))
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining("Response body exceeds 1024 bytes");
+  }
 
-    when(mockedRequest.asString()).thenReturn(mockedResponse);
+  @Test
+  void test_fetchEntityStatementAboutRpHttp200() {
+    final String fedmasterUrl = httpUrl();
+    wireMockServer.stubFor(
+        get(urlPathEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withBody(TEST_JSON)));
+
+    final ConditionalResponse<JsonWebToken> result =
+        httpClient.fetchEntityStatementAboutRp(
+            TEST_SUB,
+            fedmasterUrl,
+            fedmasterUrl + IdpConstants.ENTITY_STATEMENT_ENDPOINT,
+            HttpValidators.NONE);
+
+    assertThat(result.body()).isPresent();
+    assertThat(result.body().get().getRawString()).isEqualTo(TEST_JSON);
+    wireMockServer.verify(
+        getRequestedFor(urlPathEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .withQueryParam("iss", equalTo(fedmasterUrl))
+            .withQueryParam("sub", equalTo(TEST_SUB)));
+  }
 
-    final JsonWebToken result =
-        HttpClient.fetchEntityStatementAboutRp(
-            testSub, ANY_URL, ANY_URL + IdpConstants.ENTITY_STATEMENT_ENDPOINT);
+  @Test
+  void test_fetchEntityStatementAboutRpHttp500() {
+    final String fedmasterUrl = httpUrl();
+    wireMockServer.stubFor(
+        get(urlPathEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(500).withBody(TEST_JSON)));
 
-    assertThat(result).isNotNull();
-    assertThat(result.getRawString()).isEqualTo(testJson);
+    assertThatThrownBy(
+            () ->
+                httpClient.fetchEntityStatementAboutRp(
+                    TEST_SUB,
+                    fedmasterUrl,
+                    fedmasterUrl + IdpConstants.ENTITY_STATEMENT_ENDPOINT,
+                    HttpValidators.NONE))
+        .isInstanceOf(GsiException.class);
   }
 
   @Test
-  void test_fetchEntityStatementAboutRpHttp500() {
+  void test_fetchEntityStatementAboutRp_onlyServerErrorsAreTransient() {
+    final String fedmasterUrl = httpUrl();
+    final String endpoint = fedmasterUrl + IdpConstants.ENTITY_STATEMENT_ENDPOINT;
+    wireMockServer.stubFor(
+        get(urlPathEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(400).withBody("Subject unknown")));
+    assertThatThrownBy(
+            () ->
+                httpClient.fetchEntityStatementAboutRp(
+                    TEST_SUB, fedmasterUrl, endpoint, HttpValidators.NONE))
+        .matches(e -> !HttpClient.isTransient(e));
 
-    final GetRequest mockedRequest = mock(GetRequest.class);
-    final HttpResponse<String> mockedResponse = mock(HttpResponse.class);
-    final String testSub = "sub42";
-    final String testJson = "{\"some\": \"json\"}";
+    wireMockServer.stubFor(
+        get(urlPathEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(503)));
+    assertThatThrownBy(
+            () ->
+                httpClient.fetchEntityStatementAboutRp(
+                    TEST_SUB, fedmasterUrl, endpoint, HttpValidators.NONE))
+        .matches(HttpClient::isTransient);
+  }
 
-    unirestMock
-        .when(() -> Unirest.get(ANY_URL + IdpConstants.ENTITY_STATEMENT_ENDPOINT))
-        .thenReturn(mockedRequest);
-    when(mockedRequest.queryString(eq("iss"), eq(ANY_URL))).thenReturn(mockedRequest);
-    when(mockedRequest.queryString(eq("sub"), eq(testSub))).thenReturn(mockedRequest);
+  @Test
+  void test_failingHost_opensCircuitAndFailsFast() {
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(503)));
+    final String issuer = httpUrl();
+    final String host = URI.create(issuer).getAuthority();
+
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> httpClient.fetchEntityStatementRp(issuer, HttpValidators.NONE))
+          .isInstanceOf(GsiException.class)
+          .hasMessageContaining("No entity statement of");
+    }
+    assertThatThrownBy(() -> httpClient.fetchEntityStatementRp(issuer, HttpValidators.NONE))
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining("Circuit breaker of " + host + " is open");
+
+    wireMockServer.verify(2, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+    assertThat(meterRegistry.get("gsi.http.client.circuit.state").tag("host", host).gauge().value())
+        .isEqualTo(1.0);
+    assertThat(
+            meterRegistry
+                .get("gsi.http.client.rejected")
+                .tags("host", host, "reason", "circuit_open")
+                .counter()
+                .count())
+        .isEqualTo(1.0);
+  }
 
-    when(mockedResponse.getStatus()).thenReturn(500);
-    when(mockedResponse.getBody()).thenReturn(testJson);
+  @Test
+  void test_openCircuit_closesAfterSuccessfulTrialCall() {
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(503)));
+    final String issuer = httpUrl();
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> httpClient.fetchEntityStatementRp(issuer, HttpValidators.NONE))
+          .isInstanceOf(GsiException.class);
+    }
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withBody(TEST_JSON)));
+
+    Awaitility.await()
+        .atMost(2, TimeUnit.SECONDS)
+        .ignoreExceptions()
+        .until(() -> httpClient.fetchEntityStatementRp(issuer, HttpValidators.NONE) != null);
+    assertThat(
+            meterRegistry
+                .get("gsi.http.client.circuit.state")
+                .tag("host", URI.create(issuer).getAuthority())
+                .gauge()
+                .value())
+        .isEqualTo(0.0);
+  }
 
-    when(mockedRequest.asString()).thenReturn(mockedResponse);
+  @Test
+  void test_fullBulkhead_rejectsFurtherCalls() throws Exception {
+    final HttpClient singleCallClient =
+        new HttpClient(
+            HttpClientConfiguration.builder()
+                .maxConcurrentRequestsPerHost(1)
+                .bulkheadMaxWaitMillis(0)
+                .build(),
+            meterRegistry);
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withFixedDelay(1000).withBody(TEST_JSON)));
+    final String issuer = httpUrl();
+
+    final Thread slowCall =
+        Thread.ofVirtual()
+            .start(() -> singleCallClient.fetchEntityStatementRp(issuer, HttpValidators.NONE));
+    Awaitility.await()
+        .atMost(2, TimeUnit.SECONDS)
+        .until(() -> !wireMockServer.getAllServeEvents().isEmpty());
+
+    assertThatThrownBy(() -> singleCallClient.fetchEntityStatementRp(issuer, HttpValidators.NONE))
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining("Too many concurrent requests to");
+    assertThat(
+            meterRegistry
+                .get("gsi.http.client.rejected")
+                .tag("reason", "bulkhead_full")
+                .counter()
+                .count())
+        .isEqualTo(1.0);
+    slowCall.join();
+  }
 
-    assertThatThrownBy(
+  @Test
+  void test_maxHosts_dropsMetersOfEvictedHosts() {
+    final HttpClient oneHostClient =
+        new HttpClient(HttpClientConfiguration.builder().maxHosts(1).build(), meterRegistry);
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withBody(TEST_JSON)));
+
+    oneHostClient.fetchEntityStatementRp(
+        "http://localhost:" + wireMockServer.port(), HttpValidators.NONE);
+    oneHostClient.fetchEntityStatementRp(
+        "http://127.0.0.1:" + wireMockServer.port(), HttpValidators.NONE);
+
+    Awaitility.await()
+        .atMost(5, TimeUnit.SECONDS)
+        .untilAsserted(
             () ->
-                HttpClient.fetchEntityStatementAboutRp(
-                    testSub, ANY_URL, ANY_URL + IdpConstants.ENTITY_STATEMENT_ENDPOINT))
-        .isInstanceOf(GsiException.class);
+                assertThat(meterRegistry.find("gsi.http.client.calls.active").gauges()).hasSize(1));
+    assertThat(meterRegistry.find("gsi.http.client.rejected").counters()).hasSize(2);
   }
 }
@@ -0,0 +1,72 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.gsi.server.data.SignedJwt;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class OwnSignedStatementsTest {
+
+  private final OwnSignedStatements ownSignedStatements = new OwnSignedStatements();
+  private final AtomicInteger signatures = new AtomicInteger();
+
+  private String sign() {
+    return "jwt" + signatures.incrementAndGet();
+  }
+
+  @Test
+  void test_sameContent_signedOnce() {
+    final SignedJwt first = ownSignedStatements.get("/es", "content", this::sign);
+    final SignedJwt second = ownSignedStatements.get("/es", "content", this::sign);
+    assertThat(second).isSameAs(first);
+    assertThat(signatures).hasValue(1);
+    assertThat(first.reusableUntil())
+        .isAfter(Instant.now().plus(OwnSignedStatements.REUSE_DURATION).minusSeconds(60));
+  }
+
+  @Test
+  void test_changedContent_signedAgain() {
+    final SignedJwt first = ownSignedStatements.get("/es", "content", this::sign);
+    final SignedJwt second = ownSignedStatements.get("/es", "changed", this::sign);
+    assertThat(second.etag()).isNotEqualTo(first.etag());
+    assertThat(signatures).hasValue(2);
+  }
+
+  @Test
+  void test_concurrentSignature_firstPublishedIsServed() {
+    final SignedJwt[] concurrent = new SignedJwt[1];
+    final SignedJwt signed =
+        ownSignedStatements.get(
+            "/es",
+            "content",
+            () -> {
+              // no lock is held while signing, another request publishes its signature meanwhile
+              concurrent[0] = ownSignedStatements.get("/es", "content", this::sign);
+              return sign();
+            });
+    assertThat(signed).isSameAs(concurrent[0]);
+    assertThat(ownSignedStatements.get("/es", "content", this::sign)).isSameAs(signed);
+  }
+}
@@ -32,20 +32,20 @@ import static de.gematik.idp.gsi.server.data.GsiConstants.AMR_VALUES_V1;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
-import static org.mockito.ArgumentMatchers.any;
 
 import de.gematik.idp.crypto.CryptoLoader;
 import de.gematik.idp.crypto.Nonce;
 import de.gematik.idp.field.ClientUtilities;
 import de.gematik.idp.gsi.server.configuration.GsiConfiguration;
 import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import de.gematik.idp.gsi.server.data.RpMetadata;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
 import java.io.File;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.X509Certificate;
-import java.time.ZonedDateTime;
+import java.time.Instant;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -56,8 +56,6 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
-import org.mockito.MockedStatic;
-import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.annotation.DirtiesContext;
@@ -76,8 +74,10 @@ class RequestValidatorTest {
   private static final RpToken VALID_RPTOKEN =
       new RpToken(new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043));
 
-  private static final JsonWebToken VALID_TOKEN_ABOUT_RP =
-      new JsonWebToken(ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044);
+  private static final RpMetadata VALID_METADATA_ABOUT_RP =
+      EntityStatementRpReader.withRegistration(
+          RpMetadata.builder().build(),
+          new JsonWebToken(ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044));
 
   private X509Certificate cert1FromEntityStmtRpService;
   private X509Certificate cert2FromEntityStmtRpService;
@@ -102,7 +102,7 @@ class RequestValidatorTest {
     assertDoesNotThrow(
         () ->
             RequestValidator.validateParParams(
-                VALID_TOKEN_ABOUT_RP, correctRedirectUri, "urn:telematik:versicherter openid"));
+                VALID_METADATA_ABOUT_RP, correctRedirectUri, "urn:telematik:versicherter openid"));
   }
 
   @ValueSource(
@@ -118,7 +118,8 @@ class RequestValidatorTest {
 
     assertThatThrownBy(
             () ->
-                RequestValidator.validateParParams(VALID_TOKEN_ABOUT_RP, correctRedirectUri, scope))
+                RequestValidator.validateParParams(
+                    VALID_METADATA_ABOUT_RP, correctRedirectUri, scope))
         .isInstanceOf(GsiException.class)
         .hasMessageContaining(
             "Content of parameter scope [" + scope + "] exceeds scopes found in entity statement.");
@@ -127,33 +128,25 @@ class RequestValidatorTest {
   @Test
   void test_validateCertificate_match_VALID() {
 
-    try (final MockedStatic<EntityStatementRpReader> mockedStatic =
-        Mockito.mockStatic(EntityStatementRpReader.class)) {
-      mockedStatic
-          .when(() -> EntityStatementRpReader.getRpTlsClientCerts(any()))
-          .thenReturn(List.of(cert2FromEntityStmtRpService, cert1FromEntityStmtRpService));
+    final RpToken rpToken =
+        rpTokenWithTlsClientCerts(
+            List.of(cert2FromEntityStmtRpService, cert1FromEntityStmtRpService));
 
-      assertDoesNotThrow(
-          () -> RequestValidator.validateCertificate(CERT1_FROM_REQUEST, VALID_RPTOKEN, true));
-    }
+    assertDoesNotThrow(
+        () -> RequestValidator.validateCertificate(CERT1_FROM_REQUEST, rpToken, true));
   }
 
   @Test
   void test_validateCertificate_noMatch_INVALID() {
 
-    try (final MockedStatic<EntityStatementRpReader> mockedStatic =
-        Mockito.mockStatic(EntityStatementRpReader.class)) {
-      mockedStatic
-          .when(() -> EntityStatementRpReader.getRpTlsClientCerts(any()))
-          .thenReturn(List.of(cert2FromEntityStmtRpService));
-
-      assertThatThrownBy(
-              () -> RequestValidator.validateCertificate(CERT1_FROM_REQUEST, VALID_RPTOKEN, true))
-          .isInstanceOf(GsiException.class)
-          .hasMessageContaining(
-              "client certificate in tls handshake does not match any certificate in entity"
-                  + " statement/signed_jwks");
-    }
+    final RpToken rpToken = rpTokenWithTlsClientCerts(List.of(cert2FromEntityStmtRpService));
+
+    assertThatThrownBy(
+            () -> RequestValidator.validateCertificate(CERT1_FROM_REQUEST, rpToken, true))
+        .isInstanceOf(GsiException.class)
+        .hasMessageContaining(
+            "client certificate in tls handshake does not match any certificate in entity"
+                + " statement/signed_jwks");
   }
 
   @Test
@@ -171,15 +164,9 @@ class RequestValidatorTest {
     final String encodedCert =
         java.net.URLEncoder.encode(certPem, java.nio.charset.StandardCharsets.UTF_8);
 
-    try (final MockedStatic<EntityStatementRpReader> mockedStatic =
-        Mockito.mockStatic(EntityStatementRpReader.class)) {
-      mockedStatic
-          .when(() -> EntityStatementRpReader.getRpTlsClientCerts(any()))
-          .thenReturn(List.of(cert2FromEntityStmtRpService));
+    final RpToken rpToken = rpTokenWithTlsClientCerts(List.of(cert2FromEntityStmtRpService));
 
-      assertDoesNotThrow(
-          () -> RequestValidator.validateCertificate(encodedCert, VALID_RPTOKEN, true));
-    }
+    assertDoesNotThrow(() -> RequestValidator.validateCertificate(encodedCert, rpToken, true));
   }
 
   @Test
@@ -212,7 +199,7 @@ class RequestValidatorTest {
             .fachdienstRedirectUri("")
             .authorizationCode(Nonce.getNonceAsHex(AUTH_CODE_LENGTH))
             .expiresAt(
-                ZonedDateTime.now().plusSeconds(gsiConfiguration.getRequestUriTTL()).toString())
+                Instant.now().plusSeconds(gsiConfiguration.getRequestUriTTL()).toEpochMilli())
             .build();
     assertDoesNotThrow(
         () -> RequestValidator.validateAuthRequestParams(session, "http://localhost:8080"));
@@ -232,7 +219,7 @@ class RequestValidatorTest {
             .fachdienstRedirectUri("")
             .authorizationCode(Nonce.getNonceAsHex(AUTH_CODE_LENGTH))
             .expiresAt(
-                ZonedDateTime.now().plusSeconds(gsiConfiguration.getRequestUriTTL()).toString())
+                Instant.now().plusSeconds(gsiConfiguration.getRequestUriTTL()).toEpochMilli())
             .build();
     assertThatThrownBy(
             () -> RequestValidator.validateAuthRequestParams(session, "http://localhost:8083"))
@@ -407,4 +394,9 @@ class RequestValidatorTest {
         .hasMessageContaining(
             "Invalid metadata: incompatible versions for id_token_version_supported");
   }
+
+  private static RpToken rpTokenWithTlsClientCerts(final List<X509Certificate> certs) {
+    return VALID_RPTOKEN.withMetadata(
+        RpMetadata.builder().tlsClientCertsByFingerprint(RpMetadata.byFingerprint(certs)).build());
+  }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.services;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static de.gematik.idp.data.Oauth2ErrorCode.INVALID_REQUEST;
+import static de.gematik.idp.gsi.server.data.GsiConstants.FEDMASTER_FED_LIST_ENDPOINT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import de.gematik.idp.gsi.server.configuration.HttpClientConfiguration;
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import de.gematik.idp.gsi.server.exceptions.GsiException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.health.contributor.Status;
+import org.springframework.http.HttpStatus;
+
+class RpCacheWarmUpTest {
+
+  private final TokenRepositoryRp tokenRepositoryRp = Mockito.mock(TokenRepositoryRp.class);
+  private final ServerUrlService serverUrlService = Mockito.mock(ServerUrlService.class);
+  private final HttpClient httpClient =
+      new HttpClient(HttpClientConfiguration.builder().build(), new SimpleMeterRegistry());
+  private final FederationList federationList =
+      new FederationList(tokenRepositoryRp, httpClient, serverUrlService);
+  private WireMockServer fedmaster;
+
+  @BeforeEach
+  void init() {
+    fedmaster = new WireMockServer(WireMockConfiguration.options().dynamicPort());
+    fedmaster.start();
+    Mockito.doReturn(fedmaster.baseUrl()).when(serverUrlService).determineFedmasterUrl();
+  }
+
+  @AfterEach
+  void tearDown() {
+    fedmaster.stop();
+  }
+
+  private void stubFederationList(final int delayMillis) {
+    fedmaster.stubFor(
+        get(urlEqualTo(FEDMASTER_FED_LIST_ENDPOINT))
+            .willReturn(
+                aResponse()
+                    .withFixedDelay(delayMillis)
+                    .withBody(
+                        "[\"http://rp-1:8084\",\"http://rp-2:8084\",\"http://sektoral-idp:8085\"]")));
+  }
+
+  @Test
+  void test_warmUp_fetchesStatementsOfListedMembers_VALID() {
+    stubFederationList(0);
+    Mockito.doThrow(new GsiException(INVALID_REQUEST, "not an RP", HttpStatus.BAD_REQUEST))
+        .when(tokenRepositoryRp)
+        .getEntityStatementRp("http://sektoral-idp:8085", true);
+    final RpCacheWarmUp warmUp =
+        new RpCacheWarmUp(
+            tokenRepositoryRp,
+            federationList,
+            RpCacheConfiguration.builder().warmUpEnabled(true).build());
+
+    warmUp.warmUp();
+
+    Mockito.verify(tokenRepositoryRp)
+        .updateFederationMembers(
+            List.of("http://rp-1:8084", "http://rp-2:8084", "http://sektoral-idp:8085"));
+    Mockito.verify(tokenRepositoryRp).getEntityStatementRp("http://rp-1:8084", true);
+    Mockito.verify(tokenRepositoryRp).getEntityStatementRp("http://rp-2:8084", true);
+    assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+    assertThat(warmUp.health().getDetails())
+        .containsEntry("finished", true)
+        .containsEntry("warmedUp", 2)
+        .containsEntry("failed", 1);
+  }
+
+  @Test
+  void test_health_outOfServiceUntilDeadline_VALID() {
+    stubFederationList(5000);
+    final RpCacheWarmUp warmUp =
+        new RpCacheWarmUp(
+            tokenRepositoryRp,
+            federationList,
+            RpCacheConfiguration.builder().warmUpEnabled(true).warmUpDeadlineSeconds(1).build());
+
+    warmUp.start();
+
+    assertThat(warmUp.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+    Awaitility.await()
+        .atMost(3, TimeUnit.SECONDS)
+        .until(() -> warmUp.health().getStatus().equals(Status.UP));
+    assertThat(warmUp.health().getDetails()).containsEntry("finished", false);
+  }
+
+  @Test
+  void test_health_warmUpDisabled_VALID() {
+    final RpCacheWarmUp warmUp =
+        new RpCacheWarmUp(
+            tokenRepositoryRp, federationList, RpCacheConfiguration.builder().build());
+
+    warmUp.start();
+
+    assertThat(warmUp.health().getStatus()).isEqualTo(Status.UP);
+    Mockito.verifyNoInteractions(tokenRepositoryRp);
+  }
+}
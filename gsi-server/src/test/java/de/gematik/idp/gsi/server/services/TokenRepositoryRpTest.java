@@ -20,25 +20,57 @@
 
 package de.gematik.idp.gsi.server.services;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static de.gematik.idp.gsi.server.common.Constants.ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044;
+import static de.gematik.idp.gsi.server.common.Constants.ENTITY_STMNT_FACHDIENST_WITH_OPTIONAL_JWKS;
 import static de.gematik.idp.gsi.server.common.Constants.ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043;
+import static de.gematik.idp.gsi.server.common.Constants.SIGNED_JWKS;
+import static de.gematik.idp.gsi.server.common.Constants.SIGNED_JWKS_TWO_CERTS;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
+import static org.assertj.core.api.AssertionsForClassTypes.catchThrowable;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.core.WireMockConfiguration;
+import com.github.tomakehurst.wiremock.matching.UrlPattern;
+import de.gematik.idp.IdpConstants;
+import de.gematik.idp.gsi.server.configuration.HttpClientConfiguration;
+import de.gematik.idp.gsi.server.configuration.RpCacheConfiguration;
+import de.gematik.idp.gsi.server.data.ConditionalResponse;
+import de.gematik.idp.gsi.server.data.HttpValidators;
 import de.gematik.idp.gsi.server.data.RpToken;
 import de.gematik.idp.gsi.server.exceptions.GsiException;
 import de.gematik.idp.token.JsonWebToken;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.security.PublicKey;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 import lombok.extern.slf4j.Slf4j;
-import org.junit.jupiter.api.AfterEach;
+import org.awaitility.Awaitility;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
-import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 
 @Slf4j
@@ -46,8 +78,11 @@ import org.springframework.test.context.bean.override.mockito.MockitoBean;
 class TokenRepositoryRpTest {
 
   @Autowired private TokenRepositoryRp tokenRepositoryRp;
+  @Autowired private PublicKey fedmasterSigKey;
   @MockitoBean private ServerUrlService serverUrlService;
-  private static MockedStatic<HttpClient> httpClientMockedStatic;
+  @MockitoBean private HttpClient httpClient;
+  private final HttpClient wireMockHttpClient =
+      new HttpClient(HttpClientConfiguration.builder().build(), new SimpleMeterRegistry());
 
   private static final RpToken VALID_RPTOKEN =
       new RpToken(new JsonWebToken(ENTITY_STMNT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2043));
@@ -62,6 +97,7 @@ class TokenRepositoryRpTest {
           "eyJhbGciOiJFUzI1NiIsInR5cCI6ImVudGl0eS1zdGF0ZW1lbnQrand0Iiwia2lkIjoicHVrX2ZlZF9zaWcifQ.eyJpc3MiOiJodHRwOi8vMTI3LjAuMC4xOjgwODMiLCJzdWIiOiJodHRwOi8vMTI3LjAuMC4xOjgwODQiLCJhdWQiOm51bGwsImlhdCI6MTczNTMwMjA4NiwiZXhwIjoyMzY2NDU0MDg2LCJqd2tzIjp7ImtleXMiOlt7InVzZSI6InNpZyIsImtpZCI6InB1a19mZF9zaWciLCJrdHkiOiJFQyIsImNydiI6IlAtMjU2IiwieCI6IjliSnMyN1lBZmxNVVdLNW54dWlGNlhBRzBKYXp1dndSaTFFcEZLMFhLaWsiLCJ5IjoiUDhsek5WUk9nVHV3YkRxc2Q4clQxQUkzemV6OTRIQnNURHBPdmFqUDByWSIsImFsZyI6IkVTMjU2In1dfSwibWV0YWRhdGEiOnsib3BlbmlkX3JlbHlpbmdfcGFydHkiOnsiY2xpZW50X3JlZ2lzdHJhdGlvbl90eXBlcyI6WyJhdXRvbWF0aWMiXSwiY2xhaW1zIjpbXSwicmVkaXJlY3RfdXJpcyI6WyJodHRwOi8vMTI3LjAuMC4xOjgwODMvYXV0aCIsImh0dHBzOi8vRmFjaGRpZW5zdDAwNy5kZS9jbGllbnQiLCJodHRwczovL3JlZGlyZWN0LnRlc3RzdWl0ZS5nc2kiLCJodHRwczovL2lkcGZhZGkuZGV2LmdlbWF0aWsuc29sdXRpb25zL2F1dGgiXSwic2NvcGUiOiJ1cm46dGVsZW1hdGlrOmRpc3BsYXlfbmFtZSB1cm46dGVsZW1hdGlrOnZlcnNpY2hlcnRlciBvcGVuaWQifX19.fRJMg6ylrTIO3pPUItaxQD913Yj17cKQX1Eti91j9rFhKmwZvrNHFeYf-2iHdWASIxt2j1k5JUWrJ4LhckKLPQ");
 
   private static final String MOCK_SERVER_URL = "http://localhost:8086";
+  private static final String SIGNED_JWKS_URI_OF_RP = "http://localhost:8084/jws.json";
 
   @BeforeEach
   void init(final TestInfo testInfo) {
@@ -69,38 +105,33 @@ class TokenRepositoryRpTest {
     Mockito.doReturn(MOCK_SERVER_URL + "/federation/fetch")
         .when(serverUrlService)
         .determineFetchEntityStatementEndpoint();
-    httpClientMockedStatic = Mockito.mockStatic(HttpClient.class);
-
-    httpClientMockedStatic
-        .when(() -> HttpClient.fetchEntityStatementRp("http://any-client-id:8080"))
-        .thenReturn(VALID_RPTOKEN);
-    httpClientMockedStatic
-        .when(() -> HttpClient.fetchEntityStatementRp("http://any-client-id:8080/invalidEsOfRp"))
-        .thenReturn(RPTOKEN_JWT_INVALID_SIG);
-    httpClientMockedStatic
-        .when(
-            () ->
-                HttpClient.fetchEntityStatementAboutRp(
-                    eq("http://any-client-id:8080"), any(), any()))
-        .thenReturn(new JsonWebToken(ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044));
-    httpClientMockedStatic
-        .when(
-            () ->
-                HttpClient.fetchEntityStatementAboutRp(
-                    eq("http://any-client-id:8080/invalidEsOfRp"), any(), any()))
-        .thenReturn(new JsonWebToken(ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044));
 
-    httpClientMockedStatic
-        .when(
-            () ->
-                HttpClient.fetchEntityStatementAboutRp(
-                    eq("http://any-client-id:8080/invalidEsAboutRP"), any(), any()))
-        .thenReturn(JWT_ENTITY_STMNT_ABOUT_INVALID_SIG);
+    Mockito.doReturn(modified(VALID_RPTOKEN))
+        .when(httpClient)
+        .fetchEntityStatementRp(eq("http://any-client-id:8080"), any());
+    Mockito.doReturn(modified(new JsonWebToken(SIGNED_JWKS)))
+        .when(httpClient)
+        .fetchSignedJwks(eq(SIGNED_JWKS_URI_OF_RP), any());
+    Mockito.doReturn(modified(RPTOKEN_JWT_INVALID_SIG))
+        .when(httpClient)
+        .fetchEntityStatementRp(eq("http://any-client-id:8080/invalidEsOfRp"), any());
+    Mockito.doReturn(
+            modified(new JsonWebToken(ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044)))
+        .when(httpClient)
+        .fetchEntityStatementAboutRp(eq("http://any-client-id:8080"), any(), any(), any());
+    Mockito.doReturn(
+            modified(new JsonWebToken(ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044)))
+        .when(httpClient)
+        .fetchEntityStatementAboutRp(
+            eq("http://any-client-id:8080/invalidEsOfRp"), any(), any(), any());
+    Mockito.doReturn(modified(JWT_ENTITY_STMNT_ABOUT_INVALID_SIG))
+        .when(httpClient)
+        .fetchEntityStatementAboutRp(
+            eq("http://any-client-id:8080/invalidEsAboutRP"), any(), any(), any());
   }
 
-  @AfterEach
-  void tearDown() {
-    httpClientMockedStatic.close();
+  private static <T> ConditionalResponse<T> modified(final T body) {
+    return ConditionalResponse.modified(body, HttpValidators.NONE);
   }
 
   @Test
@@ -110,6 +141,17 @@ class TokenRepositoryRpTest {
     assertThat(entStmntFd).isNotNull();
   }
 
+  @Test
+  void test_getEntityStatementRp_metadataReadOnceWithRegistrationAboutRp_VALID() {
+    final RpToken entStmntFd = tokenRepositoryRp.getEntityStatementRp("http://any-client-id:8080");
+
+    assertThat(tokenRepositoryRp.getEntityStatementRp("http://any-client-id:8080").metadata())
+        .isSameAs(entStmntFd.metadata());
+    // listed in the statement about the RP only
+    assertThat(entStmntFd.metadata().isRedirectUriRegistered("http://127.0.0.1:8083/auth"))
+        .isTrue();
+  }
+
   @Test
   void test_getEntityStatementRp_invalidSignature_INVALID() {
 
@@ -138,4 +180,473 @@ class TokenRepositoryRpTest {
         .hasMessageContaining(
             "The JWT signature of the entity statement about the relying party was invalid.");
   }
+
+  @Test
+  void test_invalidate_refetchesStatementsOfRp_VALID() {
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            httpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().build(),
+            new SimpleMeterRegistry());
+    try {
+      final RpToken entityStmnt = repository.getEntityStatementRp("http://any-client-id:8080");
+      assertThat(repository.getEntityStatementRp("http://any-client-id:8080"))
+          .isSameAs(entityStmnt);
+
+      repository.invalidate("http://any-client-id:8080");
+
+      assertThat(repository.getEntityStatementRp("http://any-client-id:8080"))
+          .isNotSameAs(entityStmnt);
+      Mockito.verify(httpClient, Mockito.times(2))
+          .fetchEntityStatementRp(eq("http://any-client-id:8080"), any());
+      Mockito.verify(httpClient, Mockito.times(2))
+          .fetchEntityStatementAboutRp(eq("http://any-client-id:8080"), any(), any(), any());
+      Mockito.verify(httpClient, Mockito.times(2))
+          .fetchSignedJwks(eq(SIGNED_JWKS_URI_OF_RP), any());
+    } finally {
+      repository.shutdown();
+    }
+  }
+
+  @Test
+  void test_signedJwks_fetchedAndVerifiedOnce_VALID() {
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            httpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().build(),
+            new SimpleMeterRegistry());
+    try {
+      final RpToken entityStmnt = repository.getEntityStatementRp("http://any-client-id:8080");
+      assertThat(entityStmnt.getRpEncKey()).isNotNull();
+      assertThat(entityStmnt.getRpTlsClientCertificates().isEmpty()).isFalse();
+      assertThat(repository.getEntityStatementRp("http://any-client-id:8080").getRpEncKey())
+          .isSameAs(entityStmnt.getRpEncKey());
+
+      Mockito.verify(httpClient, Mockito.times(1))
+          .fetchSignedJwks(eq(SIGNED_JWKS_URI_OF_RP), any());
+    } finally {
+      repository.shutdown();
+    }
+  }
+
+  @Test
+  void test_signedJwks_invalidSignature_INVALID() {
+    final String signedJwksInvalidSig =
+        SIGNED_JWKS_TWO_CERTS.substring(0, SIGNED_JWKS_TWO_CERTS.lastIndexOf('.'))
+            + SIGNED_JWKS.substring(SIGNED_JWKS.lastIndexOf('.'));
+    Mockito.doReturn(modified(new JsonWebToken(signedJwksInvalidSig)))
+        .when(httpClient)
+        .fetchSignedJwks(eq(SIGNED_JWKS_URI_OF_RP), any());
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            httpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().build(),
+            new SimpleMeterRegistry());
+    try {
+      assertThatThrownBy(() -> repository.getEntityStatementRp("http://any-client-id:8080"))
+          .isInstanceOf(GsiException.class)
+          .hasMessageContaining(
+              "The JWT signature of the signed_jwks of the relying party was invalid.");
+    } finally {
+      repository.shutdown();
+    }
+  }
+
+  private WireMockServer startRpAndFedmaster(final int delayMillis) {
+    final WireMockServer wireMockServer =
+        new WireMockServer(WireMockConfiguration.options().dynamicPort());
+    wireMockServer.start();
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(
+                aResponse()
+                    .withFixedDelay(delayMillis)
+                    // carries its keys, there is no signed_jwks to fetch
+                    .withBody(ENTITY_STMNT_FACHDIENST_WITH_OPTIONAL_JWKS)));
+    wireMockServer.stubFor(
+        get(urlPathEqualTo("/federation/fetch"))
+            .willReturn(
+                aResponse()
+                    .withFixedDelay(delayMillis)
+                    .withBody(ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044)));
+    Mockito.doReturn(wireMockServer.baseUrl() + "/federation/fetch")
+        .when(serverUrlService)
+        .determineFetchEntityStatementEndpoint();
+    Mockito.doReturn(wireMockServer.baseUrl()).when(serverUrlService).determineFedmasterUrl();
+    return wireMockServer;
+  }
+
+  @Test
+  void test_concurrentRequestsOfColdRp_fetchEachStatementOnce_VALID() throws Exception {
+    final WireMockServer wireMockServer = startRpAndFedmaster(200);
+    final String rpUrl = wireMockServer.baseUrl();
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().build(),
+            new SimpleMeterRegistry());
+
+    final int parRequests = 500;
+    final CountDownLatch start = new CountDownLatch(1);
+    try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      final List<Future<RpToken>> results =
+          IntStream.range(0, parRequests)
+              .mapToObj(
+                  i ->
+                      executor.submit(
+                          () -> {
+                            start.await();
+                            return repository.getEntityStatementRp(rpUrl);
+                          }))
+              .toList();
+      start.countDown();
+      for (final Future<RpToken> result : results) {
+        assertThat(result.get()).isNotNull();
+      }
+      wireMockServer.verify(1, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+      wireMockServer.verify(1, getRequestedFor(urlPathEqualTo("/federation/fetch")));
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  @Test
+  void test_coldRp_notContactedBeforeFedmasterConfirmedIt_INVALID() {
+    final WireMockServer wireMockServer = startRpAndFedmaster(0);
+    wireMockServer.stubFor(
+        get(urlPathEqualTo("/federation/fetch"))
+            .willReturn(aResponse().withStatus(400).withBody("Subject unknown")));
+    final String rpUrl = wireMockServer.baseUrl();
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().build(),
+            new SimpleMeterRegistry());
+    try {
+      assertThatThrownBy(() -> repository.getEntityStatementRp(rpUrl))
+          .isInstanceOf(GsiException.class)
+          .hasMessageContaining("No entity statement about relying party");
+      wireMockServer.verify(0, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  @Test
+  void test_parOfColdListedRp_fetchesStatementsConcurrently_VALID() {
+    final int delayMillis = 2000;
+    final WireMockServer wireMockServer = startRpAndFedmaster(delayMillis);
+    final String rpUrl = wireMockServer.baseUrl();
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().build(),
+            new SimpleMeterRegistry());
+    try {
+      repository.updateFederationMembers(List.of(rpUrl));
+      // the lookup of a PAR
+      assertThat(repository.getEntityStatementRp(rpUrl)).isNotNull();
+      wireMockServer.verify(1, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+      wireMockServer.verify(1, getRequestedFor(urlPathEqualTo("/federation/fetch")));
+      // the second fetch started before the first one was answered, the PAR waited for the slower
+      // fetch only
+      final List<Long> started =
+          wireMockServer.getAllServeEvents().stream()
+              .map(event -> event.getRequest().getLoggedDate().getTime())
+              .sorted()
+              .toList();
+      assertThat(started.get(1) - started.get(0)).isLessThan((long) delayMillis);
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  @Test
+  void test_refreshAhead_refetchesInBackground_VALID() throws Exception {
+    final WireMockServer wireMockServer = startRpAndFedmaster(500);
+    final String rpUrl = wireMockServer.baseUrl();
+    // every statement is due for refresh right after it was fetched
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().refreshAheadShare(0).build(),
+            new SimpleMeterRegistry());
+    try {
+      final RpToken fetched = repository.getEntityStatementRp(rpUrl);
+
+      repository.refreshAhead();
+      // a request waiting for the refetch would get the refetched statement
+      assertThat(repository.getEntityStatementRp(rpUrl)).isSameAs(fetched);
+
+      Awaitility.await()
+          .atMost(5, TimeUnit.SECONDS)
+          .untilAsserted(
+              () ->
+                  wireMockServer.verify(
+                      2, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))));
+      wireMockServer.verify(2, getRequestedFor(urlPathEqualTo("/federation/fetch")));
+      Awaitility.await()
+          .atMost(5, TimeUnit.SECONDS)
+          .until(() -> repository.getEntityStatementRp(rpUrl) != fetched);
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  @Test
+  void test_notModified_keepsStatementsWithoutVerifyingAgain_VALID() {
+    final WireMockServer wireMockServer = startRpAndFedmaster(0);
+    stubRevalidation(
+        wireMockServer,
+        urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT),
+        "\"rp-1\"",
+        ENTITY_STMNT_FACHDIENST_WITH_OPTIONAL_JWKS);
+    stubRevalidation(
+        wireMockServer,
+        urlPathEqualTo("/federation/fetch"),
+        "\"about-rp-1\"",
+        ENTITY_STMNT_ABOUT_IDP_FACHDIENST_EXPIRES_IN_YEAR_2044);
+    final String rpUrl = wireMockServer.baseUrl();
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // every statement is due for refresh right after it was fetched
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().refreshAheadShare(0).build(),
+            meterRegistry);
+    try {
+      final RpToken fetched = repository.getEntityStatementRp(rpUrl);
+
+      repository.refreshAhead();
+
+      Awaitility.await()
+          .atMost(5, TimeUnit.SECONDS)
+          .untilAsserted(
+              () ->
+                  assertThat(meterRegistry.get("gsi.rp.statements.not_modified").counter().count())
+                      .isEqualTo(2.0));
+      assertThat(repository.getEntityStatementRp(rpUrl)).isSameAs(fetched);
+      wireMockServer.verify(
+          1,
+          getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+              .withHeader(HttpHeaders.IF_NONE_MATCH, equalTo("\"rp-1\"")));
+      // revalidated statements are not due for refresh again before revalidateIntervalSeconds
+      repository.refreshAhead();
+      wireMockServer.verify(2, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  private static void stubRevalidation(
+      final WireMockServer wireMockServer,
+      final UrlPattern url,
+      final String etag,
+      final String statement) {
+    wireMockServer.stubFor(
+        get(url).willReturn(aResponse().withHeader(HttpHeaders.ETAG, etag).withBody(statement)));
+    wireMockServer.stubFor(
+        get(url)
+            .withHeader(HttpHeaders.IF_NONE_MATCH, equalTo(etag))
+            .willReturn(aResponse().withStatus(304).withHeader(HttpHeaders.ETAG, etag)));
+  }
+
+  @Test
+  void test_outage_servesStaleStatementWithinWindow_VALID() {
+    final WireMockServer wireMockServer = startRpAndFedmaster(0);
+    final String rpUrl = wireMockServer.baseUrl();
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final MutableClock clock = new MutableClock();
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder()
+                .refreshAheadShare(1)
+                .staleIfErrorSeconds(600)
+                .retryInitialBackoffMillis(60000)
+                .build(),
+            meterRegistry,
+            clock);
+    try {
+      final RpToken verified = repository.getEntityStatementRp(rpUrl);
+      // the RP is down right after its statement expired
+      wireMockServer.stubFor(
+          get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+              .willReturn(aResponse().withStatus(503)));
+      clock.set(verified.token().getExpiresAt().toInstant().plusSeconds(60));
+
+      assertThat(repository.getEntityStatementRp(rpUrl)).isSameAs(verified);
+      assertThat(repository.getEntityStatementRp(rpUrl)).isSameAs(verified);
+      // the second request did not fetch again, the retry runs in the background
+      wireMockServer.verify(2, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+      assertThat(
+              meterRegistry.get("gsi.rp.statements.stale").tag("statement", "of").counter().count())
+          .isEqualTo(2.0);
+
+      clock.set(verified.token().getExpiresAt().toInstant().plusSeconds(601));
+      assertThatThrownBy(() -> repository.getEntityStatementRp(rpUrl))
+          .isInstanceOf(GsiException.class)
+          .hasMessageContaining("No entity statement of");
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  @Test
+  void test_rpAnsweringNotFound_isNotServedStale_INVALID() {
+    final WireMockServer wireMockServer = startRpAndFedmaster(0);
+    final String rpUrl = wireMockServer.baseUrl();
+    final MutableClock clock = new MutableClock();
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder()
+                .refreshAheadShare(1)
+                .staleIfErrorSeconds(600)
+                .negativeTtlSeconds(60)
+                .build(),
+            new SimpleMeterRegistry(),
+            clock);
+    try {
+      final RpToken verified = repository.getEntityStatementRp(rpUrl);
+      // the RP was removed right after its statement expired
+      wireMockServer.stubFor(
+          get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+              .willReturn(aResponse().withStatus(404)));
+      clock.set(verified.token().getExpiresAt().toInstant().plusSeconds(60));
+
+      assertThatThrownBy(() -> repository.getEntityStatementRp(rpUrl))
+          .isInstanceOf(GsiException.class)
+          .hasMessageContaining("No entity statement of");
+
+      // the dropped statement is not served during a later outage either
+      wireMockServer.stubFor(
+          get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+              .willReturn(aResponse().withStatus(503)));
+      clock.set(verified.token().getExpiresAt().toInstant().plusSeconds(180));
+      assertThatThrownBy(() -> repository.getEntityStatementRp(rpUrl))
+          .isInstanceOf(GsiException.class)
+          .hasMessageContaining("No entity statement of");
+      wireMockServer.verify(3, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  @Test
+  void test_unknownRp_isRejectedWithoutFetchingAgain_INVALID() {
+    final WireMockServer wireMockServer = startRpAndFedmaster(0);
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(404)));
+    final String rpUrl = wireMockServer.baseUrl();
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final MutableClock clock = new MutableClock();
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().negativeTtlSeconds(60).build(),
+            meterRegistry,
+            clock);
+    try {
+      for (int i = 0; i < 10; i++) {
+        assertThatThrownBy(() -> repository.getEntityStatementRp(rpUrl))
+            .isInstanceOf(GsiException.class)
+            .hasMessageContaining("No entity statement of");
+      }
+      // every rejected request gets an exception of its own
+      assertThat(catchThrowable(() -> repository.getEntityStatementRp(rpUrl)))
+          .isNotSameAs(catchThrowable(() -> repository.getEntityStatementRp(rpUrl)));
+      wireMockServer.verify(1, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+      assertThat(meterRegistry.get("gsi.rp.statements.rejected").counter().count()).isEqualTo(11.0);
+
+      clock.set(clock.instant().plusSeconds(61));
+      assertThatThrownBy(() -> repository.getEntityStatementRp(rpUrl))
+          .isInstanceOf(GsiException.class);
+      wireMockServer.verify(2, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  @Test
+  void test_unreachableRp_isNotRejectedWithoutFetching_INVALID() {
+    final WireMockServer wireMockServer = startRpAndFedmaster(0);
+    wireMockServer.stubFor(
+        get(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT))
+            .willReturn(aResponse().withStatus(503)));
+    final String rpUrl = wireMockServer.baseUrl();
+    final TokenRepositoryRp repository =
+        new TokenRepositoryRp(
+            wireMockHttpClient,
+            serverUrlService,
+            fedmasterSigKey,
+            RpCacheConfiguration.builder().negativeTtlSeconds(60).build(),
+            new SimpleMeterRegistry());
+    try {
+      for (int i = 0; i < 2; i++) {
+        assertThatThrownBy(() -> repository.getEntityStatementRp(rpUrl))
+            .isInstanceOf(GsiException.class)
+            .hasMessageContaining("No entity statement of");
+      }
+      wireMockServer.verify(2, getRequestedFor(urlEqualTo(IdpConstants.ENTITY_STATEMENT_ENDPOINT)));
+    } finally {
+      repository.shutdown();
+      wireMockServer.stop();
+    }
+  }
+
+  private static final class MutableClock extends Clock {
+
+    private volatile Instant instant = Instant.now();
+
+    void set(final Instant instant) {
+      this.instant = instant;
+    }
+
+    @Override
+    public Instant instant() {
+      return instant;
+    }
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(final ZoneId zone) {
+      return this;
+    }
+  }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Slf4j
+class CompactFedIdpAuthSessionTest {
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+  private static final int PACKED_PAR_SESSION_BYTES = 118;
+
+  private static String randomHex(final int bytes) {
+    final byte[] random = new byte[bytes];
+    RANDOM.nextBytes(random);
+    return HexFormat.of().formatHex(random);
+  }
+
+  private static String randomBase64Url(final int bytes) {
+    final byte[] random = new byte[bytes];
+    RANDOM.nextBytes(random);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+  }
+
+  // a session as stored by postPar, sets are HashSets like the ones of ClaimsInfo
+  private static FedIdpAuthSession parSession(final int client) {
+    return FedIdpAuthSession.builder()
+        .fachdienstClientId("https://fachdienst" + client + ".de")
+        .fachdienstState(randomBase64Url(24))
+        .fachdienstCodeChallenge(randomBase64Url(32))
+        .fachdienstCodeChallengeMethod("S256")
+        .fachdienstNonce(randomHex(32))
+        .requestedOptionalClaims(
+            new HashSet<>(
+                Set.of("urn:telematik:claims:email", "urn:telematik:claims:display_name")))
+        .requestedEssentialClaims(
+            new HashSet<>(
+                Set.of(
+                    "urn:telematik:claims:id",
+                    "urn:telematik:claims:profession",
+                    "urn:telematik:claims:organization")))
+        .essentialRequestedAcr(new HashSet<>(Set.of("gematik-ehealth-loa-high")))
+        .essentialRequestedAmr(new HashSet<>())
+        .fachdienstRedirectUri("https://fachdienst" + client + ".de/AS")
+        .authorizationCode(randomHex(8))
+        .idTokenVersion("2.0.0")
+        .expiresAt(System.currentTimeMillis() + 90_000)
+        .build();
+  }
+
+  @Test
+  void test_packAndUnpack_VALID() {
+    final SessionDictionary dictionary = new SessionDictionary(100);
+    final FedIdpAuthSession session = parSession(1);
+    session.getUserData().put("acr", "gematik-ehealth-loa-high");
+    session.getUserData().put("amr", new String[] {"urn:telematik:auth:eGK"});
+    session.getUserData().put("urn:telematik:claims:alter", "35");
+    session.getUserData().put("list", List.of("a", true));
+
+    final FedIdpAuthSession unpacked =
+        CompactFedIdpAuthSession.pack(session, dictionary).unpack(dictionary);
+
+    assertThat(unpacked).usingRecursiveComparison().ignoringFields("userData").isEqualTo(session);
+    assertThat(unpacked.getUserData()).containsEntry("urn:telematik:claims:alter", "35");
+    assertThat(unpacked.getUserData()).containsEntry("list", List.of("a", true));
+    assertThat((String[]) unpacked.getUserData().get("amr"))
+        .containsExactly("urn:telematik:auth:eGK");
+  }
+
+  @Test
+  void test_packAndUnpack_fullDictionaryAndArbitraryStrings_VALID() {
+    final SessionDictionary dictionary = new SessionDictionary(0);
+    final FedIdpAuthSession session =
+        FedIdpAuthSession.builder()
+            .fachdienstClientId("https://fachdienst.de")
+            .fachdienstState("ABCDEF")
+            .fachdienstCodeChallenge("not base64 ü")
+            .fachdienstNonce("abc")
+            .requestedOptionalClaims(Set.of("unknown claim"))
+            .authorizationCode(randomHex(8))
+            .expiresAt(42)
+            .build();
+
+    final FedIdpAuthSession unpacked =
+        CompactFedIdpAuthSession.pack(session, dictionary).unpack(dictionary);
+
+    assertThat(unpacked).usingRecursiveComparison().isEqualTo(session);
+    assertThat(dictionary.size()).isZero();
+  }
+
+  @Test
+  void test_packedSize_parSession_VALID() {
+    final SessionDictionary dictionary = new SessionDictionary(1000);
+    CompactFedIdpAuthSession.pack(parSession(1), dictionary);
+
+    // state, code challenge and nonce as raw bytes, everything else a term of the dictionary
+    final CompactFedIdpAuthSession compact =
+        CompactFedIdpAuthSession.pack(parSession(1), dictionary);
+    log.info("packed pending session: {} bytes", compact.packedSize());
+
+    assertThat(compact.packedSize()).isEqualTo(PACKED_PAR_SESSION_BYTES);
+  }
+
+  /*
+   * heap retained by pending PAR sessions as FedIdpAuthSession and as CompactFedIdpAuthSession,
+   * run with -Dsurefire.excludedGroups= -Dgroups=benchmark. On JDK 21 about 1260 against
+   * 168 bytes per session, 7.5 times as many pending sessions fit into the same heap.
+   */
+  @Tag("benchmark")
+  @Test
+  void benchmark_memoryFootprint() {
+    final int amount = 200_000;
+    final SessionDictionary dictionary = new SessionDictionary(1000);
+
+    final long plainBytes = retainedBytes(amount, i -> parSession(i % 50));
+    final long compactBytes =
+        retainedBytes(amount, i -> CompactFedIdpAuthSession.pack(parSession(i % 50), dictionary));
+    log.info(
+        "heap per pending session: {} bytes as FedIdpAuthSession, {} bytes compact",
+        plainBytes / amount,
+        compactBytes / amount);
+
+    assertThat(compactBytes).isLessThan(plainBytes / 4);
+  }
+
+  // heap growth caused by holding the created objects
+  private static long retainedBytes(final int amount, final IntFunction<Object> factory) {
+    final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    final Object[] holder = new Object[amount];
+    gc();
+    final long before = memory.getHeapMemoryUsage().getUsed();
+    for (int i = 0; i < amount; i++) {
+      holder[i] = factory.apply(i);
+    }
+    gc();
+    final long after = memory.getHeapMemoryUsage().getUsed();
+    assertThat(holder).doesNotContainNull();
+    return after - before;
+  }
+
+  private static void gc() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+  }
+}
@@ -0,0 +1,449 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import lombok.extern.slf4j.Slf4j;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Slf4j
+class InMemoryFedIdpAuthSessionStoreTest {
+
+  private static String code(final long i) {
+    return HexFormat.of().toHexDigits(i);
+  }
+
+  private static FedIdpAuthSession session(final String authorizationCode) {
+    return session(authorizationCode, Instant.now().plusSeconds(90));
+  }
+
+  private static FedIdpAuthSession session(
+      final String authorizationCode, final Instant expiresAt) {
+    return session("https://fachdienst.de", authorizationCode, expiresAt);
+  }
+
+  private static FedIdpAuthSession session(
+      final String clientId, final String authorizationCode, final Instant expiresAt) {
+    return FedIdpAuthSession.builder()
+        .fachdienstClientId(clientId)
+        .fachdienstState("state")
+        .fachdienstCodeChallenge("codeChallenge")
+        .fachdienstCodeChallengeMethod("S256")
+        .fachdienstNonce("nonce")
+        .requestedOptionalClaims(Set.of())
+        .requestedEssentialClaims(Set.of())
+        .fachdienstRedirectUri("https://fachdienst.de/AS")
+        .authorizationCode(authorizationCode)
+        .idTokenVersion("1.0.0")
+        .expiresAt(expiresAt.toEpochMilli())
+        .build();
+  }
+
+  private static InMemoryFedIdpAuthSessionStore store(
+      final int capacity, final MeterRegistry meterRegistry) {
+    return new InMemoryFedIdpAuthSessionStore(
+        SessionStoreConfiguration.builder()
+            .capacity(capacity)
+            .maxSessionsPerClient(capacity)
+            .expiredRetentionSeconds(0)
+            .build(),
+        meterRegistry);
+  }
+
+  private static InMemoryFedIdpAuthSessionStore storeWithSessions(final int amount) {
+    final InMemoryFedIdpAuthSessionStore store = store(10000, new SimpleMeterRegistry());
+    for (int i = 0; i < amount; i++) {
+      store.add(session(code(i)));
+    }
+    return store;
+  }
+
+  @Test
+  void test_add_returnsRequestUriOfClient_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(0);
+    final String requestUri = store.add(session(code(0)));
+    assertThat(requestUri).startsWith("urn:https://fachdienst.de:");
+    assertThat(store.getByRequestUri(requestUri))
+        .hasValueSatisfying(
+            session -> assertThat(session.getAuthorizationCode()).isEqualTo(code(0)));
+    assertThat(store.issueAuthorizationCode(requestUri, store.getByRequestUri(requestUri).get()))
+        .isEqualTo(code(0));
+  }
+
+  @Test
+  void test_issueAuthorizationCode_storesUserData_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(0);
+    final String requestUri = store.add(session(code(0)));
+    final FedIdpAuthSession session = store.getByRequestUri(requestUri).orElseThrow();
+    session.getUserData().put("amr", new String[] {"urn:telematik:auth:eGK"});
+
+    final String authorizationCode = store.issueAuthorizationCode(requestUri, session);
+
+    assertThat(store.getByAuthorizationCode(authorizationCode).orElseThrow().getUserData())
+        .containsKey("amr");
+    assertThat(store.getByRequestUri(requestUri.replace("fachdienst.de", "other.de"))).isEmpty();
+  }
+
+  @Test
+  void test_getByAuthorizationCode_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(3);
+    assertThat(store.getByAuthorizationCode(code(1))).isPresent();
+    assertThat(store.getByAuthorizationCode("0123456789abcdef")).isEmpty();
+  }
+
+  @Test
+  void test_redeemAuthorizationCode_removesSession_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(2);
+    final String requestUri = store.add(session(code(2)));
+    store.redeemAuthorizationCode(code(2));
+    assertThat(store.getByRequestUri(requestUri)).isEmpty();
+    assertThat(store.getByAuthorizationCode(code(2))).isEmpty();
+    assertThat(store.size()).isEqualTo(2);
+  }
+
+  @Test
+  void test_nodeId_namesOwnerInRequestUriAndCode_VALID() {
+    final InMemoryFedIdpAuthSessionStore store =
+        new InMemoryFedIdpAuthSessionStore(
+            SessionStoreConfiguration.builder().nodeId("gsi-1").build(), new SimpleMeterRegistry());
+    final String requestUri = store.add(session(code(1)));
+    final FedIdpAuthSession session = store.getByRequestUri(requestUri).orElseThrow();
+    final String authorizationCode = store.issueAuthorizationCode(requestUri, session);
+
+    assertThat(requestUri).endsWith(".gsi-1");
+    assertThat(authorizationCode).isEqualTo(code(1) + ".gsi-1");
+    assertThat(SessionOwner.ownerOf(requestUri)).contains("gsi-1");
+    assertThat(store.getByRequestUri(requestUri.replace("gsi-1", "gsi-2"))).isEmpty();
+    assertThat(store.redeemAuthorizationCode(code(1) + ".gsi-2")).isEmpty();
+    assertThat(store.redeemAuthorizationCode(authorizationCode)).isPresent();
+  }
+
+  @Test
+  void test_nodeIdBreakingOwnerParsing_isRejected_INVALID() {
+    final SessionStoreConfiguration configuration =
+        SessionStoreConfiguration.builder().nodeId("gsi:1").build();
+    final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    assertThatThrownBy(() -> new InMemoryFedIdpAuthSessionStore(configuration, meterRegistry))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessageContaining("gsi:1");
+  }
+
+  @Test
+  void test_concurrentRedemption_hasSingleWinner_VALID() throws Exception {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(1);
+    final int redemptions = 16;
+    final ExecutorService executor = Executors.newFixedThreadPool(redemptions);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<Optional<FedIdpAuthSession>>> results =
+        IntStream.range(0, redemptions)
+            .mapToObj(
+                i ->
+                    executor.submit(
+                        () -> {
+                          start.await();
+                          return store.redeemAuthorizationCode(code(0));
+                        }))
+            .toList();
+    start.countDown();
+
+    int winners = 0;
+    for (final Future<Optional<FedIdpAuthSession>> result : results) {
+      winners += result.get(10, TimeUnit.SECONDS).isPresent() ? 1 : 0;
+    }
+    executor.shutdown();
+    assertThat(winners).isEqualTo(1);
+    assertThat(store.size()).isZero();
+  }
+
+  @Test
+  void test_evictionAboveCapacity_removesAuthCodeIndex_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(10100);
+    store.cleanUp();
+    assertThat(store.size()).isEqualTo(10000);
+    assertThat(
+            IntStream.range(0, 10100)
+                .filter(i -> store.getByAuthorizationCode(code(i)).isPresent())
+                .count())
+        .isEqualTo(10000);
+    assertThat(store.getByAuthorizationCode(code(10099))).isPresent();
+  }
+
+  @Test
+  void test_limitTo_evictsDownToMemoryBudget_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(1000);
+    final long bytes = store.estimatedBytes();
+
+    store.limitTo(bytes / 4);
+    store.cleanUp();
+    assertThat(store.estimatedBytes()).isLessThanOrEqualTo(bytes / 4);
+    assertThat(store.size()).isBetween(200L, 250L);
+
+    store.limitTo(Long.MAX_VALUE);
+    for (int i = 1000; i < 2000; i++) {
+      store.add(session(code(i)));
+    }
+    store.cleanUp();
+    assertThat(store.size()).isGreaterThan(1000);
+  }
+
+  @Test
+  void test_expiredSessions_areRemovedWithoutAccess_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final InMemoryFedIdpAuthSessionStore store = store(10, meterRegistry);
+    store.add(session(code(0), Instant.now().minusSeconds(1)));
+    store.add(session(code(1)));
+
+    Awaitility.await()
+        .atMost(Duration.ofSeconds(5))
+        .until(() -> removedSessions(meterRegistry, "expired", "https://fachdienst.de") == 1);
+    store.cleanUp();
+
+    assertThat(store.getByAuthorizationCode(code(0))).isEmpty();
+    assertThat(store.size()).isEqualTo(1);
+    assertThat(removedSessions(meterRegistry, "evicted", "https://fachdienst.de")).isZero();
+  }
+
+  @Test
+  void test_floodingClient_evictsOnlyOwnSessions_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final InMemoryFedIdpAuthSessionStore store =
+        new InMemoryFedIdpAuthSessionStore(
+            SessionStoreConfiguration.builder()
+                .capacity(1000)
+                .maxSessionsPerClient(800)
+                .expiredRetentionSeconds(0)
+                .build(),
+            meterRegistry);
+    final Instant expiresAt = Instant.now().plusSeconds(90);
+    IntStream.range(0, 100)
+        .forEach(i -> store.add(session("https://fachdienst.de", code(i), expiresAt)));
+    IntStream.range(100, 5100)
+        .forEach(i -> store.add(session("https://flooding.de", code(i), expiresAt)));
+    store.cleanUp();
+
+    assertThat(
+            IntStream.range(0, 100)
+                .allMatch(i -> store.getByAuthorizationCode(code(i)).isPresent()))
+        .isTrue();
+    // the flooding client uses the capacity left free up to its quota
+    assertThat(store.size()).isEqualTo(900);
+    assertThat(removedSessions(meterRegistry, "evicted", "https://fachdienst.de")).isZero();
+    assertThat(removedSessions(meterRegistry, "evicted", "https://flooding.de")).isEqualTo(4200);
+    assertThat(storedSessions(meterRegistry, "https://flooding.de")).isEqualTo(800);
+  }
+
+  @Test
+  void test_fullStore_evictsFromLargestClient_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final InMemoryFedIdpAuthSessionStore store = store(1000, meterRegistry);
+    final Instant expiresAt = Instant.now().plusSeconds(90);
+    IntStream.range(0, 1000)
+        .forEach(i -> store.add(session("https://flooding.de", code(i), expiresAt)));
+    IntStream.range(1000, 1100)
+        .forEach(i -> store.add(session("https://fachdienst.de", code(i), expiresAt)));
+    store.cleanUp();
+
+    assertThat(
+            IntStream.range(1000, 1100)
+                .allMatch(i -> store.getByAuthorizationCode(code(i)).isPresent()))
+        .isTrue();
+    assertThat(store.size()).isEqualTo(1000);
+    assertThat(storedSessions(meterRegistry, "https://flooding.de")).isEqualTo(900);
+    assertThat(removedSessions(meterRegistry, "evicted", "https://flooding.de")).isEqualTo(100);
+  }
+
+  @Test
+  void test_fullStoreOfEqualClients_evictsFromOldestClient_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final InMemoryFedIdpAuthSessionStore store = store(10, meterRegistry);
+    final Instant expiresAt = Instant.now().plusSeconds(90);
+    IntStream.range(0, 11)
+        .forEach(i -> store.add(session("https://fachdienst" + i + ".de", code(i), expiresAt)));
+    store.cleanUp();
+
+    assertThat(store.size()).isEqualTo(10);
+    assertThat(store.getByAuthorizationCode(code(0))).isEmpty();
+    assertThat(
+            IntStream.range(1, 11).allMatch(i -> store.getByAuthorizationCode(code(i)).isPresent()))
+        .isTrue();
+  }
+
+  @Test
+  void test_redeemedSessionsOfDistinctClients_leaveNoMeters_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final InMemoryFedIdpAuthSessionStore store = store(1000, meterRegistry);
+    final Instant expiresAt = Instant.now().plusSeconds(90);
+    IntStream.range(0, 100)
+        .forEach(i -> store.add(session("https://fachdienst" + i + ".de", code(i), expiresAt)));
+    assertThat(meterRegistry.find("gsi.sessions.stored").gauges()).hasSize(100);
+
+    IntStream.range(0, 100).forEach(i -> store.redeemAuthorizationCode(code(i)));
+
+    assertThat(meterRegistry.find("gsi.sessions.stored").gauges()).isEmpty();
+    assertThat(meterRegistry.find("gsi.sessions.removed").counters()).isEmpty();
+    store.add(session("https://fachdienst0.de", code(0), expiresAt));
+    assertThat(store.getByAuthorizationCode(code(0))).isPresent();
+    assertThat(storedSessions(meterRegistry, "https://fachdienst0.de")).isEqualTo(1);
+  }
+
+  @Test
+  void test_floodOfDistinctClients_keepsMetersWithinCapacity_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final InMemoryFedIdpAuthSessionStore store = store(10, meterRegistry);
+    final Instant expiresAt = Instant.now().plusSeconds(90);
+    IntStream.range(0, 1000)
+        .forEach(i -> store.add(session("https://flooding" + i + ".de", code(i), expiresAt)));
+    store.cleanUp();
+
+    assertThat(store.size()).isEqualTo(10);
+    assertThat(meterRegistry.find("gsi.sessions.stored").gauges()).hasSize(10);
+  }
+
+  @Test
+  void test_expiredSessions_retirePartitionOnCleanUp_VALID() {
+    final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    final InMemoryFedIdpAuthSessionStore store = store(10, meterRegistry);
+    store.add(session(code(0), Instant.now().plusMillis(100)));
+
+    Awaitility.await()
+        .atMost(Duration.ofSeconds(10))
+        .until(
+            () -> {
+              store.cleanUp();
+              return meterRegistry.find("gsi.sessions.stored").gauges().isEmpty();
+            });
+    assertThat(store.size()).isZero();
+  }
+
+  private static double storedSessions(final MeterRegistry meterRegistry, final String clientId) {
+    return meterRegistry.get("gsi.sessions.stored").tag("client_id", clientId).gauge().value();
+  }
+
+  @Test
+  void test_concurrentAddAndRemove_keepsAuthCodeIndexConsistent_VALID() throws Exception {
+    final InMemoryFedIdpAuthSessionStore store = store(20000, new SimpleMeterRegistry());
+    final Map<Integer, String> requestUris = new ConcurrentHashMap<>();
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    IntStream.range(0, 20000)
+        .forEach(
+            i ->
+                executor.execute(
+                    () -> {
+                      requestUris.put(i, store.add(session(code(i))));
+                      if (i % 2 == 0) {
+                        store.redeemAuthorizationCode(code(i));
+                      }
+                    }));
+    executor.shutdown();
+    assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+    store.cleanUp();
+
+    assertThat(store.size()).isEqualTo(10000);
+    IntStream.range(0, 20000)
+        .forEach(
+            i ->
+                assertThat(store.getByAuthorizationCode(code(i)).isPresent())
+                    .isEqualTo(store.getByRequestUri(requestUris.get(i)).isPresent()));
+  }
+
+  @Test
+  void test_lookupByAuthCode_usesAuthCodeIndexWithoutScanning_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = storeWithSessions(1000);
+    final String requestUri = store.add(session(code(1000)));
+    assertThat(store.sessionKeysByAuthCode).hasSize(1001);
+    assertThat(store.getByAuthorizationCode(code(1000))).isPresent();
+
+    // the session is still stored, but without its index entry the token endpoint cannot find it
+    store.sessionKeysByAuthCode.remove(CompactFedIdpAuthSession.packCode(code(1000)));
+
+    assertThat(store.getByAuthorizationCode(code(1000))).isEmpty();
+    assertThat(store.getByRequestUri(requestUri)).isPresent();
+  }
+
+  /*
+   * the time to find a session by code (the lookup done by the token endpoint) must not grow with
+   * the number of stored sessions, run with -Dsurefire.excludedGroups= -Dgroups=benchmark
+   */
+  @Tag("benchmark")
+  @Test
+  void benchmark_lookupByAuthCode_latencyIndependentOfSessionAmount() {
+    final int lookups = 200_000;
+    final InMemoryFedIdpAuthSessionStore fewSessions = storeWithSessions(10);
+    final InMemoryFedIdpAuthSessionStore manySessions = storeWithSessions(10000);
+
+    // warm up
+    measureLookupNanos(fewSessions, 10, lookups);
+    measureLookupNanos(manySessions, 10000, lookups);
+
+    final long nanosFewSessions = measureLookupNanos(fewSessions, 10, lookups);
+    final long nanosManySessions = measureLookupNanos(manySessions, 10000, lookups);
+    log.info(
+        "{} token endpoint session lookups: {} ms with 10 sessions, {} ms with 10000 sessions",
+        lookups,
+        nanosFewSessions / 1_000_000,
+        nanosManySessions / 1_000_000);
+
+    // a linear scan would be ~1000 times slower, allow generous noise for shared build machines
+    assertThat(nanosManySessions).isLessThan(Math.max(nanosFewSessions, 1_000_000L) * 20);
+  }
+
+  private static long measureLookupNanos(
+      final FedIdpAuthSessionStore store, final int amount, final int lookups) {
+    final long start = System.nanoTime();
+    for (int i = 0; i < lookups; i++) {
+      store.getByAuthorizationCode(code(i % amount)).orElseThrow();
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static double removedSessions(
+      final MeterRegistry meterRegistry, final String cause, final String clientId) {
+    return meterRegistry
+        .get("gsi.sessions.removed")
+        .tag("cause", cause)
+        .tag("client_id", clientId)
+        .counter()
+        .count();
+  }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.zaxxer.hikari.HikariDataSource;
+import de.gematik.idp.gsi.server.SessionDatabaseConfiguration;
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import de.gematik.idp.gsi.server.exceptions.GsiException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessException;
+
+class JdbcFedIdpAuthSessionStoreTest {
+
+  private JdbcFedIdpAuthSessionStore nodeA;
+  private JdbcFedIdpAuthSessionStore nodeB;
+  private final List<HikariDataSource> dataSources = new ArrayList<>();
+
+  private static String code(final long i) {
+    return HexFormat.of().toHexDigits(i);
+  }
+
+  private static FedIdpAuthSession session(
+      final String authorizationCode, final Instant expiresAt) {
+    return FedIdpAuthSession.builder()
+        .fachdienstClientId("https://fachdienst.de")
+        .fachdienstState("state")
+        .fachdienstCodeChallenge("codeChallenge")
+        .fachdienstCodeChallengeMethod("S256")
+        .fachdienstNonce("nonce")
+        .requestedOptionalClaims(Set.of())
+        .requestedEssentialClaims(Set.of())
+        .fachdienstRedirectUri("https://fachdienst.de/AS")
+        .authorizationCode(authorizationCode)
+        .idTokenVersion("1.0.0")
+        .expiresAt(expiresAt.toEpochMilli())
+        .build();
+  }
+
+  private static SessionStoreConfiguration configuration(
+      final String jdbcUrl, final boolean initializeSchema) {
+    return SessionStoreConfiguration.builder()
+        .mode("jdbc")
+        .jdbcUrl(jdbcUrl)
+        .jdbcInitializeSchema(initializeSchema)
+        .expiredRetentionSeconds(0)
+        .writeBehindMillis(10000)
+        .expiryDeleteIntervalSeconds(3600)
+        .expiryDeleteBatchSize(10)
+        .build();
+  }
+
+  private JdbcFedIdpAuthSessionStore node(final String jdbcUrl) {
+    return node(jdbcUrl, true);
+  }
+
+  // every node has its own pool, like a node of its own process
+  private JdbcFedIdpAuthSessionStore node(final String jdbcUrl, final boolean initializeSchema) {
+    final SessionStoreConfiguration configuration = configuration(jdbcUrl, initializeSchema);
+    final HikariDataSource dataSource = SessionDatabaseConfiguration.dataSource(configuration);
+    dataSources.add(dataSource);
+    return new JdbcFedIdpAuthSessionStore(configuration, dataSource);
+  }
+
+  @BeforeEach
+  void startNodes() {
+    // both nodes share one database
+    final String jdbcUrl = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+    nodeA = node(jdbcUrl);
+    nodeB = node(jdbcUrl);
+  }
+
+  @AfterEach
+  void stopNodes() {
+    nodeA.close();
+    nodeB.close();
+    dataSources.forEach(HikariDataSource::close);
+  }
+
+  @Test
+  void test_inMemoryOrMissingDatabase_failsStartup_INVALID() {
+    final SessionDatabaseConfiguration inMemory =
+        new SessionDatabaseConfiguration(configuration("jdbc:h2:mem:gsi-sessions", true));
+    final SessionDatabaseConfiguration missing =
+        new SessionDatabaseConfiguration(configuration("", true));
+
+    assertThatThrownBy(inMemory::sessionDataSource).isInstanceOf(IllegalStateException.class);
+    assertThatThrownBy(missing::sessionDataSource).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void test_add_isServedFromNearCacheBeforeWrite_VALID() {
+    final String requestUri = nodeA.add(session(code(1), Instant.now().plusSeconds(90)));
+
+    assertThat(nodeA.getByRequestUri(requestUri)).isPresent();
+    assertThat(nodeB.getByRequestUri(requestUri)).isEmpty();
+  }
+
+  @Test
+  void test_loginAcrossNodes_VALID() {
+    final String requestUri = nodeA.add(session(code(1), Instant.now().plusSeconds(90)));
+    nodeA.flush();
+
+    final FedIdpAuthSession session = nodeB.getByRequestUri(requestUri).orElseThrow();
+    session.getUserData().put("amr", new String[] {"urn:telematik:auth:eGK"});
+    final String authorizationCode = nodeB.issueAuthorizationCode(requestUri, session);
+    nodeB.flush();
+
+    final Optional<FedIdpAuthSession> redeemed = nodeA.redeemAuthorizationCode(authorizationCode);
+    assertThat(redeemed).isPresent();
+    assertThat(redeemed.get().getUserData()).containsKey("amr");
+    assertThat(nodeB.redeemAuthorizationCode(authorizationCode)).isEmpty();
+    assertThat(nodeB.getByAuthorizationCode(authorizationCode)).isEmpty();
+  }
+
+  @Test
+  void test_redeem_writesPendingSessionFirst_VALID() {
+    final String requestUri = nodeA.add(session(code(1), Instant.now().plusSeconds(90)));
+    final FedIdpAuthSession session = nodeA.getByRequestUri(requestUri).orElseThrow();
+    session.getUserData().put("amr", new String[] {"urn:telematik:auth:eGK"});
+    nodeA.issueAuthorizationCode(requestUri, session);
+
+    assertThat(nodeA.redeemAuthorizationCode(code(1)))
+        .hasValueSatisfying(redeemed -> assertThat(redeemed.getUserData()).containsKey("amr"));
+  }
+
+  @Test
+  void test_codeBeforeIssuance_notRedeemable_INVALID() {
+    final String requestUri = nodeA.add(session(code(1), Instant.now().plusSeconds(90)));
+    nodeA.flush();
+
+    assertThat(nodeB.getByAuthorizationCode(code(1))).isEmpty();
+    assertThat(nodeB.redeemAuthorizationCode(code(1))).isEmpty();
+    assertThat(nodeB.getByRequestUri(requestUri)).isPresent();
+  }
+
+  @Test
+  void test_issueAuthorizationCode_writtenThroughAndIssuedOnce_VALID() {
+    final String requestUri = nodeA.add(session(code(1), Instant.now().plusSeconds(90)));
+    final FedIdpAuthSession session = nodeA.getByRequestUri(requestUri).orElseThrow();
+    session.getUserData().put("amr", new String[] {"urn:telematik:auth:eGK"});
+    nodeA.issueAuthorizationCode(requestUri, session);
+
+    assertThat(nodeB.getByAuthorizationCode(code(1)))
+        .hasValueSatisfying(issued -> assertThat(issued.getUserData()).containsKey("amr"));
+    final FedIdpAuthSession stale = nodeB.getByRequestUri(requestUri).orElseThrow();
+    assertThatThrownBy(() -> nodeB.issueAuthorizationCode(requestUri, stale))
+        .isInstanceOf(GsiException.class);
+  }
+
+  @Test
+  void test_failedFlush_keepsPendingWrites_VALID() {
+    final String jdbcUrl = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+    final JdbcFedIdpAuthSessionStore withoutSchema = node(jdbcUrl, false);
+    final String requestUri = withoutSchema.add(session(code(1), Instant.now().plusSeconds(90)));
+
+    assertThatThrownBy(withoutSchema::flush).isInstanceOf(DataAccessException.class);
+
+    final JdbcFedIdpAuthSessionStore withSchema = node(jdbcUrl, true);
+    withoutSchema.flush();
+    assertThat(withSchema.getByRequestUri(requestUri)).isPresent();
+    withoutSchema.close();
+    withSchema.close();
+  }
+
+  @Test
+  void test_concurrentRedemptionOnTwoNodes_hasSingleWinner_VALID() throws Exception {
+    IntStream.range(0, 50)
+        .forEach(
+            i -> {
+              final FedIdpAuthSession session = session(code(i), Instant.now().plusSeconds(90));
+              nodeA.issueAuthorizationCode(nodeA.add(session), session);
+            });
+    final ExecutorService executor = Executors.newFixedThreadPool(8);
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Future<Boolean>> results =
+        IntStream.range(0, 200)
+            .mapToObj(
+                i ->
+                    executor.submit(
+                        () -> {
+                          start.await();
+                          final JdbcFedIdpAuthSessionStore node = i % 2 == 0 ? nodeA : nodeB;
+                          return node.redeemAuthorizationCode(code(i % 50)).isPresent();
+                        }))
+            .toList();
+    start.countDown();
+    int redeemed = 0;
+    for (final Future<Boolean> result : results) {
+      redeemed += Boolean.TRUE.equals(result.get()) ? 1 : 0;
+    }
+    executor.shutdown();
+
+    assertThat(redeemed).isEqualTo(50);
+  }
+
+  @Test
+  void test_deleteExpired_deletesInBatches_VALID() {
+    IntStream.range(0, 25).forEach(i -> nodeA.add(session(code(i), Instant.now().minusSeconds(1))));
+    final String requestUri = nodeA.add(session(code(99), Instant.now().plusSeconds(90)));
+    nodeA.flush();
+
+    assertThat(nodeB.deleteExpired()).isEqualTo(25);
+    assertThat(nodeB.getByRequestUri(requestUri)).isPresent();
+    assertThat(nodeB.getByAuthorizationCode(code(1))).isEmpty();
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static de.gematik.idp.IdpConstants.FED_AUTH_ENDPOINT;
+import static de.gematik.idp.IdpConstants.TOKEN_ENDPOINT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.gsi.server.GsiServer;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Instant;
+import java.util.Set;
+import kong.unirest.core.HttpResponse;
+import kong.unirest.core.Unirest;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/** two in-process gsi-servers with in-memory sessions, forwarding to each other */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class OwnerNodeForwardingFilterTest {
+
+  private ConfigurableApplicationContext nodeA;
+  private ConfigurableApplicationContext nodeB;
+  private String nodeAUrl;
+
+  private static int freePort() throws IOException {
+    try (final ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static ConfigurableApplicationContext startNode(
+      final String nodeId, final int port, final String otherNodeId, final int otherPort) {
+    // command line arguments, they take precedence over application.yml
+    return new SpringApplicationBuilder(GsiServer.class)
+        .run(
+            "--server.port=" + port,
+            "--management.server.port=0",
+            "--gsi.session-store.node-id=" + nodeId,
+            "--gsi.session-store.forward-to-owner=true",
+            "--gsi.session-store.node-urls." + nodeId + "=http://localhost:" + port,
+            "--gsi.session-store.node-urls." + otherNodeId + "=http://localhost:" + otherPort);
+  }
+
+  private static FedIdpAuthSession session() {
+    return FedIdpAuthSession.builder()
+        .fachdienstClientId("https://fachdienst.de")
+        .fachdienstState("state")
+        .fachdienstCodeChallenge("codeChallenge")
+        .fachdienstCodeChallengeMethod("S256")
+        .fachdienstNonce("nonce")
+        .requestedOptionalClaims(Set.of())
+        .requestedEssentialClaims(Set.of())
+        .fachdienstRedirectUri("https://fachdienst.de/AS")
+        .authorizationCode("0123456789abcdef")
+        .idTokenVersion("1.0.0")
+        .expiresAt(Instant.now().plusSeconds(90).toEpochMilli())
+        .build();
+  }
+
+  @BeforeAll
+  void startNodes() throws IOException {
+    final int portA = freePort();
+    final int portB = freePort();
+    nodeA = startNode("gsi-a", portA, "gsi-b", portB);
+    nodeB = startNode("gsi-b", portB, "gsi-a", portA);
+    nodeAUrl = "http://localhost:" + portA;
+  }
+
+  @AfterAll
+  void stopNodes() {
+    nodeA.close();
+    nodeB.close();
+  }
+
+  @Test
+  void test_requestUriOfOtherNode_isForwardedToOwner_VALID() {
+    final String requestUri = nodeB.getBean(FedIdpAuthSessionStore.class).add(session());
+    assertThat(requestUri).endsWith(".gsi-b");
+
+    // only the owner knows the session and can tell that the client_id does not belong to it
+    final HttpResponse<String> response =
+        Unirest.get(nodeAUrl + FED_AUTH_ENDPOINT)
+            .queryString("request_uri", requestUri)
+            .queryString("client_id", "https://other-fachdienst.de")
+            .asString();
+
+    assertThat(response.getStatus()).isEqualTo(400);
+    assertThat(response.getBody()).contains("unknown client_id");
+  }
+
+  @Test
+  void test_codeOfOtherNode_isRedeemedByOwner_VALID() {
+    final FedIdpAuthSessionStore sessionsOfB = nodeB.getBean(FedIdpAuthSessionStore.class);
+    final FedIdpAuthSession session = session();
+    final String requestUri = sessionsOfB.add(session);
+    final String authorizationCode = sessionsOfB.issueAuthorizationCode(requestUri, session);
+
+    final HttpResponse<String> response =
+        Unirest.post(nodeAUrl + TOKEN_ENDPOINT)
+            .field("grant_type", "authorization_code")
+            .field("code", authorizationCode)
+            .field("code_verifier", "codeVerifier")
+            .field("client_id", "https://fachdienst.de")
+            .field("redirect_uri", "https://fachdienst.de/other")
+            .asString();
+
+    assertThat(response.getBody()).contains("invalid redirect_uri");
+    assertThat(sessionsOfB.getByAuthorizationCode(authorizationCode)).isEmpty();
+  }
+
+  @Test
+  void test_forwardedRequest_isNotForwardedAgain_INVALID() {
+    final String requestUri = nodeB.getBean(FedIdpAuthSessionStore.class).add(session());
+
+    final HttpResponse<String> response =
+        Unirest.get(nodeAUrl + FED_AUTH_ENDPOINT)
+            .header(
+                OwnerNodeForwardingFilter.FORWARDED_BY_HEADER,
+                nodeB.getBean(OwnerNodeForwardingFilter.class).marker("GET", FED_AUTH_ENDPOINT))
+            .queryString("request_uri", requestUri)
+            .queryString("client_id", "https://fachdienst.de")
+            .asString();
+
+    assertThat(response.getStatus()).isEqualTo(400);
+    assertThat(response.getBody()).contains("unknown request_uri");
+  }
+
+  @Test
+  void test_forgedForwardedByHeader_isIgnored_VALID() {
+    final String requestUri = nodeB.getBean(FedIdpAuthSessionStore.class).add(session());
+
+    final HttpResponse<String> response =
+        Unirest.get(nodeAUrl + FED_AUTH_ENDPOINT)
+            .header(OwnerNodeForwardingFilter.FORWARDED_BY_HEADER, "gsi-b")
+            .queryString("request_uri", requestUri)
+            .queryString("client_id", "https://other-fachdienst.de")
+            .asString();
+
+    // forwarded anyway, only the owner can tell that the client_id does not belong to it
+    assertThat(response.getStatus()).isEqualTo(400);
+    assertThat(response.getBody()).contains("unknown client_id");
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionJournalTest {
+
+  @TempDir Path journalDirectory;
+
+  private static FedIdpAuthSession session(
+      final String authorizationCode, final Instant expiresAt) {
+    return FedIdpAuthSession.builder()
+        .fachdienstClientId("https://fachdienst.de")
+        .fachdienstState("state")
+        .fachdienstCodeChallenge("codeChallenge")
+        .fachdienstCodeChallengeMethod("S256")
+        .fachdienstNonce("nonce")
+        .requestedOptionalClaims(Set.of())
+        .requestedEssentialClaims(Set.of())
+        .fachdienstRedirectUri("https://fachdienst.de/AS")
+        .authorizationCode(authorizationCode)
+        .idTokenVersion("1.0.0")
+        .expiresAt(expiresAt.toEpochMilli())
+        .build();
+  }
+
+  private static final SecretKey JOURNAL_KEY = new SecretKeySpec(new byte[32], "AES");
+
+  private InMemoryFedIdpAuthSessionStore store() {
+    return store(JOURNAL_KEY);
+  }
+
+  private InMemoryFedIdpAuthSessionStore store(final SecretKey journalKey) {
+    return new InMemoryFedIdpAuthSessionStore(
+        SessionStoreConfiguration.builder()
+            .expiredRetentionSeconds(0)
+            .journalDirectory(journalDirectory.toString())
+            .journalSegmentBytes(64 * 1024)
+            .build(),
+        new SimpleMeterRegistry(),
+        Optional.of(journalKey));
+  }
+
+  @Test
+  void test_restart_restoresPendingSessions_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = store();
+    final String requestUri = store.add(session("0000000000000001", Instant.now().plusSeconds(90)));
+    store.add(session("0000000000000002", Instant.now().plusSeconds(90)));
+    final FedIdpAuthSession session = store.getByRequestUri(requestUri).orElseThrow();
+    session.getUserData().put("amr", new String[] {"urn:telematik:auth:eGK"});
+    store.issueAuthorizationCode(requestUri, session);
+    assertThat(store.redeemAuthorizationCode("0000000000000002")).isPresent();
+    store.close();
+
+    final InMemoryFedIdpAuthSessionStore restarted = store();
+
+    assertThat(restarted.size()).isEqualTo(1);
+    assertThat(restarted.getByRequestUri(requestUri).orElseThrow().getUserData())
+        .containsKey("amr");
+    assertThat(restarted.getByAuthorizationCode("0000000000000002")).isEmpty();
+    restarted.close();
+  }
+
+  @Test
+  void test_restart_skipsExpiredSessions_VALID() {
+    final InMemoryFedIdpAuthSessionStore store = store();
+    store.add(session("0000000000000001", Instant.now().minusSeconds(1)));
+    store.add(session("0000000000000002", Instant.now().plusSeconds(90)));
+    store.close();
+
+    final InMemoryFedIdpAuthSessionStore restarted = store();
+
+    assertThat(restarted.getByAuthorizationCode("0000000000000001")).isEmpty();
+    assertThat(restarted.getByAuthorizationCode("0000000000000002")).isPresent();
+    restarted.close();
+  }
+
+  @Test
+  void test_journal_sealsSessions_VALID() throws IOException {
+    final InMemoryFedIdpAuthSessionStore store = store();
+    final String requestUri = store.add(session("0000000000000001", Instant.now().plusSeconds(90)));
+    final FedIdpAuthSession session = store.getByRequestUri(requestUri).orElseThrow();
+    session.getUserData().put("given_name", "Erika");
+    store.issueAuthorizationCode(requestUri, session);
+    store.close();
+
+    assertThat(
+            new String(
+                Files.readAllBytes(journalDirectory.resolve(SessionJournal.JOURNAL_FILE_NAME)),
+                StandardCharsets.ISO_8859_1))
+        .doesNotContain("Erika")
+        .doesNotContain("https://fachdienst.de");
+    final InMemoryFedIdpAuthSessionStore otherKey =
+        store(
+            new SecretKeySpec(
+                new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES"));
+    assertThat(otherKey.size()).isZero();
+    otherKey.close();
+  }
+
+  @Test
+  void test_replay_stopsAtTornRecord_VALID() throws IOException {
+    final FedIdpAuthSession session = session("0000000000000001", Instant.now().plusSeconds(90));
+    final SessionJournal journal =
+        new SessionJournal(
+            journalDirectory,
+            64 * 1024,
+            Duration.ofMinutes(5),
+            () -> Stream.of(new SessionJournal.Entry(1L, session)),
+            JOURNAL_KEY);
+    journal.start();
+    journal.close();
+    // a record header whose payload never made it to disk
+    try (final FileChannel channel =
+        FileChannel.open(
+            journalDirectory.resolve(SessionJournal.JOURNAL_FILE_NAME), StandardOpenOption.WRITE)) {
+      // record header, type, request id, version, iv and tag around the sealed session
+      final long end = FedIdpAuthSessionCodec.encode(session).length + 17L + 29L;
+      channel.write(ByteBuffer.allocate(8).putInt(100).putInt(42).flip(), end);
+    }
+
+    final List<SessionJournal.Entry> entries =
+        new SessionJournal(
+                journalDirectory, 64 * 1024, Duration.ofMinutes(5), Stream::empty, JOURNAL_KEY)
+            .replay();
+
+    assertThat(entries).hasSize(1);
+    assertThat(entries.get(0).session().getAuthorizationCode()).isEqualTo("0000000000000001");
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (Change Date see Readme), gematik GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * *******
+ *
+ * For additional notes and disclaimer from gematik and in case of changes by gematik find details in the "Readme" file.
+ */
+
+package de.gematik.idp.gsi.server.session;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.zaxxer.hikari.HikariDataSource;
+import de.gematik.idp.gsi.server.SessionDatabaseConfiguration;
+import de.gematik.idp.gsi.server.configuration.SessionStoreConfiguration;
+import de.gematik.idp.gsi.server.data.FedIdpAuthSession;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class StatelessFedIdpAuthSessionStoreTest {
+
+  // every test redeems in its own database
+  private final SessionStoreConfiguration configuration =
+      SessionStoreConfiguration.builder()
+          .mode("stateless")
+          .expiredRetentionSeconds(0)
+          .jdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1")
+          .build();
+
+  private final HikariDataSource dataSource =
+      SessionDatabaseConfiguration.dataSource(configuration);
+
+  private final StatelessFedIdpAuthSessionStore store = store(configuration);
+
+  @AfterEach
+  void closeStore() {
+    store.close();
+    dataSource.close();
+  }
+
+  private StatelessFedIdpAuthSessionStore store(
+      final SessionStoreConfiguration sessionStoreConfiguration) {
+    return new StatelessFedIdpAuthSessionStore(
+        new SecretKeySpec(new byte[32], "AES"), sessionStoreConfiguration, Optional.of(dataSource));
+  }
+
+  private static FedIdpAuthSession session(final Instant expiresAt) {
+    return FedIdpAuthSession.builder()
+        .fachdienstClientId("https://fachdienst.de")
+        .fachdienstState("state")
+        .fachdienstCodeChallenge("codeChallenge")
+        .fachdienstCodeChallengeMethod("S256")
+        .fachdienstNonce("nonce")
+        .requestedOptionalClaims(Set.of("urn:telematik:claims:email"))
+        .requestedEssentialClaims(Set.of("urn:telematik:claims:id"))
+        .essentialRequestedAcr(Set.of("gematik-ehealth-loa-high"))
+        .fachdienstRedirectUri("https://fachdienst.de/AS")
+        .authorizationCode("code0")
+        .idTokenVersion("1.0.0")
+        .expiresAt(expiresAt.toEpochMilli())
+        .build();
+  }
+
+  @Test
+  void test_requestUri_carriesSession_VALID() {
+    final String requestUri = store.add(session(Instant.now().plusSeconds(90)));
+    assertThat(requestUri).startsWith("urn:https://fachdienst.de:");
+
+    final FedIdpAuthSession session = store.getByRequestUri(requestUri).orElseThrow();
+    assertThat(session.getFachdienstState()).isEqualTo("state");
+    assertThat(session.getRequestedEssentialClaims()).containsExactly("urn:telematik:claims:id");
+    assertThat(session.getEssentialRequestedAmr()).isNull();
+    assertThat(store.size()).isZero();
+  }
+
+  @Test
+  void test_authorizationCode_carriesUserData_VALID() {
+    final FedIdpAuthSession session = session(Instant.now().plusSeconds(90));
+    session.getUserData().put("acr", "gematik-ehealth-loa-high");
+    session.getUserData().put("amr", new String[] {"urn:telematik:auth:eGK"});
+    session.getUserData().put("list", List.of("a", 1));
+    final String code = store.issueAuthorizationCode(store.add(session), session);
+
+    final FedIdpAuthSession decoded = store.getByAuthorizationCode(code).orElseThrow();
+    assertThat(decoded.getUserData()).containsEntry("acr", "gematik-ehealth-loa-high");
+    assertThat((String[]) decoded.getUserData().get("amr"))
+        .containsExactly("urn:telematik:auth:eGK");
+    assertThat(decoded.getUserData()).containsEntry("list", List.of("a", 1));
+  }
+
+  @Test
+  void test_authorizationCode_isSingleUse_INVALID() {
+    final FedIdpAuthSession session = session(Instant.now().plusSeconds(90));
+    final String code = store.issueAuthorizationCode(store.add(session), session);
+    store.redeemAuthorizationCode(code);
+    assertThat(store.getByAuthorizationCode(code)).isEmpty();
+  }
+
+  @Test
+  void test_concurrentRedemption_hasSingleWinner_VALID() throws Exception {
+    final FedIdpAuthSession session = session(Instant.now().plusSeconds(90));
+    final String code = store.issueAuthorizationCode(store.add(session), session);
+    final ExecutorService executor = Executors.newFixedThreadPool(16);
+    final List<Future<Optional<FedIdpAuthSession>>> results =
+        IntStream.range(0, 16)
+            .mapToObj(i -> executor.submit(() -> store.redeemAuthorizationCode(code)))
+            .toList();
+
+    int winners = 0;
+    for (final Future<Optional<FedIdpAuthSession>> result : results) {
+      winners += result.get(10, TimeUnit.SECONDS).isPresent() ? 1 : 0;
+    }
+    executor.shutdown();
+    assertThat(winners).isEqualTo(1);
+  }
+
+  @Test
+  void test_authorizationCode_isSingleUseAcrossNodes_INVALID() {
+    final StatelessFedIdpAuthSessionStore otherNode = store(configuration);
+    final FedIdpAuthSession session = session(Instant.now().plusSeconds(90));
+    final String code = store.issueAuthorizationCode(store.add(session), session);
+
+    assertThat(otherNode.redeemAuthorizationCode(code)).isPresent();
+    assertThat(store.getByAuthorizationCode(code)).isEmpty();
+    assertThat(store.redeemAuthorizationCode(code)).isEmpty();
+    otherNode.close();
+  }
+
+  @Test
+  void test_unknownRedemptionStore_INVALID() {
+    final SessionStoreConfiguration unknown =
+        SessionStoreConfiguration.builder().mode("stateless").statelessRedemption("redis").build();
+    assertThatThrownBy(() -> store(unknown)).isInstanceOf(IllegalStateException.class);
+  }
+
+  @Test
+  void test_requestUriIsNoAuthorizationCode_INVALID() {
+    final String requestUri = store.add(session(Instant.now().plusSeconds(90)));
+    assertThat(store.getByAuthorizationCode(requestUri.substring(requestUri.lastIndexOf(':') + 1)))
+        .isEmpty();
+  }
+
+  @Test
+  void test_tamperedOrForeignTokens_INVALID() {
+    final String requestUri = store.add(session(Instant.now().plusSeconds(90)));
+    final char last = requestUri.charAt(requestUri.length() - 1);
+    final String tampered =
+        requestUri.substring(0, requestUri.length() - 1) + (last == 'A' ? 'B' : 'A');
+    assertThat(store.getByRequestUri(tampered)).isEmpty();
+    assertThat(store.getByRequestUri(requestUri.replace("fachdienst.de", "other.de"))).isEmpty();
+    assertThat(
+            new StatelessFedIdpAuthSessionStore(
+                    new SecretKeySpec(
+                        new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES"),
+                    SessionStoreConfiguration.builder()
+                        .mode("stateless")
+                        .statelessRedemption("single-node")
+                        .build(),
+                    Optional.empty())
+                .getByRequestUri(requestUri))
+        .isEmpty();
+    assertThat(store.getByRequestUri("urn:https://fachdienst.de:unknown")).isEmpty();
+  }
+
+  @Test
+  void test_expiredToken_INVALID() {
+    final String requestUri = store.add(session(Instant.now().minusSeconds(1)));
+    assertThat(store.getByRequestUri(requestUri)).isEmpty();
+  }
+}